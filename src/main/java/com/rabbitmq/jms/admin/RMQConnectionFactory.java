@@ -4,6 +4,8 @@ package com.rabbitmq.jms.admin;
 import com.rabbitmq.client.Address;
 import com.rabbitmq.jms.client.ConnectionParams;
 import com.rabbitmq.jms.client.RMQConnection;
+import com.rabbitmq.jms.client.message.JavaObjectMessageSerializer;
+import com.rabbitmq.jms.client.message.ObjectMessageSerializer;
 import com.rabbitmq.jms.util.RMQJMSException;
 import com.rabbitmq.jms.util.RMQJMSSecurityException;
 import com.rabbitmq.jms.util.WhiteListObjectInputStream;
@@ -63,6 +65,72 @@ public class RMQConnectionFactory implements ConnectionFactory, Referenceable, S
      */
     private boolean requeueOnMessageListenerException = false;
 
+    /**
+     * Maximum number of unconfirmed messages per non-transacted session.
+     * Default is 0 (publisher confirms disabled).
+     */
+    private int publisherConfirmsWindowSize = 0;
+
+    /**
+     * Whether to declare topology with no-wait methods, checked by a single barrier.
+     * Default is false.
+     */
+    private boolean declareTopologyNoWait = false;
+
+    /**
+     * Number of messages a consumer buffers for synchronous receive.
+     * Default is 0 (synchronous receive polls the queue).
+     */
+    private int receivePrefetch = 0;
+
+    /**
+     * Whether to call {@link javax.jms.MessageListener#onMessage(Message)} on the consumer dispatch thread.
+     * Default is false.
+     */
+    private boolean onMessageInline = false;
+
+    /**
+     * Number of lanes on which a session calls {@link javax.jms.MessageListener#onMessage(Message)} in parallel.
+     * Default is 1 (one call at a time per session).
+     */
+    private int onMessageLanes = 1;
+
+    /**
+     * Message property assigning messages to lanes.
+     * Default is JMSXGroupID.
+     */
+    private String onMessageGroupProperty = "JMSXGroupID";
+
+    /**
+     * Number of automatically acknowledged messages acknowledged together, kept below the prefetch limits.
+     * Default is 1 (each message is acknowledged on its own).
+     */
+    private int ackBatchSize = 1;
+
+    /**
+     * Longest time an automatic acknowledgement is held back to be acknowledged with others.
+     * Default is 100 ms.
+     */
+    private int ackBatchTimeoutMs = 100;
+
+    /**
+     * Longest time an individual acknowledgement is held back to be acknowledged with others.
+     * Default is 0 (each message is acknowledged on its own).
+     */
+    private int individualAckDelayMs = 0;
+
+    /**
+     * Whether producers send messages in the compact binary format.
+     * Default is false (Java serialization format).
+     */
+    private boolean compactMessageEncoding = false;
+
+    /**
+     * Whether compact messages leave out the properties carried in the AMQP headers.
+     * Default is false.
+     */
+    private boolean propertiesInHeadersOnly = false;
+
     /** Default not to use ssl */
     private boolean ssl = false;
     private String tlsProtocol;
@@ -90,6 +158,13 @@ public class RMQConnectionFactory implements ConnectionFactory, Referenceable, S
      */
     private List<String> trustedPackages = WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES;
 
+    /**
+     * Serializes the objects of ObjectMessages.
+     *
+     * @see ObjectMessageSerializer
+     */
+    private ObjectMessageSerializer objectMessageSerializer = JavaObjectMessageSerializer.INSTANCE;
+
     /**
      * {@inheritDoc}
      */
@@ -124,8 +199,20 @@ public class RMQConnectionFactory implements ConnectionFactory, Referenceable, S
             .setChannelsQos(channelsQos)
             .setPreferProducerMessageProperty(preferProducerMessageProperty)
             .setRequeueOnMessageListenerException(requeueOnMessageListenerException)
+            .setPublisherConfirmsWindowSize(publisherConfirmsWindowSize)
+            .setDeclareTopologyNoWait(declareTopologyNoWait)
+            .setReceivePrefetch(receivePrefetch)
+            .setOnMessageInline(onMessageInline)
+            .setOnMessageLanes(onMessageLanes)
+            .setOnMessageGroupProperty(onMessageGroupProperty)
+            .setAckBatchSize(ackBatchSize)
+            .setAckBatchTimeoutMs(ackBatchTimeoutMs)
+            .setIndividualAckDelayMs(individualAckDelayMs)
+            .setCompactMessageEncoding(compactMessageEncoding)
+            .setPropertiesInHeadersOnly(propertiesInHeadersOnly)
         );
         conn.setTrustedPackages(this.trustedPackages);
+        conn.setObjectMessageSerializer(this.objectMessageSerializer);
         logger.debug("Connection {} created.", conn);
         return conn;
     }
@@ -147,8 +234,20 @@ public class RMQConnectionFactory implements ConnectionFactory, Referenceable, S
             .setChannelsQos(channelsQos)
             .setPreferProducerMessageProperty(preferProducerMessageProperty)
             .setRequeueOnMessageListenerException(requeueOnMessageListenerException)
+            .setPublisherConfirmsWindowSize(publisherConfirmsWindowSize)
+            .setDeclareTopologyNoWait(declareTopologyNoWait)
+            .setReceivePrefetch(receivePrefetch)
+            .setOnMessageInline(onMessageInline)
+            .setOnMessageLanes(onMessageLanes)
+            .setOnMessageGroupProperty(onMessageGroupProperty)
+            .setAckBatchSize(ackBatchSize)
+            .setAckBatchTimeoutMs(ackBatchTimeoutMs)
+            .setIndividualAckDelayMs(individualAckDelayMs)
+            .setCompactMessageEncoding(compactMessageEncoding)
+            .setPropertiesInHeadersOnly(propertiesInHeadersOnly)
         );
         conn.setTrustedPackages(this.trustedPackages);
+        conn.setObjectMessageSerializer(this.objectMessageSerializer);
         logger.debug("Connection {} created.", conn);
         return conn;
     }
@@ -264,6 +363,27 @@ public class RMQConnectionFactory implements ConnectionFactory, Referenceable, S
         return trustedPackages;
     }
 
+    /**
+     * Sets how the objects of {@link javax.jms.ObjectMessage}s are turned into message bodies and back.
+     * Defaults to Java serialization.
+     * <p>
+     * Whatever the serializer, only classes in the trusted packages are deserialized.
+     * Producers and consumers of the same messages must use the same serializer.
+     * </p>
+     * @param objectMessageSerializer serializer for the objects of ObjectMessages
+     * @see #setTrustedPackages(List)
+     */
+    public void setObjectMessageSerializer(ObjectMessageSerializer objectMessageSerializer) {
+        this.objectMessageSerializer = objectMessageSerializer == null ? JavaObjectMessageSerializer.INSTANCE : objectMessageSerializer;
+    }
+
+    /**
+     * @return serializer for the objects of {@link javax.jms.ObjectMessage}s
+     */
+    public ObjectMessageSerializer getObjectMessageSerializer() {
+        return objectMessageSerializer;
+    }
+
     private static void setRabbitUri(Logger logger, RMQConnectionFactory rmqFactory, com.rabbitmq.client.ConnectionFactory factory, String uriString) throws RMQJMSException {
         if (uriString != null) { // we get the defaults if the uri is null
             try {
@@ -674,5 +794,196 @@ public class RMQConnectionFactory implements ConnectionFactory, Referenceable, S
     public boolean isRequeueOnMessageListenerException() {
         return requeueOnMessageListenerException;
     }
-}
 
+    /**
+     * Enables publisher confirms on non-transacted sessions, with at most this many messages
+     * published but not yet confirmed by the broker per session. A send blocks while the window is full.
+     * Messages the broker does not confirm are reported to the producer's
+     * {@link com.rabbitmq.jms.client.PublishNackListener}, or else to the connection's
+     * {@link javax.jms.ExceptionListener}.
+     * Default is 0 (publisher confirms disabled).
+     * @param publisherConfirmsWindowSize maximum number of unconfirmed messages, 0 to disable publisher confirms
+     */
+    public void setPublisherConfirmsWindowSize(int publisherConfirmsWindowSize) {
+        this.publisherConfirmsWindowSize = Math.max(0, publisherConfirmsWindowSize);
+    }
+
+    public int getPublisherConfirmsWindowSize() {
+        return publisherConfirmsWindowSize;
+    }
+
+    /**
+     * Whether sessions declare exchanges, queues and bindings with the no-wait AMQP methods, so that many
+     * declarations are pipelined instead of each waiting for a broker round trip.
+     * Failures are detected by a single synchronous barrier on the session's channel, made before the session
+     * first sends a message and when the connection is started.
+     * Default is false.
+     */
+    public void setDeclareTopologyNoWait(boolean declareTopologyNoWait) {
+        this.declareTopologyNoWait = declareTopologyNoWait;
+    }
+
+    public boolean isDeclareTopologyNoWait() {
+        return declareTopologyNoWait;
+    }
+
+    /**
+     * Number of messages a consumer buffers for synchronous receive.
+     * <p>
+     * If positive, a consumer subscribes to its queue on its first <code>receive</code>, with this prefetch limit,
+     * and <code>receive</code> takes messages from the local buffer, instead of polling the queue.
+     * Buffered messages are returned to the queue when the consumer is closed or the connection stopped.
+     * This applies to sessions that are neither transacted nor {@link javax.jms.Session#CLIENT_ACKNOWLEDGE},
+     * since unacknowledged messages would otherwise hold up the subscription.
+     * </p>
+     * Default is 0 (synchronous receive polls the queue).
+     * @param receivePrefetch number of messages to buffer, 0 to poll
+     */
+    public void setReceivePrefetch(int receivePrefetch) {
+        this.receivePrefetch = Math.max(0, receivePrefetch);
+    }
+
+    public int getReceivePrefetch() {
+        return receivePrefetch;
+    }
+
+    /**
+     * Whether {@link MessageListener#onMessage(Message)} is called directly on the thread that dispatches the
+     * message from the connection, instead of being handed over to a thread of the session's own.
+     * <p>
+     * This saves two thread hand-offs per message. <i>onMessageTimeoutMs</i> is still enforced, by a watchdog shared
+     * by all sessions which interrupts a listener that overruns it.
+     * </p>
+     * Default is false.
+     */
+    public void setOnMessageInline(boolean onMessageInline) {
+        this.onMessageInline = onMessageInline;
+    }
+
+    public boolean isOnMessageInline() {
+        return onMessageInline;
+    }
+
+    /**
+     * Number of lanes on which a session calls {@link MessageListener#onMessage(Message)} in parallel. Lanes are not used
+     * by transacted or {@link javax.jms.Session#CLIENT_ACKNOWLEDGE} sessions, where acknowledging a message would also
+     * acknowledge earlier ones still being processed on other lanes.
+     * <p>
+     * Messages are assigned to lanes by their <i>onMessageGroupProperty</i>, and each lane processes its messages in
+     * order, so messages of the same group are still processed one at a time and in order. Messages without the property
+     * all go to the same lane. Messages acknowledged after processing are only acknowledged once every earlier message
+     * of the session has been processed.
+     * </p>
+     * Default is 1 (one call at a time per session).
+     * @param onMessageLanes number of lanes, 1 for sequential delivery
+     */
+    public void setOnMessageLanes(int onMessageLanes) {
+        this.onMessageLanes = Math.max(1, onMessageLanes);
+    }
+
+    public int getOnMessageLanes() {
+        return onMessageLanes;
+    }
+
+    /**
+     * Message property assigning messages to lanes when <i>onMessageLanes</i> is greater than 1.
+     * Default is JMSXGroupID.
+     */
+    public void setOnMessageGroupProperty(String onMessageGroupProperty) {
+        this.onMessageGroupProperty = onMessageGroupProperty;
+    }
+
+    public String getOnMessageGroupProperty() {
+        return onMessageGroupProperty;
+    }
+
+    /**
+     * Number of messages acknowledged together by {@link javax.jms.Session#AUTO_ACKNOWLEDGE} and
+     * {@link javax.jms.Session#DUPS_OK_ACKNOWLEDGE} sessions.
+     * <p>
+     * If greater than 1, such a session acknowledges the messages it receives with a single <code>basic.ack</code>
+     * once this many have been received or <i>ackBatchTimeoutMs</i> has passed, and when it is stopped, recovered or
+     * closed. Messages received but not yet acknowledged are redelivered if the connection fails.
+     * </p>
+     * <p>
+     * A session acknowledges fewer messages together than its prefetch limits, <i>channelsQos</i> and
+     * <i>receivePrefetch</i>, whatever this is set to: the broker stops delivering once that many messages are
+     * unacknowledged, so a larger batch would only be acknowledged after <i>ackBatchTimeoutMs</i>.
+     * </p>
+     * Default is 1 (each message is acknowledged on its own).
+     */
+    public void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = Math.max(1, ackBatchSize);
+    }
+
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    /**
+     * Longest time, in milliseconds, an acknowledgement is held back when <i>ackBatchSize</i> is greater than 1.
+     * Default is 100 ms.
+     */
+    public void setAckBatchTimeoutMs(int ackBatchTimeoutMs) {
+        if (ackBatchTimeoutMs > 0) this.ackBatchTimeoutMs = ackBatchTimeoutMs;
+        else this.logger.warn("Cannot set ackBatchTimeoutMs to non-positive value {} (on {})", ackBatchTimeoutMs, this);
+    }
+
+    public int getAckBatchTimeoutMs() {
+        return ackBatchTimeoutMs;
+    }
+
+    /**
+     * Longest time, in milliseconds, a {@link com.rabbitmq.jms.client.RMQSession#CLIENT_INDIVIDUAL_ACKNOWLEDGE} session
+     * holds back an acknowledgement to send it with others.
+     * <p>
+     * If positive, messages acknowledged in any order are acknowledged to the broker together, with a single
+     * <code>basic.ack</code>, as soon as all earlier messages received have been acknowledged too. A message acknowledged
+     * while an earlier one is still outstanding is acknowledged on its own after this delay.
+     * </p>
+     * Default is 0 (each message is acknowledged on its own, straight away).
+     */
+    public void setIndividualAckDelayMs(int individualAckDelayMs) {
+        this.individualAckDelayMs = Math.max(0, individualAckDelayMs);
+    }
+
+    public int getIndividualAckDelayMs() {
+        return individualAckDelayMs;
+    }
+
+    /**
+     * Whether producers send JMS messages in the compact binary format rather than in the Java serialization format.
+     * <p>
+     * The compact format is smaller and quicker to write and read. Receivers of this version read both formats,
+     * whatever this is set to, but receivers of earlier versions only read the Java serialization format.
+     * Does not apply to AMQP messages.
+     * </p>
+     * Default is false.
+     */
+    public void setCompactMessageEncoding(boolean compactMessageEncoding) {
+        this.compactMessageEncoding = compactMessageEncoding;
+    }
+
+    public boolean isCompactMessageEncoding() {
+        return compactMessageEncoding;
+    }
+
+    /**
+     * Whether producers carry the message properties in the AMQP headers only, when <i>compactMessageEncoding</i> is
+     * set.
+     * <p>
+     * The user properties and the JMS delivery mode, message id, timestamp, priority, correlation id and type are sent
+     * in the AMQP properties and headers, for message selection, and are otherwise repeated in the message. If this is set they are
+     * not repeated, and receivers rebuild them from the headers. Receivers then also see as properties any headers
+     * of property types added on the way, e.g. by another AMQP client forwarding the message.
+     * </p>
+     * Default is false.
+     */
+    public void setPropertiesInHeadersOnly(boolean propertiesInHeadersOnly) {
+        this.propertiesInHeadersOnly = propertiesInHeadersOnly;
+    }
+
+    public boolean isPropertiesInHeadersOnly() {
+        return propertiesInHeadersOnly;
+    }
+}
@@ -0,0 +1,104 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the acknowledgements of a session which acknowledges automatically.
+ * <p>
+ * Rather than acknowledging each message as it is received, the highest delivery tag received is remembered and
+ * acknowledged with <code>multiple=true</code> once <i>batchSize</i> messages have been received or
+ * <i>batchTimeoutMs</i> milliseconds have passed since the first of them, whichever comes first. The session
+ * {@link #flush}es when it is stopped, recovered or closed.
+ * </p>
+ * <p>
+ * An acknowledgement with <code>multiple=true</code> covers every earlier delivery on the channel, so the tags given to
+ * {@link #ack} must be increasing, and every earlier delivery must be due for acknowledgement too.
+ * </p>
+ */
+class AckAccumulator {
+
+    /** Timer shared by all sessions, to flush acknowledgements held back */
+    static final ScheduledExecutorService FLUSH_TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "rabbitmq-jms-ack-flush");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final RMQSession session;
+    private final int batchSize;
+    private final long batchTimeoutMs;
+
+    /** Highest delivery tag received and not yet acknowledged, 0 if there is none */
+    private long highestTag = 0; // GuardedBy(this)
+    private int count = 0; // GuardedBy(this)
+    /** Whether a timed flush of the current batch is scheduled */
+    private boolean flushScheduled = false; // GuardedBy(this)
+
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (AckAccumulator.this) {
+                AckAccumulator.this.flushScheduled = false;
+                AckAccumulator.this.flush();
+            }
+        }
+    };
+
+    /**
+     * Keeps a batch smaller than the prefetch limits of the session: the broker stops delivering once that many messages
+     * are unacknowledged, so a batch which cannot fill before then would hold up every delivery until it times out.
+     * @param ackBatchSize the batch size configured
+     * @param channelsQos the prefetch limit of the session channel, 0 if unlimited
+     * @param receivePrefetch the prefetch limit of a consumer's receive buffer, 0 if there is none
+     * @return the number of messages to acknowledge together, 1 or less to acknowledge each on its own
+     */
+    static int batchSizeBelowPrefetch(int ackBatchSize, int channelsQos, int receivePrefetch) {
+        int batchSize = ackBatchSize;
+        if (channelsQos > 0) batchSize = Math.min(batchSize, channelsQos - 1);
+        if (receivePrefetch > 0) batchSize = Math.min(batchSize, receivePrefetch - 1);
+        return batchSize;
+    }
+
+    /**
+     * @param session the session acknowledging
+     * @param batchSize the number of messages acknowledged together
+     * @param batchTimeoutMs the longest time an acknowledgement is held back, in milliseconds
+     */
+    AckAccumulator(RMQSession session, int batchSize, long batchTimeoutMs) {
+        this.session = session;
+        this.batchSize = batchSize;
+        this.batchTimeoutMs = batchTimeoutMs;
+    }
+
+    /**
+     * Records that a message (and every earlier delivery) is to be acknowledged.
+     * @param deliveryTag the delivery tag of the message
+     */
+    synchronized void ack(long deliveryTag) {
+        this.highestTag = deliveryTag;
+        if (++this.count >= this.batchSize) {
+            this.flush();
+        } else if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            FLUSH_TIMER.schedule(this.timedFlush, this.batchTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Acknowledges the messages received so far, if any.
+     */
+    synchronized void flush() {
+        if (this.highestTag == 0) return;
+        long tag = this.highestTag;
+        this.highestTag = 0;
+        this.count = 0;
+        this.session.explicitAck(tag, true);
+    }
+}
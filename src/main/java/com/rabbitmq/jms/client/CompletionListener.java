@@ -0,0 +1,35 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import javax.jms.Message;
+
+/**
+ * Callback for asynchronous sends on {@link RMQMessageProducer}, modelled on the JMS 2.0 interface of the same name
+ * (which is not part of the JMS 1.1 API this client implements).
+ * <p>
+ * If the session is in publisher confirms mode, exactly one of the methods is called once the broker confirms or
+ * nacks the message (or the channel closes first). Otherwise {@link #onCompletion(Message)} is called as soon as
+ * the message has been handed to the channel.
+ * </p>
+ * <p>
+ * Confirmations arrive on a RabbitMQ client thread, so implementations must not block, nor use the session
+ * that sent the message.
+ * </p>
+ * @see RMQMessageProducer#send(javax.jms.Destination, Message, CompletionListener)
+ */
+public interface CompletionListener {
+
+    /**
+     * Called when the message has been successfully sent.
+     * @param message the message as sent
+     */
+    void onCompletion(Message message);
+
+    /**
+     * Called when the broker did not confirm the message.
+     * @param message the message as sent
+     * @param exception describes why the send failed
+     */
+    void onException(Message message, Exception exception);
+
+}
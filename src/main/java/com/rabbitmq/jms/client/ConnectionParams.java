@@ -45,6 +45,73 @@ public class ConnectionParams {
      */
     private boolean requeueOnMessageListenerException = false;
 
+    /**
+     * Maximum number of unconfirmed messages per session
+     * when publisher confirms are enabled.
+     * Default is 0 (publisher confirms disabled).
+     */
+    private int publisherConfirmsWindowSize = 0;
+
+    /**
+     * Whether to declare topology with no-wait methods, checked by a single barrier.
+     * Default is false.
+     */
+    private boolean declareTopologyNoWait = false;
+
+    /**
+     * Number of messages a consumer buffers for synchronous receive.
+     * Default is 0 (synchronous receive polls the queue).
+     */
+    private int receivePrefetch = 0;
+
+    /**
+     * Whether to call onMessage on the consumer dispatch thread.
+     * Default is false.
+     */
+    private boolean onMessageInline = false;
+
+    /**
+     * Number of lanes on which onMessage is called in parallel.
+     * Default is 1 (one call at a time per session).
+     */
+    private int onMessageLanes = 1;
+
+    /**
+     * Message property assigning messages to lanes.
+     * Default is JMSXGroupID.
+     */
+    private String onMessageGroupProperty = "JMSXGroupID";
+
+    /**
+     * Number of automatically acknowledged messages acknowledged together.
+     * Default is 1 (each message is acknowledged on its own).
+     */
+    private int ackBatchSize = 1;
+
+    /**
+     * Longest time an automatic acknowledgement is held back, in milliseconds.
+     * Default is 100 ms.
+     */
+    private int ackBatchTimeoutMs = 100;
+
+    /**
+     * Longest time an individual acknowledgement is held back, in milliseconds.
+     * Default is 0 (each message is acknowledged on its own).
+     */
+    private int individualAckDelayMs = 0;
+
+    /**
+     * Whether producers send messages in the compact binary format.
+     * Default is false.
+     */
+    private boolean compactMessageEncoding = false;
+
+    /**
+     * Whether compact messages leave out the properties carried in the AMQP headers.
+     * Default is false.
+     */
+    private boolean propertiesInHeadersOnly = false;
+
     public Connection getRabbitConnection() {
         return rabbitConnection;
     }
@@ -107,4 +174,103 @@ public class ConnectionParams {
         this.requeueOnMessageListenerException = requeueOnMessageListenerException;
         return this;
     }
+
+    public int getPublisherConfirmsWindowSize() {
+        return publisherConfirmsWindowSize;
+    }
+
+    public ConnectionParams setPublisherConfirmsWindowSize(int publisherConfirmsWindowSize) {
+        this.publisherConfirmsWindowSize = publisherConfirmsWindowSize;
+        return this;
+    }
+
+    public boolean willDeclareTopologyNoWait() {
+        return declareTopologyNoWait;
+    }
+
+    public ConnectionParams setDeclareTopologyNoWait(boolean declareTopologyNoWait) {
+        this.declareTopologyNoWait = declareTopologyNoWait;
+        return this;
+    }
+
+    public int getReceivePrefetch() {
+        return receivePrefetch;
+    }
+
+    public ConnectionParams setReceivePrefetch(int receivePrefetch) {
+        this.receivePrefetch = receivePrefetch;
+        return this;
+    }
+
+    public boolean willDeliverOnMessageInline() {
+        return onMessageInline;
+    }
+
+    public ConnectionParams setOnMessageInline(boolean onMessageInline) {
+        this.onMessageInline = onMessageInline;
+        return this;
+    }
+
+    public int getOnMessageLanes() {
+        return onMessageLanes;
+    }
+
+    public ConnectionParams setOnMessageLanes(int onMessageLanes) {
+        this.onMessageLanes = onMessageLanes;
+        return this;
+    }
+
+    public String getOnMessageGroupProperty() {
+        return onMessageGroupProperty;
+    }
+
+    public ConnectionParams setOnMessageGroupProperty(String onMessageGroupProperty) {
+        this.onMessageGroupProperty = onMessageGroupProperty;
+        return this;
+    }
+
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    public ConnectionParams setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+        return this;
+    }
+
+    public int getAckBatchTimeoutMs() {
+        return ackBatchTimeoutMs;
+    }
+
+    public ConnectionParams setAckBatchTimeoutMs(int ackBatchTimeoutMs) {
+        this.ackBatchTimeoutMs = ackBatchTimeoutMs;
+        return this;
+    }
+
+    public int getIndividualAckDelayMs() {
+        return individualAckDelayMs;
+    }
+
+    public ConnectionParams setIndividualAckDelayMs(int individualAckDelayMs) {
+        this.individualAckDelayMs = individualAckDelayMs;
+        return this;
+    }
+
+    public boolean willUseCompactMessageEncoding() {
+        return compactMessageEncoding;
+    }
+
+    public ConnectionParams setCompactMessageEncoding(boolean compactMessageEncoding) {
+        this.compactMessageEncoding = compactMessageEncoding;
+        return this;
+    }
+
+    public boolean willPutPropertiesInHeadersOnly() {
+        return propertiesInHeadersOnly;
+    }
+
+    public ConnectionParams setPropertiesInHeadersOnly(boolean propertiesInHeadersOnly) {
+        this.propertiesInHeadersOnly = propertiesInHeadersOnly;
+        return this;
+    }
 }
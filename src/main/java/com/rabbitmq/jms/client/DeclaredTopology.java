@@ -0,0 +1,109 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+/**
+ * Records the exchanges, queues and bindings declared on the broker through a connection, so that each is declared
+ * at most once per connection, whichever session or {@link com.rabbitmq.jms.admin.RMQDestination} instance
+ * asks for it.
+ * <p>
+ * Entries are keyed by the declaration arguments as well as the name, so a declaration with different arguments still
+ * goes to the broker (and fails there as before). Only entities that outlive the declaring channel should be recorded.
+ * The record is cleared when the connection starts to recover, since the broker may no longer have them.
+ * </p>
+ */
+class DeclaredTopology implements RecoveryListener {
+
+    private final Set<List<Object>> exchanges = newConcurrentSet();
+    private final Set<List<Object>> queues = newConcurrentSet();
+    private final Set<List<Object>> bindings = newConcurrentSet();
+
+    private static Set<List<Object>> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+    }
+
+    private static List<Object> exchangeKey(String name, String type, boolean durable) {
+        return Arrays.<Object>asList(name, type, durable);
+    }
+
+    private static List<Object> queueKey(String name, boolean durable) {
+        return Arrays.<Object>asList(name, durable);
+    }
+
+    private static List<Object> bindingKey(String queue, String exchange, String routingKey) {
+        return Arrays.<Object>asList(queue, exchange, routingKey);
+    }
+
+    boolean isExchangeDeclared(String name, String type, boolean durable) {
+        return this.exchanges.contains(exchangeKey(name, type, durable));
+    }
+
+    void exchangeDeclared(String name, String type, boolean durable) {
+        this.exchanges.add(exchangeKey(name, type, durable));
+    }
+
+    boolean isQueueDeclared(String name, boolean durable) {
+        return this.queues.contains(queueKey(name, durable));
+    }
+
+    void queueDeclared(String name, boolean durable) {
+        this.queues.add(queueKey(name, durable));
+    }
+
+    boolean isBindingDeclared(String queue, String exchange, String routingKey) {
+        return this.bindings.contains(bindingKey(queue, exchange, routingKey));
+    }
+
+    void bindingDeclared(String queue, String exchange, String routingKey) {
+        this.bindings.add(bindingKey(queue, exchange, routingKey));
+    }
+
+    /**
+     * Forgets a queue, and its bindings, after it has been deleted.
+     * @param name the queue name
+     */
+    void queueDeleted(String name) {
+        removeByName(this.queues, name);
+        removeByName(this.bindings, name);
+    }
+
+    private static void removeByName(Set<List<Object>> keys, String name) {
+        for (Iterator<List<Object>> it = keys.iterator(); it.hasNext(); ) {
+            if (name.equals(it.next().get(0))) it.remove();
+        }
+    }
+
+    /**
+     * Records everything recorded in another instance.
+     */
+    void addAll(DeclaredTopology other) {
+        this.exchanges.addAll(other.exchanges);
+        this.queues.addAll(other.queues);
+        this.bindings.addAll(other.bindings);
+    }
+
+    void clear() {
+        this.exchanges.clear();
+        this.queues.clear();
+        this.bindings.clear();
+    }
+
+    @Override
+    public void handleRecoveryStarted(Recoverable recoverable) {
+        this.clear();
+    }
+
+    @Override
+    public void handleRecovery(Recoverable recoverable) {
+        this.clear();
+    }
+}
@@ -1,6 +1,8 @@
 /* Copyright (c) 2013 Pivotal Software, Inc. All rights reserved. */
 package com.rabbitmq.jms.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -64,6 +66,26 @@ class DelayedReceiver {
         }
     }
 
+    /**
+     * Get up to <code>maxMessages</code> messages: waits as for {@link #get(TimeTracker)} for the first one, then
+     * fetches whatever else is immediately available.
+     * @param maxMessages - the maximum number of messages to return
+     * @param tt - keeps track of the time available
+     * @return messages gotten, empty if timeout or connection closed.
+     */
+    public List<GetResponse> get(int maxMessages, TimeTracker tt) {
+        List<GetResponse> responses = new ArrayList<GetResponse>();
+        synchronized (this.responseLock) {
+            GetResponse resp = this.get(tt);
+            while (resp != null) {
+                responses.add(resp);
+                if (responses.size() >= maxMessages) break;
+                resp = this.rmqMessageConsumer.getFromRabbitQueue();
+            }
+        }
+        return responses;
+    }
+
     private void abort() {
         synchronized(this.responseLock) {
             this.aborted = true;
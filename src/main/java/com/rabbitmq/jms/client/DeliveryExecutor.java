@@ -17,6 +17,11 @@ import com.rabbitmq.jms.util.RMQJMSException;
  * Class to deliver messages to the <code>onMessage()</code> callback. Handles execution on a different thread, timeout
  * if execution takes too long (set on instantiation), and interrupts execution on closure or timeout. Also serialises
  * calls. There is one instance of this executor per session.
+ * <p>
+ * Alternatively, <code>onMessage()</code> can be called <i>inline</i>, on the calling (consumer dispatch) thread, which
+ * already serialises deliveries for the session's channel. The timeout is then enforced by the shared
+ * {@link OnMessageWatchdog}.
+ * </p>
  */
 public class DeliveryExecutor {
 
@@ -42,8 +47,22 @@ public class DeliveryExecutor {
     private ExecutorService onMessageExecutorService = null;
     private final Object lockOnMessageExecutorService = new Object();
 
+    /** Whether onMessage calls are made on the calling thread */
+    private final boolean inline;
+    /** Watch on inline onMessage calls, allocated if/when the first call is made. */
+    private volatile OnMessageWatchdog.Watch onMessageWatch = null; // GuardedBy(lockOnMessageExecutorService) for writes
+
     public DeliveryExecutor(long onMessageTimeoutMs) {
+        this(onMessageTimeoutMs, false);
+    }
+
+    /**
+     * @param onMessageTimeoutMs timeout for onMessage executions, in milliseconds
+     * @param inline whether to call onMessage on the calling thread, rather than a thread of this executor's own
+     */
+    public DeliveryExecutor(long onMessageTimeoutMs, boolean inline) {
         this.onMessageTimeoutMs = onMessageTimeoutMs;
+        this.inline = inline;
     }
 
     /**
@@ -58,6 +77,10 @@ public class DeliveryExecutor {
      * @throws InterruptedException if executing thread is interrupted
      */
     public void deliverMessageWithProtection(RMQMessage rmqMessage, MessageListener messageListener) throws JMSException, InterruptedException {
+        if (this.inline) {
+            this.deliverMessageInline(rmqMessage, messageListener);
+            return;
+        }
         try {
             this.getExecutorService().submit(new CallOnMessage(rmqMessage, messageListener)).get(this.onMessageTimeoutMs, TimeUnit.MILLISECONDS);
         } catch (TimeoutException e) {
@@ -68,8 +91,49 @@ public class DeliveryExecutor {
         }
     }
 
+    /**
+     * Delivers the message on the calling thread, watched by the shared {@link OnMessageWatchdog}, which interrupts the
+     * call if it takes too long.
+     */
+    private void deliverMessageInline(RMQMessage rmqMessage, MessageListener messageListener) throws JMSException {
+        OnMessageWatchdog.Watch watch = this.getOnMessageWatch();
+        RuntimeException listenerException = null;
+        watch.start();
+        try {
+            messageListener.onMessage(rmqMessage);
+        } catch (RuntimeException e) {
+            listenerException = e;
+        } finally {
+            if (watch.stop()) {
+                throw new RMQJMSException("onMessage took too long and was interrupted", null);
+            }
+        }
+        if (listenerException != null) {
+            throw new RMQMessageListenerExecutionJMSException("onMessage threw exception", listenerException);
+        }
+    }
+
     public void close() {
         closeExecutorService(this.takeExecutorService());
+        synchronized (this.lockOnMessageExecutorService) {
+            if (this.onMessageWatch != null) {
+                this.onMessageWatch.close();
+                this.onMessageWatch = null;
+            }
+        }
+    }
+
+    private OnMessageWatchdog.Watch getOnMessageWatch() {
+        OnMessageWatchdog.Watch watch = this.onMessageWatch;
+        if (watch == null) {
+            synchronized (this.lockOnMessageExecutorService) {
+                watch = this.onMessageWatch;
+                if (watch == null) {
+                    this.onMessageWatch = watch = OnMessageWatchdog.getInstance().newWatch(this.onMessageTimeoutMs);
+                }
+            }
+        }
+        return watch;
     }
 
     private void closeAbruptly() {
@@ -0,0 +1,233 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.jms.JMSException;
+import javax.jms.MessageListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.jms.util.TimeTracker;
+
+/**
+ * Delivers messages to <code>onMessage()</code> on a fixed number of <i>lanes</i>, so that the listeners of one session
+ * run in parallel.
+ * <p>
+ * Messages are assigned to a lane by the hash of a string property, <code>JMSXGroupID</code> by default. Each lane
+ * delivers in order on its own thread, so messages of a group are processed in the order they arrived, while
+ * different groups can be processed at the same time. Messages without the property all go to the first lane.
+ * </p>
+ * <p>
+ * Each lane is protected by an inline {@link DeliveryExecutor}, so the <code>onMessage</code> timeout still applies.
+ * When messages are acknowledged after processing, {@link #dispatched} and {@link #completed} keep track of the
+ * deliveries in arrival order, so that an acknowledgement with <code>multiple=true</code> never covers a message still
+ * being processed on another lane.
+ * </p>
+ */
+class DeliveryLanes {
+
+    private final Logger logger = LoggerFactory.getLogger(DeliveryLanes.class);
+
+    /** The number of messages waiting on a lane before dispatch blocks */
+    private static final int LANE_CAPACITY = 256;
+
+    /**
+     * Outcome of a delivery, called on the lane thread.
+     */
+    interface Callback {
+        void delivered(RMQMessage message);
+        void failed(RMQMessage message, JMSException e);
+    }
+
+    private final Lane[] lanes;
+    private final String groupProperty;
+
+    private final Object lock = new Object();
+    /** Number of messages dispatched but not yet processed */
+    private int pending = 0; // GuardedBy(lock)
+    private boolean closed = false; // GuardedBy(lock)
+
+    /** Delivery tags to be acknowledged, in arrival order */
+    private final ArrayDeque<Long> inFlightTags = new ArrayDeque<Long>(); // GuardedBy(inFlightTags)
+    /** Delivery tags processed out of order, waiting for earlier ones, mapped to whether they are to be acknowledged */
+    private final Map<Long, Boolean> completedTags = new HashMap<Long, Boolean>(); // GuardedBy(inFlightTags)
+
+    /**
+     * @param laneCount the number of lanes, at least 2
+     * @param groupProperty the message property assigning messages to lanes
+     * @param onMessageTimeoutMs the time <code>onMessage()</code> can take, in milliseconds
+     */
+    DeliveryLanes(int laneCount, String groupProperty, long onMessageTimeoutMs) {
+        this.groupProperty = groupProperty;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            this.lanes[i] = new Lane(i, new DeliveryExecutor(onMessageTimeoutMs, true));
+        }
+    }
+
+    int laneFor(RMQMessage message) {
+        String key = null;
+        try {
+            key = message.getStringProperty(this.groupProperty);
+        } catch (JMSException e) {
+            logger.debug("cannot read lane key '{}' of message, using first lane", this.groupProperty, e);
+        }
+        return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % this.lanes.length;
+    }
+
+    /**
+     * Queues the message on its lane, waiting for room on the lane if necessary.
+     * @return false if the lanes are closed, and the message will not be delivered
+     * @throws InterruptedException if interrupted while waiting for room on the lane
+     */
+    boolean dispatch(RMQMessage message, MessageListener listener, Callback callback) throws InterruptedException {
+        synchronized (this.lock) {
+            if (this.closed) return false;
+            this.pending++;
+        }
+        try {
+            this.lanes[this.laneFor(message)].put(new Delivery(message, listener, callback));
+            return true;
+        } catch (InterruptedException e) {
+            this.done();
+            throw e;
+        }
+    }
+
+    private void done() {
+        synchronized (this.lock) {
+            if (--this.pending == 0) this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Records a delivery which is to be acknowledged when processed. Deliveries must be recorded in the order they arrive.
+     */
+    void dispatched(long deliveryTag) {
+        synchronized (this.inFlightTags) {
+            this.inFlightTags.add(deliveryTag);
+        }
+    }
+
+    /**
+     * Records that a delivery has been processed.
+     * @param deliveryTag the delivery processed
+     * @param ack false if the delivery has been rejected instead, and so must not be named in an acknowledgement
+     * @return the highest delivery tag which can be acknowledged with <code>multiple=true</code>, because it and every
+     *         earlier recorded delivery has been processed; 0 if there is none.
+     */
+    long completed(long deliveryTag, boolean ack) {
+        synchronized (this.inFlightTags) {
+            this.completedTags.put(deliveryTag, ack);
+            long ackable = 0;
+            while (!this.inFlightTags.isEmpty()) {
+                Boolean completedAck = this.completedTags.remove(this.inFlightTags.peekFirst());
+                if (completedAck == null) break;
+                long tag = this.inFlightTags.pollFirst();
+                if (completedAck) ackable = tag;
+            }
+            return ackable;
+        }
+    }
+
+    /**
+     * Waits for all dispatched messages to be processed.
+     * @return true if the lanes are idle, false if timed out
+     */
+    boolean awaitIdle(TimeTracker tt) throws InterruptedException {
+        synchronized (this.lock) {
+            while (this.pending > 0 && !tt.timedOut()) {
+                tt.timedWait(this.lock);
+            }
+            return this.pending == 0;
+        }
+    }
+
+    /**
+     * Stops accepting messages, gives the dispatched ones the time given to be processed, then stops the lane threads.
+     */
+    void close(TimeTracker tt) {
+        synchronized (this.lock) {
+            this.closed = true;
+        }
+        try {
+            if (!this.awaitIdle(tt)) {
+                logger.warn("Stopping delivery lanes with messages still being processed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Lane lane : this.lanes) {
+            lane.close();
+        }
+    }
+
+    private static final class Delivery {
+        private final RMQMessage message;
+        private final MessageListener listener;
+        private final Callback callback;
+
+        private Delivery(RMQMessage message, MessageListener listener, Callback callback) {
+            this.message = message;
+            this.listener = listener;
+            this.callback = callback;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final int index;
+        private final DeliveryExecutor deliveryExecutor;
+        private final BlockingQueue<Delivery> queue = new ArrayBlockingQueue<Delivery>(LANE_CAPACITY);
+        private Thread thread = null; // GuardedBy(this)
+
+        private Lane(int index, DeliveryExecutor deliveryExecutor) {
+            this.index = index;
+            this.deliveryExecutor = deliveryExecutor;
+        }
+
+        void put(Delivery delivery) throws InterruptedException {
+            synchronized (this) {
+                if (this.thread == null) {
+                    this.thread = new Thread(this, "rabbitmq-jms-delivery-lane-" + this.index);
+                    this.thread.setDaemon(true); // an unclosed session must not keep the JVM running
+                    this.thread.start();
+                }
+            }
+            this.queue.put(delivery);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Delivery delivery = this.queue.take();
+                    try {
+                        this.deliveryExecutor.deliverMessageWithProtection(delivery.message, delivery.listener);
+                        delivery.callback.delivered(delivery.message);
+                    } catch (JMSException e) {
+                        delivery.callback.failed(delivery.message, e);
+                    } catch (RuntimeException e) {
+                        logger.error("Unexpected exception on delivery lane {}", this.index, e);
+                    } finally {
+                        DeliveryLanes.this.done();
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.debug("delivery lane {} stopped", this.index);
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (this.thread != null) this.thread.interrupt();
+            }
+            this.deliveryExecutor.close();
+        }
+    }
+}
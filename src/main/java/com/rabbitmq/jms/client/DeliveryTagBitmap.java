@@ -0,0 +1,209 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+/**
+ * A set of delivery tags, stored as a bitmap relative to the lowest tag in the set.
+ * <p>
+ * Delivery tags on a channel increase from 1, and are settled roughly in the order they are delivered, so the set
+ * spans a window of tags which moves up over time. The bitmap is a ring of 64-bit words covering that window: adding a
+ * tag sets a bit, and the words at the bottom of the window are recycled as the lowest tags are removed. Memory is a
+ * bit per tag in the window, and, apart from growing the ring, no operation allocates. Adding a tag below the window
+ * extends it downwards.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+class DeliveryTagBitmap {
+
+    private static final int INITIAL_WORDS = 16;
+
+    /** Ring of words; bit <code>b</code> of word <code>(head + i) % words.length</code> represents tag <code>base + 64 * i + b</code> */
+    private long[] words = new long[INITIAL_WORDS];
+    private int head = 0;
+    /** The tag represented by bit 0 of the head word, a multiple of 64 */
+    private long base = 0;
+    /** Number of words in use, from the head */
+    private int span = 0;
+    private int size = 0;
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the tag was not already in the set
+     */
+    boolean add(long tag) {
+        if (this.size == 0) {
+            this.head = 0;
+            this.span = 0;
+            this.base = tag & ~63L;
+        } else if (tag < this.base) {
+            this.extendDown(tag);
+        }
+        long offset = (tag - this.base) >>> 6;
+        if (offset >= this.words.length) this.grow(offset + 1);
+        if (offset >= this.span) this.span = (int) offset + 1;
+        int w = this.wordIndex((int) offset);
+        long bit = 1L << (tag & 63);
+        if ((this.words[w] & bit) != 0) return false;
+        this.words[w] |= bit;
+        this.size++;
+        return true;
+    }
+
+    boolean contains(long tag) {
+        if (tag < this.base) return false;
+        long offset = (tag - this.base) >>> 6;
+        if (offset >= this.span) return false;
+        return (this.words[this.wordIndex((int) offset)] & (1L << (tag & 63))) != 0;
+    }
+
+    /**
+     * @return true if the tag was in the set
+     */
+    boolean remove(long tag) {
+        if (!this.contains(tag)) return false;
+        int w = this.wordIndex((int) ((tag - this.base) >>> 6));
+        this.words[w] &= ~(1L << (tag & 63));
+        this.size--;
+        this.trimHead();
+        return true;
+    }
+
+    /**
+     * @return the lowest tag in the set, or -1 if it is empty
+     */
+    long first() {
+        if (this.size == 0) return -1;
+        // the head word is never empty when the set is not
+        return this.base + Long.numberOfTrailingZeros(this.words[this.head]);
+    }
+
+    /**
+     * @return the highest tag in the set, or -1 if it is empty
+     */
+    long last() {
+        return this.lastUpTo(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the highest tag in the set not greater than <code>tag</code>, or -1 if there is none
+     */
+    long lastUpTo(long tag) {
+        if (this.size == 0 || tag < this.base) return -1;
+        long offset = (tag - this.base) >>> 6;
+        int i;
+        long mask;
+        if (offset >= this.span) {
+            i = this.span - 1;
+            mask = -1L;
+        } else {
+            i = (int) offset;
+            int b = (int) (tag & 63);
+            mask = (b == 63) ? -1L : (1L << (b + 1)) - 1;
+        }
+        for (; i >= 0; i--, mask = -1L) {
+            long word = this.words[this.wordIndex(i)] & mask;
+            if (word != 0) return this.base + 64L * i + 63 - Long.numberOfLeadingZeros(word);
+        }
+        return -1;
+    }
+
+    /**
+     * Removes all tags not greater than <code>tag</code>.
+     * @return the number of tags removed
+     */
+    int removeUpTo(long tag) {
+        if (this.size == 0 || tag < this.base) return 0;
+        int removed = 0;
+        long offset = (tag - this.base) >>> 6;
+        int fullWords = (int) Math.min(offset, this.span);
+        for (int i = 0; i < fullWords; i++) {
+            int w = this.wordIndex(i);
+            removed += Long.bitCount(this.words[w]);
+            this.words[w] = 0;
+        }
+        if (offset < this.span) {
+            int w = this.wordIndex((int) offset);
+            int b = (int) (tag & 63);
+            long mask = (b == 63) ? -1L : (1L << (b + 1)) - 1;
+            removed += Long.bitCount(this.words[w] & mask);
+            this.words[w] &= ~mask;
+        }
+        this.size -= removed;
+        this.trimHead();
+        return removed;
+    }
+
+    void clear() {
+        for (int i = 0; i < this.span; i++) {
+            this.words[this.wordIndex(i)] = 0;
+        }
+        this.head = 0;
+        this.span = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Calls the visitor for each tag in the set, in increasing order.
+     */
+    void forEach(TagVisitor visitor) {
+        for (int i = 0; i < this.span; i++) {
+            long word = this.words[this.wordIndex(i)];
+            while (word != 0) {
+                int b = Long.numberOfTrailingZeros(word);
+                visitor.visit(this.base + 64L * i + b);
+                word &= word - 1;
+            }
+        }
+    }
+
+    interface TagVisitor {
+        void visit(long tag);
+    }
+
+    private int wordIndex(int offset) {
+        int w = this.head + offset;
+        return (w < this.words.length) ? w : w - this.words.length;
+    }
+
+    /** Moves the head past empty words, so that the head word holds the lowest tag */
+    private void trimHead() {
+        if (this.size == 0) {
+            this.clear();
+            return;
+        }
+        while (this.words[this.head] == 0) {
+            this.head = this.wordIndex(1);
+            this.base += 64;
+            this.span--;
+        }
+    }
+
+    /** Moves the bottom of the window down to include the tag */
+    private void extendDown(long tag) {
+        int extra = (int) ((this.base - (tag & ~63L)) >>> 6);
+        if (this.span + extra > this.words.length) this.grow(this.span + extra);
+        this.head -= extra;
+        if (this.head < 0) this.head += this.words.length;
+        this.base -= 64L * extra;
+        this.span += extra;
+    }
+
+    private void grow(long minWords) {
+        int length = this.words.length;
+        while (length < minWords) length *= 2;
+        long[] grown = new long[length];
+        for (int i = 0; i < this.span; i++) {
+            grown[i] = this.words[this.wordIndex(i)];
+        }
+        this.words = grown;
+        this.head = 0;
+    }
+}
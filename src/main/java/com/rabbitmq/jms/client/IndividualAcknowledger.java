@@ -0,0 +1,135 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Coalesces the acknowledgements of a {@link RMQSession#CLIENT_INDIVIDUAL_ACKNOWLEDGE} session.
+ * <p>
+ * The delivery tags of the messages received and not yet acknowledged (<i>outstanding</i>), and of those acknowledged
+ * by the application but not yet by the broker, are kept in {@link DeliveryTagBitmap}s. When a message is
+ * acknowledged, the acknowledged messages below the lowest outstanding one are acknowledged together with a single
+ * <code>basic.ack</code> (<code>multiple=true</code>). Messages acknowledged while an earlier one is still outstanding
+ * are held back for up to <i>delayMs</i> milliseconds, in case the earlier ones are acknowledged meanwhile, and are then
+ * acknowledged one by one.
+ * </p>
+ * <p>
+ * Deliveries which are not tracked here must already be settled, since a <code>multiple=true</code> acknowledgement
+ * covers them too. Rejected messages must be {@link #forget}-ed before they are nacked.
+ * </p>
+ */
+class IndividualAcknowledger {
+
+    private final Logger logger = LoggerFactory.getLogger(IndividualAcknowledger.class);
+
+    private final Channel channel;
+    private final long delayMs;
+
+    /** Received and not acknowledged by the application */
+    private final DeliveryTagBitmap outstanding = new DeliveryTagBitmap(); // GuardedBy(this)
+    /** Acknowledged by the application and not yet acknowledged to the broker */
+    private final DeliveryTagBitmap acknowledged = new DeliveryTagBitmap(); // GuardedBy(this)
+    private boolean flushScheduled = false; // GuardedBy(this)
+
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (IndividualAcknowledger.this) {
+                IndividualAcknowledger.this.flushScheduled = false;
+                try {
+                    IndividualAcknowledger.this.flush();
+                } catch (Exception e) { // includes unchecked exceptions, e.g. ShutdownSignalException
+                    logger.error("Cannot acknowledge messages held back on channel {}", IndividualAcknowledger.this.channel, e);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param channel the channel the messages are received on
+     * @param delayMs the longest time an acknowledgement is held back, in milliseconds
+     */
+    IndividualAcknowledger(Channel channel, long delayMs) {
+        this.channel = channel;
+        this.delayMs = delayMs;
+    }
+
+    synchronized void received(long deliveryTag) {
+        this.outstanding.add(deliveryTag);
+    }
+
+    synchronized boolean hasOutstanding() {
+        return !this.outstanding.isEmpty();
+    }
+
+    /**
+     * Acknowledges a message, with the messages acknowledged before it where possible.
+     * @param deliveryTag the delivery tag of the message, ignored if it is not outstanding
+     * @throws IOException if the acknowledgement cannot be sent
+     */
+    synchronized void acknowledge(long deliveryTag) throws IOException {
+        if (!this.outstanding.remove(deliveryTag)) return; // already acknowledged, or not ours
+        this.acknowledged.add(deliveryTag);
+        this.ackLowest();
+        if (!this.acknowledged.isEmpty() && !this.flushScheduled) {
+            this.flushScheduled = true;
+            AckAccumulator.FLUSH_TIMER.schedule(this.timedFlush, this.delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops tracking a message, which is about to be rejected.
+     */
+    synchronized void forget(long deliveryTag) throws IOException {
+        if (this.outstanding.remove(deliveryTag)) this.ackLowest();
+    }
+
+    /**
+     * Acknowledges all messages acknowledged by the application so far.
+     */
+    synchronized void flush() throws IOException {
+        this.ackLowest();
+        if (this.acknowledged.isEmpty()) return;
+        final IOException[] failure = new IOException[1];
+        this.acknowledged.forEach(new DeliveryTagBitmap.TagVisitor() {
+            @Override
+            public void visit(long tag) {
+                try {
+                    if (failure[0] == null) IndividualAcknowledger.this.channel.basicAck(tag, false);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        this.acknowledged.clear();
+        if (failure[0] != null) throw failure[0];
+    }
+
+    /**
+     * Acknowledges what the application has acknowledged, then forgets the outstanding messages, which the broker is
+     * about to redeliver.
+     * @return true if there were outstanding messages
+     */
+    synchronized boolean recover() throws IOException {
+        this.flush();
+        boolean any = !this.outstanding.isEmpty();
+        this.outstanding.clear();
+        return any;
+    }
+
+    // GuardedBy(this)
+    private void ackLowest() throws IOException {
+        long limit = this.outstanding.isEmpty() ? Long.MAX_VALUE : this.outstanding.first() - 1;
+        long upTo = this.acknowledged.lastUpTo(limit);
+        if (upTo > 0) {
+            this.channel.basicAck(upTo, true);
+            this.acknowledged.removeUpTo(upTo);
+        }
+    }
+}
@@ -113,7 +113,10 @@ class MessageListenerConsumer implements Consumer, Abortable {
         try {
             long dtag = envelope.getDeliveryTag();
             if (this.messageListener != null) {
-                if (this.requeueOnMessageListenerException) {
+                DeliveryLanes lanes = this.messageConsumer.getSession().getDeliveryLanes();
+                if (lanes != null) {
+                    this.dispatchToLane(lanes, dtag, response);
+                } else if (this.requeueOnMessageListenerException) {
                     // requeuing in case of RuntimeException from the listener
                     // see https://github.com/rabbitmq/rabbitmq-jms-client/issues/23
                     // see section 4.5.2 of JMS 1.1 specification
@@ -153,6 +156,81 @@ class MessageListenerConsumer implements Consumer, Abortable {
         }
     }
 
+    /**
+     * Hands the message over to its delivery lane and returns without waiting for it to be processed.
+     * <p>
+     * As on the sequential path, messages are acknowledged before delivery unless they are requeued on listener
+     * exceptions. In that case they are acknowledged once processed, and automatic acknowledgements only go out for
+     * runs of messages whose processing has completed.
+     * </p>
+     */
+    private void dispatchToLane(DeliveryLanes lanes, long dtag, GetResponse response) throws JMSException, InterruptedException {
+        RMQMessage msg = RMQMessage.convertMessage(this.messageConsumer.getSession(), this.messageConsumer.getDestination(), response);
+        boolean ackAfterDelivery = this.requeueOnMessageListenerException;
+        if (!ackAfterDelivery) {
+            this.messageConsumer.dealWithAcknowledgements(this.autoAck, dtag);
+        } else if (this.autoAck) {
+            lanes.dispatched(dtag);
+        } else {
+            // tracked from now, so that acknowledging a later message does not cover this one while it is processed
+            this.messageConsumer.getSession().unackedMessageReceived(dtag);
+        }
+        boolean dispatched = false;
+        try {
+            dispatched = lanes.dispatch(msg, this.messageListener, new LaneDelivery(lanes, dtag, ackAfterDelivery));
+        } finally {
+            if (!dispatched && ackAfterDelivery) {
+                logger.debug("basicNack: dtag='{}' (delivery lanes closed)", dtag);
+                this.rejectAfterDelivery(lanes, dtag);
+            }
+        }
+    }
+
+    private void rejectAfterDelivery(DeliveryLanes lanes, long dtag) {
+        if (!this.autoAck) this.messageConsumer.getSession().unackedMessageRejected(dtag);
+        this.messageConsumer.getSession().explicitNack(dtag);
+        if (this.autoAck) this.ackCompleted(lanes, dtag, false);
+    }
+
+    private void ackCompleted(DeliveryLanes lanes, long dtag, boolean ack) {
+        long ackable = lanes.completed(dtag, ack);
+        if (ackable > 0) {
+            this.messageConsumer.getSession().autoAck(this.messageConsumer, ackable, true);
+        }
+    }
+
+    /**
+     * Settles a message delivered on a lane, once it has been processed.
+     */
+    private final class LaneDelivery implements DeliveryLanes.Callback {
+        private final DeliveryLanes lanes;
+        private final long dtag;
+        private final boolean ackAfterDelivery;
+
+        private LaneDelivery(DeliveryLanes lanes, long dtag, boolean ackAfterDelivery) {
+            this.lanes = lanes;
+            this.dtag = dtag;
+            this.ackAfterDelivery = ackAfterDelivery;
+        }
+
+        @Override
+        public void delivered(RMQMessage message) {
+            if (this.ackAfterDelivery && MessageListenerConsumer.this.autoAck) {
+                MessageListenerConsumer.this.ackCompleted(this.lanes, this.dtag, true);
+            }
+        }
+
+        @Override
+        public void failed(RMQMessage message, JMSException e) {
+            logger.error("Error while delivering message", e);
+            if (!this.ackAfterDelivery) return;
+            MessageListenerConsumer.this.rejectAfterDelivery(this.lanes, this.dtag);
+            if (e instanceof RMQMessageListenerExecutionJMSException && e.getCause() instanceof RuntimeException) {
+                MessageListenerConsumer.this.abort();
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,166 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enforces the <code>onMessage</code> timeout for listeners called inline on the consumer dispatch thread.
+ * <p>
+ * A single daemon thread, shared by all sessions, checks the registered {@link Watch}es every {@link #TICK_MS}
+ * milliseconds and interrupts the thread of any overdue <code>onMessage</code> call. A watch is armed and disarmed by
+ * writing its deadline, so calls that complete in time cost no allocation and no hand-off. The thread only ticks while
+ * an <code>onMessage</code> call is being watched, and waits for the next one otherwise.
+ * </p>
+ */
+class OnMessageWatchdog implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OnMessageWatchdog.class);
+
+    /** Granularity of the timeout checks */
+    static final long TICK_MS = 10;
+
+    private static final OnMessageWatchdog INSTANCE = new OnMessageWatchdog();
+
+    private final Set<Watch> watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+    /** The number of watches armed; the thread is woken, under the lock, when this becomes positive */
+    private final AtomicInteger armed = new AtomicInteger();
+    private final Object lock = new Object();
+    private Thread thread = null; // GuardedBy(lock)
+
+    static OnMessageWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param timeoutMs the time an <code>onMessage</code> call is allowed, in milliseconds
+     * @return a new watch, registered with this watchdog until {@link Watch#close()}d
+     */
+    Watch newWatch(long timeoutMs) {
+        Watch watch = new Watch(timeoutMs);
+        synchronized (this.lock) {
+            this.watches.add(watch);
+            if (this.thread == null) {
+                this.thread = new Thread(this, "rabbitmq-jms-onmessage-watchdog");
+                this.thread.setDaemon(true);
+                this.thread.start();
+            }
+        }
+        return watch;
+    }
+
+    private void armed() {
+        if (this.armed.incrementAndGet() == 1) {
+            synchronized (this.lock) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    private void disarmed() {
+        this.armed.decrementAndGet();
+    }
+
+    // package-private for testing
+    Thread getThread() {
+        synchronized (this.lock) {
+            return this.thread;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                synchronized (this.lock) {
+                    while (this.armed.get() == 0) {
+                        this.lock.wait();
+                    }
+                }
+                Thread.sleep(TICK_MS);
+                long now = System.nanoTime();
+                for (Watch watch : this.watches) {
+                    watch.check(now);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("onMessage watchdog interrupted, listener timeouts are no longer enforced", e);
+            synchronized (this.lock) {
+                this.thread = null;
+            }
+        }
+    }
+
+    /**
+     * The timeout of inline <code>onMessage</code> calls on one session, one call at a time.
+     */
+    final class Watch {
+        private final long timeoutNanos;
+        /** The thread running the current call, valid while armed */
+        private Thread callingThread; // GuardedBy(this)
+        /** Deadline of the current call (in {@link System#nanoTime()} terms), 0 if not armed */
+        private long deadline = 0; // GuardedBy(this)
+        private boolean timedOut = false; // GuardedBy(this)
+
+        private Watch(long timeoutMs) {
+            this.timeoutNanos = timeoutMs * 1000000L;
+        }
+
+        /** Arms the watch for a call on the current thread. */
+        void start() {
+            synchronized (this) {
+                if (this.callingThread != null) return;
+                this.callingThread = Thread.currentThread();
+                this.timedOut = false;
+                long deadline = System.nanoTime() + this.timeoutNanos;
+                this.deadline = (deadline == 0) ? 1 : deadline;
+            }
+            OnMessageWatchdog.this.armed();
+        }
+
+        /**
+         * Disarms the watch. If the call was interrupted for overrunning, the interrupt is cleared from the thread,
+         * which is not ours to leave interrupted.
+         * @return true if the call overran the timeout and was interrupted
+         */
+        boolean stop() {
+            boolean overran;
+            boolean wasArmed;
+            synchronized (this) {
+                wasArmed = this.callingThread != null;
+                this.deadline = 0;
+                this.callingThread = null;
+                overran = this.timedOut;
+            }
+            if (wasArmed) OnMessageWatchdog.this.disarmed();
+            if (overran) Thread.interrupted();
+            return overran;
+        }
+
+        private synchronized void check(long now) {
+            if (this.deadline != 0 && now - this.deadline > 0) {
+                this.deadline = 0;
+                this.timedOut = true;
+                LOGGER.debug("interrupting onMessage on thread {}", this.callingThread);
+                this.callingThread.interrupt();
+            }
+        }
+
+        /** Unregisters this watch, disarming it if a call is still being watched. */
+        void close() {
+            OnMessageWatchdog.this.watches.remove(this);
+            boolean wasArmed;
+            synchronized (this) {
+                wasArmed = this.callingThread != null;
+                this.deadline = 0;
+                this.callingThread = null;
+            }
+            if (wasArmed) OnMessageWatchdog.this.disarmed();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.jms.util.Abortable;
+import com.rabbitmq.jms.util.TimeTracker;
+
+/**
+ * Receive messages from RMQ Queue through a subscription feeding a bounded local buffer.
+ * <p>
+ * This is an alternative to the polling {@link DelayedReceiver}: the subscription is made on the first
+ * <code>get()</code>, with a consumer prefetch limit equal to the buffer capacity, and <code>get()</code> blocks on the
+ * buffer until a message arrives, the timeout expires, or the receiver is aborted.
+ * </p>
+ * <p>
+ * The prefetch limit only bounds the buffer if messages are acknowledged as they are received, so this is only used by
+ * sessions which acknowledge automatically and are not transacted.
+ * </p>
+ * <p>
+ * When stopped (for {@link javax.jms.Connection#stop()}) or aborted (for close), the subscription is cancelled and any
+ * buffered messages are nacked back to the queue.
+ * </p>
+ */
+class PrefetchingReceiver implements Consumer, Abortable {
+
+    private final Logger logger = LoggerFactory.getLogger(PrefetchingReceiver.class);
+
+    private final RMQMessageConsumer messageConsumer;
+    private final Channel channel;
+    private final int capacity;
+    /** QoS to restore on the channel after subscribing, so that other consumers are not limited by this one */
+    private final int channelQos;
+    private final long terminationTimeout;
+
+    private final Object lock = new Object();
+    private final LinkedList<GetResponse> buffer = new LinkedList<GetResponse>(); // GuardedBy(lock)
+    /** The consumer tag of the current subscription, <code>null</code> if not subscribed */
+    private String consTag = null; // GuardedBy(lock)
+    /** Whether the subscription should be active (set on first use, cleared by {@link #release()}) */
+    private boolean wanted = false; // GuardedBy(lock)
+    private boolean stopped = false; // GuardedBy(lock)
+    private boolean aborted = false; // GuardedBy(lock)
+    /** Completed when the current subscription is cancelled */
+    private volatile Completion cancelled = new Completion();
+
+    /**
+     * @param messageConsumer the JMS MessageConsumer we are serving
+     * @param channel channel to subscribe on
+     * @param capacity the maximum number of messages buffered, and the prefetch limit of the subscription
+     * @param channelQos the channel's prefetch setting for other consumers (0 for unlimited)
+     * @param stopped true if the connection is {@link javax.jms.Connection#stop}ped
+     * @param terminationTimeout wait time (in nanoseconds) for cancel to take effect
+     */
+    PrefetchingReceiver(RMQMessageConsumer messageConsumer, Channel channel, int capacity, int channelQos, boolean stopped, long terminationTimeout) {
+        this.messageConsumer = messageConsumer;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.channelQos = channelQos;
+        this.stopped = stopped;
+        this.terminationTimeout = terminationTimeout;
+    }
+
+    /**
+     * Get a message, waiting for one to arrive if necessary. Aborts if closed while waiting.
+     * @param tt - keeps track of the time available
+     * @return message gotten, or <code>null</code> if timeout or connection closed.
+     */
+    public GetResponse get(TimeTracker tt) {
+        try {
+            synchronized (this.lock) {
+                this.wanted = true;
+                this.subscribeIfNecessary();
+                while (this.buffer.isEmpty() && !this.aborted && !tt.timedOut()) {
+                    tt.timedWait(this.lock);
+                }
+                return this.buffer.poll();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Get interrupted while waiting for buffered message.", e);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Get up to <code>maxMessages</code> messages, waiting for the first one to arrive if necessary, and draining the
+     * rest from those already buffered. Aborts if closed while waiting.
+     * @param maxMessages - the maximum number of messages to return
+     * @param tt - keeps track of the time available
+     * @return messages gotten, empty if timeout or connection closed.
+     */
+    public List<GetResponse> get(int maxMessages, TimeTracker tt) {
+        List<GetResponse> responses = new ArrayList<GetResponse>();
+        synchronized (this.lock) {
+            GetResponse resp = this.get(tt);
+            while (resp != null) {
+                responses.add(resp);
+                if (responses.size() >= maxMessages) break;
+                resp = this.buffer.poll();
+            }
+        }
+        return responses;
+    }
+
+    /** @return true if messages delivered to this receiver are buffered, and so not yet acknowledged */
+    boolean holdsDeliveries() {
+        synchronized (this.lock) {
+            return this.consTag != null || !this.buffer.isEmpty();
+        }
+    }
+
+    // GuardedBy(lock)
+    private void subscribeIfNecessary() {
+        if (this.consTag != null || !this.wanted || this.stopped || this.aborted) return;
+        String cT = RMQMessageConsumer.newConsumerTag();
+        this.cancelled = new Completion();
+        try {
+            this.channel.basicQos(this.capacity);
+            try {
+                this.messageConsumer.basicConsume(this, cT);
+            } finally {
+                this.channel.basicQos(this.channelQos);
+            }
+            this.consTag = cT;
+        } catch (Exception e) { // includes unchecked exceptions, e.g. ShutdownSignalException
+            this.cancelled.setComplete();
+            logger.error("basicConsume (consumerTag='{}') threw exception", cT, e);
+        }
+    }
+
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
+        logger.trace("consumerTag='{}' envelope='{}'", consumerTag, envelope);
+        synchronized (this.lock) {
+            if (consumerTag.equals(this.consTag) && !this.stopped && !this.aborted) {
+                /* Wrap the incoming message in a GetResponse */
+                this.buffer.add(new GetResponse(envelope, properties, body, 0)); // last parameter is remaining message count, which we don't know.
+                this.lock.notifyAll();
+                return;
+            }
+        }
+        long dtag = envelope.getDeliveryTag();
+        logger.debug("basicNack: dtag='{}' (receiver not active)", dtag);
+        this.messageConsumer.getSession().explicitNack(dtag);
+    }
+
+    @Override
+    public void handleConsumeOk(String consumerTag) {
+        logger.trace("consumerTag='{}'", consumerTag);
+    }
+
+    @Override
+    public void handleCancelOk(String consumerTag) {
+        logger.trace("consumerTag='{}'", consumerTag);
+        this.cancelled.setComplete();
+    }
+
+    @Override
+    public void handleCancel(String consumerTag) throws IOException {
+        logger.trace("consumerTag='{}'", consumerTag);
+        synchronized (this.lock) {
+            if (consumerTag.equals(this.consTag)) this.consTag = null;
+        }
+        this.cancelled.setComplete();
+    }
+
+    @Override
+    public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+        logger.trace("consumerTag='{}'", consumerTag, sig);
+        synchronized (this.lock) {
+            this.aborted = true;
+            this.consTag = null;
+            this.buffer.clear(); // the broker requeues unacknowledged messages itself
+            this.lock.notifyAll();
+        }
+        this.cancelled.setComplete();
+    }
+
+    @Override
+    public void handleRecoverOk(String consumerTag) {
+        logger.trace("consumerTag='{}'", consumerTag);
+    }
+
+    /**
+     * Cancels the subscription, if any, and nacks the buffered messages.
+     * @param wait whether to wait for the cancellation to be confirmed, so that no more messages arrive
+     */
+    private void unsubscribe(boolean wait) {
+        String cT;
+        synchronized (this.lock) {
+            cT = this.consTag;
+            this.consTag = null;
+        }
+        if (cT != null) {
+            try {
+                logger.debug("basicCancel: consumerTag='{}'", cT);
+                this.channel.basicCancel(cT);
+                if (wait) this.cancelled.waitUntilComplete(new TimeTracker(this.terminationTimeout, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException te) {
+                logger.warn("basicCancel (consumerTag='{}') not confirmed in time", cT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) { // includes unchecked exceptions, e.g. ShutdownSignalException
+                logger.debug("basicCancel (consumerTag='{}') threw exception", cT, e);
+            }
+        }
+        this.nackBuffered();
+    }
+
+    private void nackBuffered() {
+        List<GetResponse> unconsumed;
+        synchronized (this.lock) {
+            if (this.buffer.isEmpty()) return;
+            unconsumed = new ArrayList<GetResponse>(this.buffer);
+            this.buffer.clear();
+        }
+        logger.debug("basicNack: {} buffered message(s)", unconsumed.size());
+        for (GetResponse response : unconsumed) {
+            this.messageConsumer.getSession().explicitNack(response.getEnvelope().getDeliveryTag());
+        }
+    }
+
+    /**
+     * Gives up the subscription until the next <code>get()</code>, for instance when the consumer is switched to
+     * asynchronous delivery.
+     */
+    void release() {
+        synchronized (this.lock) {
+            this.wanted = false;
+        }
+        this.unsubscribe(true);
+    }
+
+    @Override
+    public void abort() {
+        synchronized (this.lock) {
+            this.aborted = true;
+            this.lock.notifyAll();
+        }
+        this.unsubscribe(false);
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this.lock) {
+            this.stopped = true;
+        }
+        this.unsubscribe(true);
+    }
+
+    @Override
+    public void start() {
+        synchronized (this.lock) {
+            this.stopped = false;
+            this.subscribeIfNecessary();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import javax.jms.Message;
+
+/**
+ * Callback for messages sent by a {@link RMQMessageProducer} on a session in publisher confirms mode
+ * which the broker did not confirm.
+ * <p>
+ * This is called when the broker nacks a message, or when the channel closes before the message is confirmed.
+ * If no listener is set on the producer, the connection's {@link javax.jms.ExceptionListener} (if any) is notified instead.
+ * </p>
+ * <p>
+ * The listener is called on a RabbitMQ client thread, and so must not block.
+ * </p>
+ * @see com.rabbitmq.jms.admin.RMQConnectionFactory#setPublisherConfirmsWindowSize(int)
+ */
+public interface PublishNackListener {
+
+    /**
+     * Called for each message that was not confirmed by the broker.
+     * @param message the message as it was sent
+     */
+    void onNack(Message message);
+
+}
@@ -0,0 +1,233 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.jms.util.RMQJMSException;
+import com.rabbitmq.jms.util.TimeTracker;
+
+/**
+ * Tracks the messages published on a session channel in publisher confirms mode.
+ * <p>
+ * At most <code>windowSize</code> messages may be outstanding (published but not yet confirmed by the broker)
+ * at any one time; {@link #publish} blocks while the window is full. A single broker confirm with
+ * <code>multiple=true</code> settles all the outstanding messages it covers in one step.
+ * </p>
+ * <p>
+ * Confirmed messages sent with a {@link CompletionListener} are reported to it. Messages that are nacked, or still
+ * outstanding when the channel shuts down, are reported to their {@link CompletionListener} if they have one,
+ * otherwise to the producer that sent them.
+ * </p>
+ */
+class PublisherConfirmsTracker implements ConfirmListener, ShutdownListener {
+
+    private final Logger logger = LoggerFactory.getLogger(PublisherConfirmsTracker.class);
+
+    private final Channel channel;
+    private final int windowSize;
+
+    /** Serialises publishers so that a sequence number is always paired with its own <code>basicPublish</code>. */
+    private final Object publishLock = new Object();
+    /** Guards {@link #outstanding} and {@link #closed}; waited on for window space and for confirms. */
+    private final Object lock = new Object();
+    /** Outstanding publishes, keyed by channel publish sequence number. */
+    private final SortedMap<Long, OutstandingPublish> outstanding = new TreeMap<Long, OutstandingPublish>(); // GuardedBy(lock)
+    private boolean closed = false; // GuardedBy(lock)
+
+    /**
+     * @param channel the channel, which must already be in confirm mode
+     * @param windowSize the maximum number of unconfirmed messages, must be positive
+     */
+    PublisherConfirmsTracker(Channel channel, int windowSize) {
+        if (windowSize <= 0) throw new IllegalArgumentException("Publisher confirms window size must be positive");
+        this.channel = channel;
+        this.windowSize = windowSize;
+    }
+
+    int getWindowSize() {
+        return this.windowSize;
+    }
+
+    /**
+     * Publishes a message, blocking first while the window of unconfirmed messages is full.
+     * @param producer the producer sending the message, notified if the message is not confirmed
+     * @param message the message being sent
+     * @param completionListener notified when the message is settled, may be <code>null</code>
+     * @throws IOException if the publish fails; the message is then no longer tracked
+     * @throws JMSException if the channel is closed or the thread is interrupted while waiting for window space
+     */
+    void publish(RMQMessageProducer producer, RMQMessage message, CompletionListener completionListener,
+                 String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) throws IOException, JMSException {
+        synchronized (this.publishLock) {
+            long seqNo = this.register(new OutstandingPublish(producer, message, completionListener));
+            try {
+                this.channel.basicPublish(exchange, routingKey, props, body);
+            } catch (IOException e) {
+                this.forget(seqNo);
+                throw e;
+            } catch (RuntimeException e) {
+                this.forget(seqNo);
+                throw e;
+            }
+        }
+    }
+
+    private long register(OutstandingPublish publish) throws JMSException {
+        synchronized (this.lock) {
+            try {
+                while (!this.closed && this.outstanding.size() >= this.windowSize) {
+                    this.lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RMQJMSException("Interrupted while waiting for publisher confirms", e);
+            }
+            if (this.closed) throw new IllegalStateException("Channel closed: cannot publish");
+            long seqNo = this.channel.getNextPublishSeqNo();
+            this.outstanding.put(seqNo, publish);
+            return seqNo;
+        }
+    }
+
+    private void forget(long seqNo) {
+        synchronized (this.lock) {
+            this.outstanding.remove(seqNo);
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of messages published and not yet confirmed
+     */
+    int outstandingCount() {
+        synchronized (this.lock) {
+            return this.outstanding.size();
+        }
+    }
+
+    /**
+     * Waits until every message published so far is confirmed, the channel shuts down, or time runs out.
+     * @param tt time limit
+     * @return <code>true</code> if no messages remain outstanding
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    boolean waitForConfirms(TimeTracker tt) throws InterruptedException {
+        synchronized (this.lock) {
+            while (!this.outstanding.isEmpty() && !this.closed && !tt.timedOut()) {
+                tt.timedWait(this.lock);
+            }
+            return this.outstanding.isEmpty();
+        }
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+        List<OutstandingPublish> acked = this.settle(deliveryTag, multiple);
+        for (OutstandingPublish publish : acked) {
+            publish.confirmed();
+        }
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+        List<OutstandingPublish> nacked = this.settle(deliveryTag, multiple);
+        for (OutstandingPublish publish : nacked) {
+            publish.notConfirmed("Message nacked by the broker");
+        }
+    }
+
+    /**
+     * Removes the publishes covered by a confirm from the window and wakes waiting publishers.
+     * @return the publishes removed
+     */
+    private List<OutstandingPublish> settle(long deliveryTag, boolean multiple) {
+        synchronized (this.lock) {
+            List<OutstandingPublish> settled;
+            if (multiple) {
+                SortedMap<Long, OutstandingPublish> covered = this.outstanding.headMap(deliveryTag + 1);
+                settled = new ArrayList<OutstandingPublish>(covered.values());
+                covered.clear();
+            } else {
+                OutstandingPublish publish = this.outstanding.remove(deliveryTag);
+                settled = (publish == null) ? Collections.<OutstandingPublish>emptyList()
+                                            : Collections.singletonList(publish);
+            }
+            this.lock.notifyAll();
+            return settled;
+        }
+    }
+
+    /**
+     * Stops tracking: waiting publishers are released and anything still outstanding is reported as not confirmed.
+     */
+    void close() {
+        List<OutstandingPublish> unconfirmed;
+        synchronized (this.lock) {
+            if (this.closed) return;
+            this.closed = true;
+            unconfirmed = new ArrayList<OutstandingPublish>(this.outstanding.values());
+            this.outstanding.clear();
+            this.lock.notifyAll();
+        }
+        if (!unconfirmed.isEmpty()) {
+            this.logger.warn("{} published message(s) not confirmed before channel closed", unconfirmed.size());
+        }
+        for (OutstandingPublish publish : unconfirmed) {
+            publish.notConfirmed("Channel closed before message was confirmed");
+        }
+    }
+
+    @Override
+    public void shutdownCompleted(ShutdownSignalException cause) {
+        this.close();
+    }
+
+    private final class OutstandingPublish {
+        private final RMQMessageProducer producer;
+        private final RMQMessage message;
+        private final CompletionListener completionListener;
+
+        OutstandingPublish(RMQMessageProducer producer, RMQMessage message, CompletionListener completionListener) {
+            this.producer = producer;
+            this.message = message;
+            this.completionListener = completionListener;
+        }
+
+        void confirmed() {
+            if (this.completionListener == null) return;
+            try {
+                this.completionListener.onCompletion(this.message);
+            } catch (RuntimeException e) {
+                logger.error("Unexpected exception from CompletionListener.onCompletion", e);
+            }
+        }
+
+        void notConfirmed(String reason) {
+            try {
+                if (this.completionListener == null) {
+                    this.producer.publishNotConfirmed(this.message);
+                } else {
+                    this.completionListener.onException(this.message, new RMQJMSException(reason, null));
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unexpected exception reporting unconfirmed message", e);
+            }
+        }
+    }
+}
@@ -18,8 +18,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Recoverable;
 import com.rabbitmq.client.ShutdownListener;
 import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.jms.client.message.JavaObjectMessageSerializer;
+import com.rabbitmq.jms.client.message.ObjectMessageSerializer;
 import com.rabbitmq.jms.util.RMQJMSException;
 
 /**
@@ -91,6 +94,75 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
      */
     private boolean requeueOnMessageListenerException;
 
+    /**
+     * Maximum number of unconfirmed messages per non-transacted session.
+     * Default is 0 (publisher confirms disabled).
+     */
+    private final int publisherConfirmsWindowSize;
+
+    /**
+     * Whether sessions declare topology with no-wait methods, checked by a single barrier.
+     * Default is false.
+     */
+    private final boolean declareTopologyNoWait;
+
+    /**
+     * Number of messages a consumer buffers for synchronous receive.
+     * Default is 0 (synchronous receive polls the queue).
+     */
+    private final int receivePrefetch;
+
+    /**
+     * Whether to call onMessage on the consumer dispatch thread.
+     * Default is false.
+     */
+    private final boolean onMessageInline;
+
+    /**
+     * Number of lanes on which onMessage is called in parallel.
+     * Default is 1 (one call at a time per session).
+     */
+    private final int onMessageLanes;
+
+    /**
+     * Message property assigning messages to lanes.
+     * Default is JMSXGroupID.
+     */
+    private final String onMessageGroupProperty;
+
+    /**
+     * Number of automatically acknowledged messages acknowledged together.
+     * Default is 1 (each message is acknowledged on its own).
+     */
+    private final int ackBatchSize;
+
+    /**
+     * Longest time an automatic acknowledgement is held back, in milliseconds.
+     * Default is 100 ms.
+     */
+    private final int ackBatchTimeoutMs;
+
+    /**
+     * Longest time an individual acknowledgement is held back, in milliseconds.
+     * Default is 0 (each message is acknowledged on its own).
+     */
+    private final int individualAckDelayMs;
+
+    /**
+     * Whether producers send messages in the compact binary format.
+     * Default is false.
+     */
+    private final boolean compactMessageEncoding;
+
+    /**
+     * Whether compact messages leave out the properties carried in the AMQP headers.
+     * Default is false.
+     */
+    private final boolean propertiesInHeadersOnly;
+
+    /** The exchanges, queues and bindings declared through this connection */
+    private final DeclaredTopology declaredTopology = new DeclaredTopology();
+
     /**
      * Classes in these packages can be transferred via ObjectMessage.
      *
@@ -98,6 +170,13 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
      */
     private List<String> trustedPackages = WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES;
 
+    /**
+     * Serializes the objects of ObjectMessages.
+     *
+     * @see ObjectMessageSerializer
+     */
+    private ObjectMessageSerializer objectMessageSerializer = JavaObjectMessageSerializer.INSTANCE;
+
     /**
      * Creates an RMQConnection object.
      * @param connectionParams parameters for this connection
@@ -105,6 +184,9 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
     public RMQConnection(ConnectionParams connectionParams) {
 
         connectionParams.getRabbitConnection().addShutdownListener(new RMQConnectionShutdownListener());
+        if (connectionParams.getRabbitConnection() instanceof Recoverable) {
+            ((Recoverable) connectionParams.getRabbitConnection()).addRecoveryListener(this.declaredTopology);
+        }
 
         this.rabbitConnection = connectionParams.getRabbitConnection();
         this.terminationTimeout = connectionParams.getTerminationTimeout();
@@ -113,6 +195,17 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
         this.channelsQos = connectionParams.getChannelsQos();
         this.preferProducerMessageProperty = connectionParams.willPreferProducerMessageProperty();
         this.requeueOnMessageListenerException = connectionParams.willRequeueOnMessageListenerException();
+        this.publisherConfirmsWindowSize = connectionParams.getPublisherConfirmsWindowSize();
+        this.declareTopologyNoWait = connectionParams.willDeclareTopologyNoWait();
+        this.receivePrefetch = connectionParams.getReceivePrefetch();
+        this.onMessageInline = connectionParams.willDeliverOnMessageInline();
+        this.onMessageLanes = connectionParams.getOnMessageLanes();
+        this.onMessageGroupProperty = connectionParams.getOnMessageGroupProperty();
+        this.ackBatchSize = connectionParams.getAckBatchSize();
+        this.ackBatchTimeoutMs = connectionParams.getAckBatchTimeoutMs();
+        this.individualAckDelayMs = connectionParams.getIndividualAckDelayMs();
+        this.compactMessageEncoding = connectionParams.willUseCompactMessageEncoding();
+        this.propertiesInHeadersOnly = connectionParams.willPutPropertiesInHeadersOnly();
     }
 
     /**
@@ -160,8 +253,20 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
             .setSubscriptions(this.subscriptions)
             .setPreferProducerMessageProperty(this.preferProducerMessageProperty)
             .setRequeueOnMessageListenerException(this.requeueOnMessageListenerException)
+            .setPublisherConfirmsWindowSize(this.publisherConfirmsWindowSize)
+            .setDeclareTopologyNoWait(this.declareTopologyNoWait)
+            .setReceivePrefetch(this.receivePrefetch)
+            .setOnMessageInline(this.onMessageInline)
+            .setOnMessageLanes(this.onMessageLanes)
+            .setOnMessageGroupProperty(this.onMessageGroupProperty)
+            .setAckBatchSize(this.ackBatchSize)
+            .setAckBatchTimeoutMs(this.ackBatchTimeoutMs)
+            .setIndividualAckDelayMs(this.individualAckDelayMs)
+            .setCompactMessageEncoding(this.compactMessageEncoding)
+            .setPropertiesInHeadersOnly(this.propertiesInHeadersOnly)
         );
         session.setTrustedPackages(this.trustedPackages);
+        session.setObjectMessageSerializer(this.objectMessageSerializer);
         this.sessions.add(session);
         return session;
     }
@@ -216,6 +321,19 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
         this.trustedPackages = value;
     }
 
+    public ObjectMessageSerializer getObjectMessageSerializer() {
+        return objectMessageSerializer;
+    }
+
+    /**
+     * @param value serializer for the objects of ObjectMessages
+     *
+     * @see com.rabbitmq.jms.admin.RMQConnectionFactory#setObjectMessageSerializer(ObjectMessageSerializer)
+     */
+    public void setObjectMessageSerializer(ObjectMessageSerializer value) {
+        this.objectMessageSerializer = value;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -425,10 +543,34 @@ public class RMQConnection implements Connection, QueueConnection, TopicConnecti
         }
     }
 
+    /**
+     * @return the prefetch limit for consumers on channels created by this connection, 0 if unlimited
+     */
+    int getChannelsQos() {
+        return this.channelsQos == NO_CHANNEL_QOS ? 0 : this.channelsQos;
+    }
+
+    DeclaredTopology getDeclaredTopology() {
+        return this.declaredTopology;
+    }
+
     long getTerminationTimeout() {
         return this.terminationTimeout;
     }
 
+    /**
+     * Reports an asynchronous error to the {@link ExceptionListener}, if one is set.
+     * @param e the exception to report
+     */
+    void notifyExceptionListener(JMSException e) {
+        ExceptionListener listener = this.exceptionListener.get();
+        if (listener != null) {
+            listener.onException(e);
+        } else {
+            logger.warn("No ExceptionListener set: {}", e.getMessage());
+        }
+    }
+
     @Override
     public String toString() {
         return new StringBuilder("RMQConnection{")
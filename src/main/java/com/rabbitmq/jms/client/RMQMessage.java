@@ -5,6 +5,7 @@ import com.rabbitmq.client.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.LongString;
 import com.rabbitmq.jms.admin.RMQDestination;
 import com.rabbitmq.jms.client.message.*;
 import com.rabbitmq.jms.util.*;
@@ -24,7 +25,7 @@ import java.util.Map.Entry;
  */
 public abstract class RMQMessage implements Message, Cloneable {
     /** Logger shared with derived classes */
-    protected final Logger logger = LoggerFactory.getLogger(RMQMessage.class);
+    protected static final Logger logger = LoggerFactory.getLogger(RMQMessage.class);
 
     protected void loggerDebugByteArray(String format, byte[] buffer, Object arg) {
         if (logger.isDebugEnabled()) {
@@ -61,9 +62,8 @@ public abstract class RMQMessage implements Message, Cloneable {
     protected static final int DEFAULT_MESSAGE_BODY_SIZE = Integer.getInteger("com.rabbitmq.jms.client.message.size", 512);
 
     /**
-     * We store all the JMS hard coded values, such as {@link #setJMSMessageID(String)}, as properties instead of hard
-     * coded fields. This way we can create a structure later on that the rabbit MQ broker can read by just changing the
-     * {@link #toByteArray()}} and {@link #fromMessage(byte[], List)}.
+     * The JMS hard coded values, such as {@link #setJMSMessageID(String)}, are held in fields but are also visible, and
+     * sent, as properties with these names. Other properties with the prefix are held in {@link #rmqProperties}.
      */
     private static final String PREFIX = "rmq.";
     private static final String JMS_MESSAGE_ID = PREFIX + "jms.message.id";
@@ -81,16 +81,100 @@ public abstract class RMQMessage implements Message, Cloneable {
     static final String JMS_MESSAGE_EXPIRATION = PREFIX + "jms.message.expiration";
     static final String JMS_MESSAGE_PRIORITY = PREFIX + "jms.message.priority";
 
+    /* Indexes of the JMS headers held in fields, see getHeader(int) */
+    private static final int HEADER_ID = 0;
+    private static final int HEADER_TIMESTAMP = 1;
+    private static final int HEADER_CORR_ID = 2;
+    private static final int HEADER_REPLY_TO = 3;
+    private static final int HEADER_DESTINATION = 4;
+    private static final int HEADER_REDELIVERED = 5;
+    private static final int HEADER_TYPE = 6;
+    private static final int HEADER_DELIVERY_MODE = 7;
+    private static final int HEADER_EXPIRATION = 8;
+    private static final int HEADER_PRIORITY = 9;
+
+    /** The property names of the JMS headers held in fields, by index */
+    private static final String[] HEADER_NAMES = {
+        JMS_MESSAGE_ID, JMS_MESSAGE_TIMESTAMP, JMS_MESSAGE_CORR_ID, JMS_MESSAGE_REPLY_TO, JMS_MESSAGE_DESTINATION,
+        JMS_MESSAGE_REDELIVERED, JMS_MESSAGE_TYPE, JMS_MESSAGE_DELIVERY_MODE, JMS_MESSAGE_EXPIRATION, JMS_MESSAGE_PRIORITY
+    };
+    private static final Map<String, Integer> HEADER_INDEX = new HashMap<String, Integer>();
+    static {
+        for (int i = 0; i < HEADER_NAMES.length; i++) {
+            HEADER_INDEX.put(HEADER_NAMES[i], i);
+        }
+    }
+
+    /**
+     * Property names which the compact format writes as their (1-based) index in this table, instead of in full.
+     * Entries may only be added at the end.
+     */
+    private static final String[] WELL_KNOWN_PROPERTY_NAMES = {
+        JMS_MESSAGE_ID, JMS_MESSAGE_TIMESTAMP, JMS_MESSAGE_CORR_ID, JMS_MESSAGE_REPLY_TO, JMS_MESSAGE_DESTINATION,
+        JMS_MESSAGE_REDELIVERED, JMS_MESSAGE_TYPE, JMS_MESSAGE_DELIVERY_MODE, JMS_MESSAGE_EXPIRATION, JMS_MESSAGE_PRIORITY,
+        RMQConnectionMetaData.JMSX_GROUP_ID_LABEL, RMQConnectionMetaData.JMSX_GROUP_SEQ_LABEL
+    };
+    private static final Map<String, Integer> WELL_KNOWN_PROPERTY_INDEX = new HashMap<String, Integer>();
+    static {
+        for (int i = 0; i < WELL_KNOWN_PROPERTY_NAMES.length; i++) {
+            WELL_KNOWN_PROPERTY_INDEX.put(WELL_KNOWN_PROPERTY_NAMES[i], i + 1);
+        }
+    }
+
+    /**
+     * The compact format starts with these two bytes then a version byte. The Java serialization format starts with
+     * {@link ObjectStreamConstants#STREAM_MAGIC}.
+     */
+    private static final int COMPACT_MAGIC_0 = 'R';
+    private static final int COMPACT_MAGIC_1 = 'J';
+    private static final int COMPACT_VERSION = 1;
+
+    /* Message types in the compact format. Values may only be added. */
+    private static final int COMPACT_OTHER = 0;  // followed by the class name
+    private static final int COMPACT_TEXT = 1;
+    private static final int COMPACT_BYTES = 2;
+    private static final int COMPACT_MAP = 3;
+    private static final int COMPACT_OBJECT = 4;
+    private static final int COMPACT_STREAM = 5;
+    private static final int COMPACT_NULL = 6;
+    /** Flag on the message type: the properties carried by the AMQP headers are not repeated in the message */
+    private static final int COMPACT_PROPERTIES_IN_HEADERS = 0x80;
+
+    /** The JMS headers which are carried in the AMQP properties or headers, as bits of header indexes */
+    private static final int HEADERS_IN_AMQP = 1 << HEADER_DELIVERY_MODE | 1 << HEADER_ID | 1 << HEADER_TIMESTAMP
+                                             | 1 << HEADER_PRIORITY | 1 << HEADER_CORR_ID | 1 << HEADER_TYPE;
+
     /**
      * For turning {@link String}s into <code>byte[]</code> and back we use this {@link Charset} instance.
      * This is used for {@link RMQMessage#getJMSCorrelationIDAsBytes()}.
      */
     private static final Charset CHARSET = Charset.forName("UTF-8");
-
-    /** Here we store the JMS_ properties that would have been fields */
-    private final Map<String, Serializable> rmqProperties = new HashMap<String, Serializable>();
-    /** Here we store the user’s custom JMS properties */
-    private final Map<String, Serializable> userJmsProperties = new HashMap<String, Serializable>();
+    /** For reading class names and ids at the start of a received message */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /* The JMS headers, each valid only if its bit is set in headersSet */
+    private String jmsMessageID;
+    private long jmsTimestamp;
+    private String jmsCorrelationID;
+    private Serializable jmsReplyTo;
+    private Serializable jmsDestination;
+    private boolean jmsRedelivered;
+    private String jmsType;
+    private int jmsDeliveryMode;
+    private long jmsExpiration;
+    private int jmsPriority;
+    /** The JMS headers which are set, as bits of header indexes */
+    private int headersSet = 0;
+    /** Here we store the other rmq. properties; <code>null</code> until there are any */
+    private Map<String, Serializable> rmqProperties = null;
+    /** Here we store the user’s custom JMS properties; <code>null</code> until there are any, see {@link #userProperties()} */
+    private Map<String, Serializable> userJmsProperties = null;
+    /**
+     * The bytes a JMS message was received as, while some of them are still to be decoded; <code>null</code> once the
+     * message is fully decoded.
+     * @see #fromMessageLazily(byte[], List)
+     */
+    private volatile transient UndecodedBytes undecoded = null;
     /**
      * We generate a unique message ID each time we send a message
      * It is stored here. This is also used for
@@ -196,7 +280,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public String getJMSMessageID() throws JMSException {
-        return this.getStringProperty(JMS_MESSAGE_ID);
+        this.decodeProperties();
+        return this.jmsMessageID;
     }
 
     /**
@@ -204,7 +289,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSMessageID(String id) throws JMSException {
-        this.setStringProperty(JMS_MESSAGE_ID, id);
+        this.decodeProperties();
+        this.setHeader(HEADER_ID, id);
     }
 
     /**
@@ -212,7 +298,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public long getJMSTimestamp() throws JMSException {
-        return this.getLongProperty(JMS_MESSAGE_TIMESTAMP);
+        this.decodeProperties();
+        if (!this.isHeaderSet(HEADER_TIMESTAMP)) throw new NumberFormatException("Null is not a valid long");
+        return this.jmsTimestamp;
     }
 
     /**
@@ -220,7 +308,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSTimestamp(long timestamp) throws JMSException {
-        this.setLongProperty(JMS_MESSAGE_TIMESTAMP, timestamp);
+        this.decodeProperties();
+        this.jmsTimestamp = timestamp;
+        this.headersSet |= 1 << HEADER_TIMESTAMP;
     }
 
     /**
@@ -228,7 +318,7 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public byte[] getJMSCorrelationIDAsBytes() throws JMSException {
-        String id = this.getStringProperty(JMS_MESSAGE_CORR_ID);
+        String id = this.getJMSCorrelationID();
         if (id != null)
             return id.getBytes(getCharset());
         else
@@ -241,7 +331,7 @@ public abstract class RMQMessage implements Message, Cloneable {
     @Override
     public void setJMSCorrelationIDAsBytes(byte[] correlationID) throws JMSException {
         String id = correlationID != null ? new String(correlationID, getCharset()) : null;
-        this.setStringProperty(JMS_MESSAGE_CORR_ID, id);
+        this.setJMSCorrelationID(id);
     }
 
     /**
@@ -249,7 +339,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSCorrelationID(String correlationID) throws JMSException {
-        this.setStringProperty(JMS_MESSAGE_CORR_ID, correlationID);
+        this.decodeProperties();
+        this.setHeader(HEADER_CORR_ID, correlationID);
     }
 
     /**
@@ -257,7 +348,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public String getJMSCorrelationID() throws JMSException {
-        return this.getStringProperty(JMS_MESSAGE_CORR_ID);
+        this.decodeProperties();
+        return this.jmsCorrelationID;
     }
 
     /**
@@ -265,7 +357,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public Destination getJMSReplyTo() throws JMSException {
-        return (Destination) this.getObjectProperty(JMS_MESSAGE_REPLY_TO);
+        this.decodeProperties();
+        return (Destination) this.jmsReplyTo;
     }
 
     /**
@@ -273,7 +366,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSReplyTo(Destination replyTo) throws JMSException {
-        this.setObjectProperty(JMS_MESSAGE_REPLY_TO, replyTo);
+        this.decodeProperties();
+        this.setDestinationHeader(HEADER_REPLY_TO, replyTo);
     }
 
     /**
@@ -281,7 +375,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public Destination getJMSDestination() throws JMSException {
-        return (Destination) this.getObjectProperty(JMS_MESSAGE_DESTINATION);
+        this.decodeProperties();
+        return (Destination) this.jmsDestination;
     }
 
     /**
@@ -289,7 +384,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSDestination(Destination destination) throws JMSException {
-        this.setObjectProperty(JMS_MESSAGE_DESTINATION, destination);
+        this.decodeProperties();
+        this.setDestinationHeader(HEADER_DESTINATION, destination);
     }
 
     /**
@@ -297,7 +393,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public int getJMSDeliveryMode() throws JMSException {
-        return this.getIntProperty(JMS_MESSAGE_DELIVERY_MODE);
+        this.decodeProperties();
+        if (!this.isHeaderSet(HEADER_DELIVERY_MODE)) throw new NumberFormatException("Null is not a valid int");
+        return this.jmsDeliveryMode;
     }
 
     /**
@@ -305,7 +403,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSDeliveryMode(int deliveryMode) throws JMSException {
-        this.setIntProperty(JMS_MESSAGE_DELIVERY_MODE, deliveryMode);
+        this.decodeProperties();
+        this.jmsDeliveryMode = deliveryMode;
+        this.headersSet |= 1 << HEADER_DELIVERY_MODE;
     }
 
     /**
@@ -313,7 +413,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public boolean getJMSRedelivered() throws JMSException {
-        return this.getBooleanProperty(JMS_MESSAGE_REDELIVERED);
+        this.decodeProperties();
+        return this.jmsRedelivered;
     }
 
     /**
@@ -321,7 +422,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSRedelivered(boolean redelivered) throws JMSException {
-        this.setBooleanProperty(JMS_MESSAGE_REDELIVERED, redelivered);
+        this.decodeProperties();
+        this.jmsRedelivered = redelivered;
+        this.headersSet |= 1 << HEADER_REDELIVERED;
     }
 
     /**
@@ -329,7 +432,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public String getJMSType() throws JMSException {
-        return this.getStringProperty(JMS_MESSAGE_TYPE);
+        this.decodeProperties();
+        return this.jmsType;
     }
 
     /**
@@ -337,7 +441,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSType(String type) throws JMSException {
-        this.setStringProperty(JMS_MESSAGE_TYPE, type);
+        this.decodeProperties();
+        this.setHeader(HEADER_TYPE, type);
     }
 
     /**
@@ -345,7 +450,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public long getJMSExpiration() throws JMSException {
-        return this.getLongProperty(JMS_MESSAGE_EXPIRATION);
+        this.decodeProperties();
+        if (!this.isHeaderSet(HEADER_EXPIRATION)) throw new NumberFormatException("Null is not a valid long");
+        return this.jmsExpiration;
     }
 
     /**
@@ -353,7 +460,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSExpiration(long expiration) throws JMSException {
-        this.setLongProperty(JMS_MESSAGE_EXPIRATION, expiration);
+        this.decodeProperties();
+        this.jmsExpiration = expiration;
+        this.headersSet |= 1 << HEADER_EXPIRATION;
     }
 
     /**
@@ -361,7 +470,9 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public int getJMSPriority() throws JMSException {
-        return this.getIntProperty(JMS_MESSAGE_PRIORITY);
+        this.decodeProperties();
+        if (!this.isHeaderSet(HEADER_PRIORITY)) throw new NumberFormatException("Null is not a valid int");
+        return this.jmsPriority;
     }
 
     /**
@@ -369,7 +480,147 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setJMSPriority(int priority) throws JMSException {
-        this.setIntProperty(JMS_MESSAGE_PRIORITY, priority);
+        this.decodeProperties();
+        this.jmsPriority = priority;
+        this.headersSet |= 1 << HEADER_PRIORITY;
+    }
+
+    private boolean isHeaderSet(int header) {
+        return (this.headersSet & (1 << header)) != 0;
+    }
+
+    /**
+     * @return the value of a JMS header as a property, or <code>null</code> if it is not set
+     */
+    private Serializable getHeader(int header) {
+        if (!this.isHeaderSet(header)) return null;
+        switch (header) {
+        case HEADER_ID:            return this.jmsMessageID;
+        case HEADER_TIMESTAMP:     return this.jmsTimestamp;
+        case HEADER_CORR_ID:       return this.jmsCorrelationID;
+        case HEADER_REPLY_TO:      return this.jmsReplyTo;
+        case HEADER_DESTINATION:   return this.jmsDestination;
+        case HEADER_REDELIVERED:   return this.jmsRedelivered;
+        case HEADER_TYPE:          return this.jmsType;
+        case HEADER_DELIVERY_MODE: return this.jmsDeliveryMode;
+        case HEADER_EXPIRATION:    return this.jmsExpiration;
+        default:                   return this.jmsPriority;
+        }
+    }
+
+    /**
+     * Sets a JMS header from a property value, converted as by the typed property getters.
+     * @param value the value, or <code>null</code> to unset the header
+     * @throws ClassCastException if the value is not of a type the header can be converted from
+     * @throws NumberFormatException if the value is a string which is not a number
+     */
+    private void setHeader(int header, Object value) {
+        if (value == null) {
+            this.headersSet &= ~(1 << header);
+            switch (header) {
+            case HEADER_ID:          this.jmsMessageID = null; break;
+            case HEADER_CORR_ID:     this.jmsCorrelationID = null; break;
+            case HEADER_REPLY_TO:    this.jmsReplyTo = null; break;
+            case HEADER_DESTINATION: this.jmsDestination = null; break;
+            case HEADER_REDELIVERED: this.jmsRedelivered = false; break;
+            case HEADER_TYPE:        this.jmsType = null; break;
+            default:                 break;
+            }
+            return;
+        }
+        switch (header) {
+        case HEADER_ID:            this.jmsMessageID = value.toString(); break;
+        case HEADER_TIMESTAMP:     this.jmsTimestamp = toLong(value); break;
+        case HEADER_CORR_ID:       this.jmsCorrelationID = value.toString(); break;
+        case HEADER_REPLY_TO:      this.jmsReplyTo = (Serializable) value; break;
+        case HEADER_DESTINATION:   this.jmsDestination = (Serializable) value; break;
+        case HEADER_REDELIVERED:   this.jmsRedelivered = (value instanceof String) ? Boolean.parseBoolean((String) value) : (Boolean) value; break;
+        case HEADER_TYPE:          this.jmsType = value.toString(); break;
+        case HEADER_DELIVERY_MODE: this.jmsDeliveryMode = (int) toLong(value); break;
+        case HEADER_EXPIRATION:    this.jmsExpiration = toLong(value); break;
+        default:                   this.jmsPriority = (int) toLong(value); break;
+        }
+        this.headersSet |= 1 << header;
+    }
+
+    private void setHeaderIfAbsent(int header, Object value) {
+        if (!this.isHeaderSet(header)) this.setHeader(header, value);
+    }
+
+    private void setDestinationHeader(int header, Destination destination) throws JMSException {
+        try {
+            this.setHeader(header, destination);
+        } catch (ClassCastException x) {
+            throw new RMQJMSException("Property value not serializable.", x);
+        }
+    }
+
+    private static long toLong(Object value) {
+        return (value instanceof String) ? Long.parseLong((String) value) : ((Number) value).longValue();
+    }
+
+    /**
+     * @return the value of a property with the {@link #PREFIX}, which may be a JMS header
+     */
+    private Serializable getRmqProperty(String name) {
+        Integer header = HEADER_INDEX.get(name);
+        if (header != null) return this.getHeader(header);
+        return (this.rmqProperties == null) ? null : this.rmqProperties.get(name);
+    }
+
+    private boolean rmqPropertyExists(String name) {
+        Integer header = HEADER_INDEX.get(name);
+        if (header != null) return this.isHeaderSet(header);
+        return this.rmqProperties != null && this.rmqProperties.containsKey(name);
+    }
+
+    /**
+     * Sets a property with the {@link #PREFIX}, which may be a JMS header.
+     * @param value the value, or <code>null</code> to remove the property
+     * @see #setHeader(int, Object)
+     */
+    private void setRmqProperty(String name, Object value) {
+        Integer header = HEADER_INDEX.get(name);
+        if (header != null) {
+            this.setHeader(header, value);
+        } else if (value == null) {
+            if (this.rmqProperties != null) this.rmqProperties.remove(name);
+        } else {
+            if (this.rmqProperties == null) this.rmqProperties = new HashMap<String, Serializable>();
+            this.rmqProperties.put(name, (Serializable) value);
+        }
+    }
+
+    /**
+     * Sets a property with the {@link #PREFIX} read from a received message, unless it is already set, as the only
+     * ones already set are set on receipt, after the message was sent.
+     */
+    private void readRmqProperty(String name, Object value) {
+        if (!this.rmqPropertyExists(name)) this.setRmqProperty(name, value);
+    }
+
+    /**
+     * @param leaveOut JMS headers not to count, as bits of header indexes
+     * @return the number of properties with the {@link #PREFIX} which are set
+     */
+    private int rmqPropertyCount(int leaveOut) {
+        return Integer.bitCount(this.headersSet & ~leaveOut) + this.rmqProperties().size();
+    }
+
+    private Map<String, Serializable> rmqProperties() {
+        return (this.rmqProperties == null) ? Collections.<String, Serializable>emptyMap() : this.rmqProperties;
+    }
+
+    /**
+     * @return the user properties, for reading only
+     */
+    private Map<String, Serializable> userProperties() {
+        return (this.userJmsProperties == null) ? Collections.<String, Serializable>emptyMap() : this.userJmsProperties;
+    }
+
+    private void putUserProperty(String name, Serializable value) {
+        if (this.userJmsProperties == null) this.userJmsProperties = new HashMap<String, Serializable>();
+        this.userJmsProperties.put(name, value);
     }
 
     /**
@@ -377,7 +628,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public final void clearProperties() throws JMSException {
-        this.userJmsProperties.clear();
+        this.decodeProperties();
+        this.userJmsProperties = null;
         this.setReadOnlyProperties(false);
     }
 
@@ -386,7 +638,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public boolean propertyExists(String name) throws JMSException {
-        return this.userJmsProperties.containsKey(name) || this.rmqProperties.containsKey(name);
+        this.decodeProperties();
+        return this.userProperties().containsKey(name) || (name.startsWith(PREFIX) && this.rmqPropertyExists(name));
     }
 
     /**
@@ -536,10 +789,11 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public Object getObjectProperty(String name) throws JMSException {
+        this.decodeProperties();
         if (name.startsWith(PREFIX))
-            return this.rmqProperties.get(name);
+            return this.getRmqProperty(name);
         else
-            return this.userJmsProperties.get(name);
+            return this.userProperties().get(name);
     }
 
     /**
@@ -547,7 +801,8 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public Enumeration<?> getPropertyNames() throws JMSException {
-        return new IteratorEnum<String>(this.userJmsProperties.keySet().iterator());
+        this.decodeProperties();
+        return new IteratorEnum<String>(this.userProperties().keySet().iterator());
     }
 
     /**
@@ -653,6 +908,7 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public void setObjectProperty(String name, Object value) throws JMSException {
+        this.decodeProperties();
         try {
             if (RMQConnectionMetaData.JMSX_GROUP_SEQ_LABEL.equals(name)) {
                 /**
@@ -675,19 +931,15 @@ public abstract class RMQMessage implements Message, Cloneable {
             }
 
             if (name!=null && name.startsWith(PREFIX)) {
-                if (value==null) {
-                    this.rmqProperties.remove(name);
-                } else {
-                    this.rmqProperties.put(name, (Serializable) value);
-                }
+                this.setRmqProperty(name, value);
             } else {
                 if (isReadOnlyProperties()) throw new MessageNotWriteableException(NOT_WRITEABLE);
                 checkName(name);
 
                 if (value==null) {
-                    this.userJmsProperties.remove(name);
+                    if (this.userJmsProperties != null) this.userJmsProperties.remove(name);
                 } else if (validPropertyValueType(value)) {
-                    this.userJmsProperties.put(name, (Serializable) value);
+                    this.putUserProperty(name, (Serializable) value);
                 } else {
                     throw new MessageFormatException(String.format("Property [%s] has incorrect value type.", name));
                 }
@@ -702,7 +954,7 @@ public abstract class RMQMessage implements Message, Cloneable {
      * @param value property value type
      * @return true if the type is valid
      */
-    private boolean validPropertyValueType(Object value) {
+    private static boolean validPropertyValueType(Object value) {
         return (value instanceof String
              || value instanceof Boolean
              || value instanceof Byte
@@ -744,12 +996,32 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public final void clearBody() throws JMSException {
+        UndecodedBytes undecoded = this.undecoded;
+        if (undecoded != null) undecoded.discardBody(this);
         setReadOnlyBody(false);
         clearBodyInternal();
     }
 
     protected abstract void clearBodyInternal() throws JMSException;
 
+    /**
+     * Decodes the body of a received message, if it is not decoded yet. Subclasses call this before any access to
+     * their body state, apart from {@link #clearBodyInternal()}.
+     * @throws JMSException if the body cannot be decoded
+     */
+    protected final void loadBody() throws JMSException {
+        UndecodedBytes undecoded = this.undecoded;
+        if (undecoded != null) undecoded.decodeBody(this);
+    }
+
+    /**
+     * Decodes the properties (and JMS headers) of a received message, if they are not decoded yet.
+     */
+    private void decodeProperties() throws JMSException {
+        UndecodedBytes undecoded = this.undecoded;
+        if (undecoded != null) undecoded.decodeProperties(this);
+    }
+
     /** @return the {@link Charset} used to convert a {@link TextMessage} to <code>byte[]</code> */
     private static Charset getCharset() {
         return CHARSET;
@@ -775,6 +1047,15 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     protected abstract void writeAmqpBody(ByteArrayOutputStream out) throws IOException;
 
+    /**
+     * Invoked when {@link RMQMessage#toAmqpByteArray()} is called, before {@link #writeAmqpBody(ByteArrayOutputStream)}.
+     * @return the body, if the message holds it in an array of its own which can be sent as it is, otherwise
+     * <code>null</code>
+     */
+    protected byte[] getAmqpBodyArray() {
+        return null;
+    }
+
     /**
      * Invoked when a message is being deserialized to read and decode the message body.
      * The implementing class should <i>only</i> read its body from this stream.
@@ -831,20 +1112,39 @@ public abstract class RMQMessage implements Message, Cloneable {
      * </blockquote>
      */
     Map<String, Object> toHeaders() throws IOException, JMSException {
+        return this.toHeaders(true);
+    }
+
+    /**
+     * Generate the headers for this JMS message.
+     * <p>
+     * The JMS delivery mode, message id, priority, correlation id and type are also sent in the AMQP properties (see
+     * {@link #readAmqpProperties(BasicProperties)}). They are only repeated in the headers if the headers are used for
+     * selection by the broker, as they are for topics. The timestamp is always in the headers, as the AMQP timestamp
+     * is in seconds.
+     * </p>
+     * @param forSelection whether to include all the selectable JMS headers
+     * @return the headers
+     * @see #toHeaders()
+     */
+    Map<String, Object> toHeaders(boolean forSelection) throws IOException, JMSException {
+        this.decodeProperties();
         Map<String, Object> hdrs = new HashMap<String, Object>();
 
-        // set non-null user properties
-        for (Map.Entry<String, Serializable> e : this.userJmsProperties.entrySet()) {
-            putIfNotNull(hdrs, e.getKey(), e.getValue());
+        // set non-null user properties, except those named as headers the broker reserves, which stay in the body
+        for (Map.Entry<String, Serializable> e : this.userProperties().entrySet()) {
+            if (!isReservedHeader(e.getKey())) putIfNotNull(hdrs, e.getKey(), e.getValue());
         }
 
         // set (overwrite?) selectable JMS properties
-        hdrs.put("JMSDeliveryMode", (this.getJMSDeliveryMode()==DeliveryMode.PERSISTENT ? "PERSISTENT": "NON_PERSISTENT"));
-        putIfNotNull(hdrs, "JMSMessageID", this.getJMSMessageID());
         hdrs.put("JMSTimestamp", this.getJMSTimestamp());
-        hdrs.put("JMSPriority", this.getJMSPriority());
-        putIfNotNull(hdrs, "JMSCorrelationID", this.getJMSCorrelationID());
-        putIfNotNull(hdrs, "JMSType", this.getJMSType());
+        if (forSelection) {
+            hdrs.put("JMSDeliveryMode", (this.getJMSDeliveryMode()==DeliveryMode.PERSISTENT ? "PERSISTENT": "NON_PERSISTENT"));
+            putIfNotNull(hdrs, "JMSMessageID", this.getJMSMessageID());
+            hdrs.put("JMSPriority", this.getJMSPriority());
+            putIfNotNull(hdrs, "JMSCorrelationID", this.getJMSCorrelationID());
+            putIfNotNull(hdrs, "JMSType", this.getJMSType());
+        }
 
         return hdrs;
     }
@@ -867,11 +1167,14 @@ public abstract class RMQMessage implements Message, Cloneable {
     }
 
     static RMQMessage convertJmsMessage(RMQSession session, RMQDestination dest, GetResponse response) throws JMSException {
-        // Deserialize the message payload from the byte[] body
-        RMQMessage message = fromMessage(response.getBody(), session.getTrustedPackages());
+        // Deserialize the message payload from the byte[] body, as and when it is accessed
+        RMQMessage message = fromMessageLazily(response.getBody(), session.getTrustedPackages(), response.getProps());
+        if (message instanceof RMQObjectMessage) {
+            ((RMQObjectMessage) message).setSerializer(session.getObjectMessageSerializer());
+        }
 
         message.setSession(session);                                            // Insert session in received message for Message.acknowledge
-        message.setJMSRedelivered(response.getEnvelope().isRedeliver());        // Set the redelivered flag
+        message.setHeader(HEADER_REDELIVERED, response.getEnvelope().isRedeliver()); // Set the redelivered flag, without decoding the properties
         message.setRabbitDeliveryTag(response.getEnvelope().getDeliveryTag());  // Insert delivery tag in received message for Message.acknowledge
         // message.setJMSDestination(dest);                                     // DO NOT set the destination bug#57214768
         // JMSProperties already set
@@ -927,10 +1230,11 @@ public abstract class RMQMessage implements Message, Cloneable {
      * </blockquote>
      */
     Map<String, Object> toAmqpHeaders() throws IOException, JMSException {
+        this.decodeProperties();
         Map<String, Object> hdrs = new HashMap<String, Object>();
 
         // set non-null user properties
-        for (Map.Entry<String, Serializable> e : this.userJmsProperties.entrySet()) {
+        for (Map.Entry<String, Serializable> e : this.userProperties().entrySet()) {
             putIfNotNullAndAmqpType(hdrs, e.getKey(), e.getValue());
         }
 
@@ -970,7 +1274,23 @@ public abstract class RMQMessage implements Message, Cloneable {
      * @throws IOException if conversion fails
      */
     byte[] toAmqpByteArray() throws IOException, JMSException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(DEFAULT_MESSAGE_BODY_SIZE);
+        return this.toAmqpByteArray(new AdaptiveByteArrayOutputStream(DEFAULT_MESSAGE_BODY_SIZE));
+    }
+
+    /**
+     * Generates an AMQP byte array body for this message, writing it to the buffer given.
+     * @param bout an empty buffer to write to, which has been reset
+     * @return the body in a byte array, from <code>bout.toByteArray()</code> unless the message holds it as it is sent
+     * @throws IOException if conversion fails
+     * @see #toAmqpByteArray()
+     */
+    byte[] toAmqpByteArray(AdaptiveByteArrayOutputStream bout) throws IOException, JMSException {
+        this.loadBody();
+        byte[] body = this.getAmqpBodyArray();
+        if (body != null) {
+            bout.recordSize(body.length);
+            return body;
+        }
         //invoke write body
         this.writeAmqpBody(bout);
         //flush and return
@@ -978,40 +1298,300 @@ public abstract class RMQMessage implements Message, Cloneable {
         return bout.toByteArray();
     }
 
+    /**
+     * Generates a JMS byte array body for this message, in the Java serialization format.
+     * @return the body in a byte array
+     * @throws IOException if serialization fails
+     * @see #toByteArray(boolean)
+     */
+    byte[] toByteArray() throws IOException, JMSException {
+        return this.toByteArray(false);
+    }
+
     /**
      * Generates a JMS byte array body for this message.
+     * <p>
+     * In the compact format, the message starts with a magic number, a format version and a one byte message type,
+     * followed by the message id, the length of the properties, the properties, then the body. Lengths are
+     * variable-length integers, and the names of the JMS properties come from a table. Otherwise the message is in the
+     * original format, framed by Java serialization.
+     * </p>
+     * <p>
      * This method invokes the {@link #writeBody(ObjectOutput, ByteArrayOutputStream)} method
-     * on the class that is being serialized
+     * on the class that is being serialized, unless this is a received message whose body is not decoded yet and was
+     * received in the same format, in which case the body is copied as received.
+     * </p>
+     * @param compact whether to use the compact format
      * @return the body in a byte array
      * @throws IOException if serialization fails
      */
-    byte[] toByteArray() throws IOException, JMSException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(DEFAULT_MESSAGE_BODY_SIZE);
+    byte[] toByteArray(boolean compact) throws IOException, JMSException {
+        return this.toByteArray(compact, false);
+    }
+
+    /**
+     * Generates a JMS byte array body for this message.
+     * <p>
+     * If <code>propertiesInHeaders</code> is set, the message is in the compact format and leaves out the properties
+     * which are carried in the AMQP properties and headers: the user properties, except null ones and those named as
+     * headers the broker reserves, and the JMS delivery mode, message id, timestamp, priority, correlation id and type.
+     * The message must then be sent with those, and read
+     * with them by {@link #fromMessageLazily(byte[], List, BasicProperties)}.
+     * </p>
+     * @param compact whether to use the compact format
+     * @param propertiesInHeaders whether to leave out the properties carried in the AMQP headers, if compact
+     * @return the body in a byte array
+     * @throws IOException if serialization fails
+     * @see #toByteArray(boolean)
+     */
+    byte[] toByteArray(boolean compact, boolean propertiesInHeaders) throws IOException, JMSException {
+        return this.toByteArray(compact, propertiesInHeaders, new AdaptiveByteArrayOutputStream(DEFAULT_MESSAGE_BODY_SIZE));
+    }
+
+    /**
+     * Generates a JMS byte array body for this message, writing it to the buffer given.
+     * @param compact whether to use the compact format
+     * @param propertiesInHeaders whether to leave out the properties carried in the AMQP headers, if compact
+     * @param bout an empty buffer to write to, which has been reset
+     * @return the body in a byte array, from <code>bout.toByteArray()</code>
+     * @throws IOException if serialization fails
+     * @see #toByteArray(boolean, boolean)
+     */
+    byte[] toByteArray(boolean compact, boolean propertiesInHeaders, AdaptiveByteArrayOutputStream bout) throws IOException, JMSException {
+        this.decodeProperties();
+        ObjectOutput out = compact ? this.writeCompactHeader(bout, propertiesInHeaders) : this.writeSerializedHeader(bout);
+        UndecodedBytes undecoded = this.undecoded;
+        if (undecoded == null || !undecoded.copyBody(this, bout, compact)) {
+            this.loadBody();
+            this.writeBody(out, bout);
+            out.flush();  // force any more structured data to byte stream
+        }
+        return bout.toByteArray();
+    }
+
+    /**
+     * Writes everything but the body in the Java serialization format.
+     * @return the stream to write the body to
+     */
+    private ObjectOutput writeSerializedHeader(ByteArrayOutputStream bout) throws IOException, JMSException {
         ObjectOutputStream out = new ObjectOutputStream(bout);
         //write the class of the message so we can instantiate on the other end
         out.writeUTF(this.getClass().getName());
         //write out message id
         out.writeUTF(this.internalMessageID);
         //write our JMS properties
-        out.writeInt(this.rmqProperties.size());
-        for (Map.Entry<String, Serializable> entry : this.rmqProperties.entrySet()) {
+        out.writeInt(this.rmqPropertyCount(0));
+        for (int header = 0; header < HEADER_NAMES.length; header++) {
+            if (this.isHeaderSet(header)) {
+                out.writeUTF(HEADER_NAMES[header]);
+                writePrimitive(this.getHeader(header), out, true);
+            }
+        }
+        for (Map.Entry<String, Serializable> entry : this.rmqProperties().entrySet()) {
             out.writeUTF(entry.getKey());
             writePrimitive(entry.getValue(), out, true);
         }
         //write custom properties
-        out.writeInt(this.userJmsProperties.size());
-        for (Map.Entry<String, Serializable> entry : this.userJmsProperties.entrySet()) {
+        out.writeInt(this.userProperties().size());
+        for (Map.Entry<String, Serializable> entry : this.userProperties().entrySet()) {
             out.writeUTF(entry.getKey());
             writePrimitive(entry.getValue(), out, true);
         }
         out.flush();  // ensure structured part written to byte stream
-        this.writeBody(out, bout);
-        out.flush();  // force any more structured data to byte stream
-        return bout.toByteArray();
+        return out;
+    }
+
+    /**
+     * Writes everything but the body in the compact format.
+     * @return the stream to write the body to
+     */
+    private ObjectOutput writeCompactHeader(AdaptiveByteArrayOutputStream bout, boolean propertiesInHeaders) throws IOException {
+        CompactObjectOutput out = new CompactObjectOutput(bout);
+        out.write(COMPACT_MAGIC_0);
+        out.write(COMPACT_MAGIC_1);
+        out.write(COMPACT_VERSION);
+        int type = compactTypeOf(this);
+        out.write(propertiesInHeaders ? type | COMPACT_PROPERTIES_IN_HEADERS : type);
+        if (type == COMPACT_OTHER) out.writeString(this.getClass().getName());
+        out.writeString(this.internalMessageID);
+        // the properties are prefixed with their length, so that the body can be found without decoding them: the
+        // length is written after them, then moved in front
+        int start = bout.size();
+        this.writeCompactRmqProperties(propertiesInHeaders ? HEADERS_IN_AMQP : 0, out);
+        if (propertiesInHeaders) {
+            // only the user properties which toHeaders() leaves out: null ones, and those named as reserved headers
+            writeCompactPropertiesLeftOutOfHeaders(this.userProperties(), out);
+        } else {
+            writeCompactProperties(this.userProperties(), out);
+        }
+        int length = bout.size() - start;
+        out.writeVarInt(length);
+        bout.moveTail(start, bout.size() - start - length);
+        return out;
     }
 
     /**
-     * Deserializes a {@link RMQMessage} from a JMS generated byte array
+     * @param leaveOut JMS headers not to write, as bits of header indexes
+     */
+    private void writeCompactRmqProperties(int leaveOut, CompactObjectOutput out) throws IOException {
+        out.writeVarInt(this.rmqPropertyCount(leaveOut));
+        int headers = this.headersSet & ~leaveOut;
+        for (int header = 0; header < HEADER_NAMES.length; header++) {
+            if ((headers & (1 << header)) != 0) {
+                writeCompactPropertyName(HEADER_NAMES[header], out);
+                out.writeValue(this.getHeader(header), true);
+            }
+        }
+        for (Map.Entry<String, Serializable> entry : this.rmqProperties().entrySet()) {
+            writeCompactPropertyName(entry.getKey(), out);
+            out.writeValue(entry.getValue(), true);
+        }
+    }
+
+    private static void writeCompactProperties(Map<String, Serializable> properties, CompactObjectOutput out) throws IOException {
+        out.writeVarInt(properties.size());
+        for (Map.Entry<String, Serializable> entry : properties.entrySet()) {
+            writeCompactPropertyName(entry.getKey(), out);
+            out.writeValue(entry.getValue(), true);
+        }
+    }
+
+    /**
+     * Writes the properties which {@link #toHeaders(boolean)} leaves out, as
+     * {@link #writeCompactProperties(Map, CompactObjectOutput)} would a map of only those.
+     */
+    private static void writeCompactPropertiesLeftOutOfHeaders(Map<String, Serializable> properties, CompactObjectOutput out) throws IOException {
+        int count = 0;
+        for (Map.Entry<String, Serializable> entry : properties.entrySet()) {
+            if (isLeftOutOfHeaders(entry)) count++;
+        }
+        out.writeVarInt(count);
+        for (Map.Entry<String, Serializable> entry : properties.entrySet()) {
+            if (isLeftOutOfHeaders(entry)) {
+                writeCompactPropertyName(entry.getKey(), out);
+                out.writeValue(entry.getValue(), true);
+            }
+        }
+    }
+
+    private static boolean isLeftOutOfHeaders(Map.Entry<String, Serializable> property) {
+        return property.getValue() == null || isReservedHeader(property.getKey());
+    }
+
+    private static void writeCompactPropertyName(String name, CompactObjectOutput out) throws IOException {
+        Integer index = WELL_KNOWN_PROPERTY_INDEX.get(name);
+        if (index == null) {
+            out.writeVarInt(0);
+            out.writeString(name);
+        } else {
+            out.writeVarInt(index);
+        }
+    }
+
+    /**
+     * Reads the JMS properties then the custom properties, as written in the compact format. As for
+     * {@link #readProperties(ObjectInput)}, a JMS property already set on the message is kept.
+     */
+    private void readCompactProperties(CompactObjectInput in) throws IOException, ClassNotFoundException {
+        int propsize = in.readVarInt();
+        for (int i = 0; i < propsize; i++) {
+            String name = readCompactPropertyName(in);
+            Object value = in.readValue();
+            this.readRmqProperty(name, value);
+        }
+        propsize = in.readVarInt();
+        for (int i = 0; i < propsize; i++) {
+            String name = readCompactPropertyName(in);
+            Object value = in.readValue();
+            this.putUserProperty(name, (Serializable) value);
+        }
+    }
+
+    /**
+     * Reads the properties which {@link #toHeaders(boolean)} and the producer carry in the AMQP properties and
+     * headers. The JMS headers are read from the headers, as sent by earlier versions, and otherwise from the
+     * AMQP properties. A JMS property already set on the message is kept. Headers which are not of a JMS property
+     * type, such as those the broker adds to dead-lettered messages, are ignored.
+     */
+    private void readAmqpProperties(BasicProperties props) {
+        Map<String, Object> hdrs = props.getHeaders();
+        if (hdrs != null) this.readHeaderProperties(hdrs);
+
+        if (props.getDeliveryMode() != null) this.setHeaderIfAbsent(HEADER_DELIVERY_MODE, jmsDeliveryMode(props.getDeliveryMode()));
+        if (props.getMessageId() != null)    this.setHeaderIfAbsent(HEADER_ID, props.getMessageId());
+        if (props.getTimestamp() != null)    this.setHeaderIfAbsent(HEADER_TIMESTAMP, props.getTimestamp().getTime());
+        if (props.getPriority() != null)     this.setHeaderIfAbsent(HEADER_PRIORITY, props.getPriority());
+        if (props.getCorrelationId() != null) this.setHeaderIfAbsent(HEADER_CORR_ID, props.getCorrelationId());
+        if (props.getType() != null)         this.setHeaderIfAbsent(HEADER_TYPE, props.getType());
+    }
+
+    private void readHeaderProperties(Map<String, Object> hdrs) {
+        for (Entry<String, Object> e : hdrs.entrySet()) {
+            String key = e.getKey();
+            Object val = e.getValue();
+            if (val == null || isReservedHeader(key)) continue;
+            if      (key.equals("JMSDeliveryMode"))  { this.setHeaderIfAbsent(HEADER_DELIVERY_MODE, "PERSISTENT".equals(val.toString()) ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT); }
+            else if (key.equals("JMSMessageID"))     { this.setHeaderIfAbsent(HEADER_ID, val.toString()); }
+            else if (key.equals("JMSTimestamp"))     { this.setHeaderIfAbsent(HEADER_TIMESTAMP, objectToLong(val, 0l)); }
+            else if (key.equals("JMSPriority"))      { this.setHeaderIfAbsent(HEADER_PRIORITY, objectToInt(val, 4)); }
+            else if (key.equals("JMSCorrelationID")) { this.setHeaderIfAbsent(HEADER_CORR_ID, val.toString()); }
+            else if (key.equals("JMSType"))          { this.setHeaderIfAbsent(HEADER_TYPE, val.toString()); }
+            else if (val instanceof LongString)      { this.putUserProperty(key, val.toString()); }
+            else if (validPropertyValueType(val))    { this.putUserProperty(key, (Serializable) val); }
+        }
+    }
+
+    /**
+     * @return whether a header is set by the broker or used for AMQP routing, such as the dead-lettering headers
+     * <code>x-death</code>, <code>x-first-death-queue</code> and <code>x-first-death-reason</code>, or
+     * <code>CC</code>; such headers are never read as JMS properties, and properties with these names are carried in
+     * the message body instead
+     */
+    private static boolean isReservedHeader(String key) {
+        return key.startsWith("x-") || key.equals("CC") || key.equals("BCC");
+    }
+
+    private static String readCompactPropertyName(CompactObjectInput in) throws IOException {
+        int index = in.readVarInt();
+        if (index == 0) {
+            return in.readString();
+        } else if (index <= WELL_KNOWN_PROPERTY_NAMES.length) {
+            return WELL_KNOWN_PROPERTY_NAMES[index - 1];
+        } else {
+            throw new StreamCorruptedException("Unknown property name index " + index);
+        }
+    }
+
+    private static int compactTypeOf(RMQMessage msg) {
+        Class<?> clazz = msg.getClass();
+        if (clazz == RMQTextMessage.class)   return COMPACT_TEXT;
+        if (clazz == RMQBytesMessage.class)  return COMPACT_BYTES;
+        if (clazz == RMQMapMessage.class)    return COMPACT_MAP;
+        if (clazz == RMQObjectMessage.class) return COMPACT_OBJECT;
+        if (clazz == RMQStreamMessage.class) return COMPACT_STREAM;
+        if (clazz == RMQNullMessage.class)   return COMPACT_NULL;
+        return COMPACT_OTHER;
+    }
+
+    private static RMQMessage instantiateCompactType(int type, CompactObjectInput in, List<String> trustedPackages) throws IOException, RMQJMSException {
+        switch (type) {
+        case COMPACT_TEXT:   return new RMQTextMessage();
+        case COMPACT_BYTES:  return new RMQBytesMessage();
+        case COMPACT_MAP:    return new RMQMapMessage();
+        case COMPACT_OBJECT: return new RMQObjectMessage(trustedPackages);
+        case COMPACT_STREAM: return new RMQStreamMessage();
+        case COMPACT_NULL:   return new RMQNullMessage();
+        case COMPACT_OTHER:  return instantiateRmqMessage(in.readString(), trustedPackages);
+        default:             throw new StreamCorruptedException("Unknown message type " + type);
+        }
+    }
+
+    private static boolean isCompact(byte[] b) {
+        return b.length >= 3 && b[0] == COMPACT_MAGIC_0 && b[1] == COMPACT_MAGIC_1;
+    }
+
+    /**
+     * Deserializes a {@link RMQMessage} from a JMS generated byte array, in either format.
      * This method invokes the {@link #readBody(ObjectInput, ByteArrayInputStream)} method
      * on the deserialized class
      * @param b - the message bytes
@@ -1020,9 +1600,16 @@ public abstract class RMQMessage implements Message, Cloneable {
      * @throws RMQJMSException if RJMS class-related errors occur
      */
     static RMQMessage fromMessage(byte[] b, List<String> trustedPackages) throws RMQJMSException {
+        if (isCompact(b)) {
+            RMQMessage msg = fromCompactMessage(b, trustedPackages, null);
+            UndecodedBytes undecoded = msg.undecoded;
+            undecoded.decodeProperties(msg);
+            undecoded.decodeBody(msg);
+            return msg;
+        }
         /* If we don't recognise the message format this throws an exception */
         try {
-            ByteArrayInputStream bin = new ByteArrayInputStream(b);
+            ByteArrayInputStream bin = new RMQByteArrayInputStream(b);
             WhiteListObjectInputStream in = new WhiteListObjectInputStream(bin, trustedPackages);
             // read the class name from the stream
             String clazz = in.readUTF();
@@ -1031,20 +1618,8 @@ public abstract class RMQMessage implements Message, Cloneable {
 
             // read the message id
             msg.internalMessageID = in.readUTF();
-            // read JMS properties
-            int propsize = in.readInt();
-            for (int i = 0; i < propsize; i++) {
-                String name = in.readUTF();
-                Object value = readPrimitive(in);
-                msg.rmqProperties.put(name, (Serializable) value);
-            }
-            //read custom properties
-            propsize = in.readInt();
-            for (int i = 0; i < propsize; i++) {
-                String name = in.readUTF();
-                Object value = readPrimitive(in);
-                msg.userJmsProperties.put(name, (Serializable) value);
-            }
+            // read JMS and custom properties
+            msg.readProperties(in);
             // read the body of the message
             msg.readBody(in, bin);
             return msg;
@@ -1055,6 +1630,146 @@ public abstract class RMQMessage implements Message, Cloneable {
         }
     }
 
+    /**
+     * Creates a {@link RMQMessage} from a JMS generated byte array, decoding only its class and id.
+     * The properties are decoded on first access to a property or JMS header, and the body on first access to the body.
+     * Until then the message keeps the byte array, and forwarding the message copies the body from it.
+     * @param b - the message bytes
+     * @param trustedPackages prefixes of packages that are trusted to be safe to deserialize
+     * @return a RMQMessage object
+     * @throws RMQJMSException if RJMS class-related errors occur
+     * @see #fromMessage(byte[], List)
+     */
+    static RMQMessage fromMessageLazily(byte[] b, List<String> trustedPackages) throws RMQJMSException {
+        return fromMessageLazily(b, trustedPackages, null);
+    }
+
+    /**
+     * Creates a {@link RMQMessage} from a JMS generated byte array and the AMQP properties it was sent with, decoding
+     * only its class and id.
+     * @param b the message bytes
+     * @param trustedPackages prefixes of packages that are trusted to be safe to deserialize
+     * @param props the AMQP properties and headers of the message, which carry its properties if it was generated by
+     *              {@link #toByteArray(boolean, boolean)} with <code>propertiesInHeaders</code> set; may be <code>null</code>
+     * @return a message whose properties and body are decoded on first access
+     * @throws RMQJMSException if the class and id cannot be decoded
+     */
+    static RMQMessage fromMessageLazily(byte[] b, List<String> trustedPackages, BasicProperties props) throws RMQJMSException {
+        if (isCompact(b)) {
+            return fromCompactMessage(b, trustedPackages, props);
+        }
+        String[] classAndId = peekClassAndId(b);
+        if (classAndId == null) {
+            return fromMessage(b, trustedPackages);
+        }
+        RMQMessage msg = instantiateRmqMessage(classAndId[0], trustedPackages);
+        msg.internalMessageID = classAndId[1];
+        msg.undecoded = new UndecodedBytes(b, trustedPackages);
+        return msg;
+    }
+
+    /**
+     * Creates a {@link RMQMessage} from a byte array in the compact format, decoding only its type and id.
+     * @see #fromMessageLazily(byte[], List, BasicProperties)
+     */
+    private static RMQMessage fromCompactMessage(byte[] b, List<String> trustedPackages, BasicProperties props) throws RMQJMSException {
+        try {
+            ByteArrayInputStream bin = new ByteArrayInputStream(b);
+            CompactObjectInput in = new CompactObjectInput(bin, trustedPackages);
+            in.skipBytes(2);  // magic
+            int version = in.readUnsignedByte();
+            if (version != COMPACT_VERSION) {
+                throw new RMQJMSException(new StreamCorruptedException("Unsupported message format version " + version));
+            }
+            int type = in.readUnsignedByte();
+            RMQMessage msg = instantiateCompactType(type & ~COMPACT_PROPERTIES_IN_HEADERS, in, trustedPackages);
+            if ((type & COMPACT_PROPERTIES_IN_HEADERS) == 0) props = null;
+            msg.internalMessageID = in.readString();
+            int propertiesLength = in.readVarInt();
+            int propertiesOffset = b.length - bin.available();
+            if (propertiesLength < 0 || propertiesLength > b.length - propertiesOffset) {
+                throw new RMQJMSException(new EOFException("Message properties run past the end of the message"));
+            }
+            msg.undecoded = new UndecodedBytes(b, trustedPackages, propertiesOffset, propertiesOffset + propertiesLength, props);
+            return msg;
+        } catch (IOException x) {
+            throw new RMQJMSException(x);
+        }
+    }
+
+    /**
+     * Reads the JMS properties then the custom properties, as written by {@link #toByteArray()}. A JMS property already
+     * set on the message is kept: the only ones are set on receipt, after the message was sent.
+     */
+    private void readProperties(ObjectInput in) throws IOException, ClassNotFoundException {
+        int propsize = in.readInt();
+        for (int i = 0; i < propsize; i++) {
+            String name = in.readUTF();
+            Object value = readPrimitive(in);
+            this.readRmqProperty(name, value);
+        }
+        propsize = in.readInt();
+        for (int i = 0; i < propsize; i++) {
+            String name = in.readUTF();
+            Object value = readPrimitive(in);
+            this.putUserProperty(name, (Serializable) value);
+        }
+    }
+
+    /**
+     * Reads the class name and the internal id at the start of a message written by {@link #toByteArray()}, without
+     * building an object stream. They are the first two strings of the first block of data after the stream header.
+     * @param b - the message bytes
+     * @return the class name and the id, or <code>null</code> if they cannot be read this way
+     */
+    private static String[] peekClassAndId(byte[] b) {
+        if (b.length < 6
+         || getUnsignedShort(b, 0) != (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF)
+         || getUnsignedShort(b, 2) != ObjectStreamConstants.STREAM_VERSION)
+            return null;
+        int pos;
+        int blockEnd;
+        if (b[4] == ObjectStreamConstants.TC_BLOCKDATA) {
+            pos = 6;
+            blockEnd = pos + (b[5] & 0xFF);
+        } else if (b[4] == ObjectStreamConstants.TC_BLOCKDATALONG && b.length >= 9) {
+            pos = 9;
+            blockEnd = pos + ((getUnsignedShort(b, 5) << 16) | getUnsignedShort(b, 7));
+        } else {
+            return null;
+        }
+        if (blockEnd < pos || blockEnd > b.length)
+            return null;
+        String clazz = peekAsciiUTF(b, pos, blockEnd);
+        if (clazz == null)
+            return null;
+        String id = peekAsciiUTF(b, pos + 2 + clazz.length(), blockEnd);
+        if (id == null)
+            return null;
+        return new String[] { clazz, id };
+    }
+
+    /**
+     * @return the string written by {@link DataOutput#writeUTF(String)} at <code>pos</code>, or <code>null</code> if it
+     * runs past <code>end</code> or is not plain ASCII (in which case its length in bytes is not its length in chars)
+     */
+    private static String peekAsciiUTF(byte[] b, int pos, int end) {
+        if (pos + 2 > end)
+            return null;
+        int len = getUnsignedShort(b, pos);
+        int start = pos + 2;
+        if (start + len > end)
+            return null;
+        for (int i = start; i < start + len; i++) {
+            if (b[i] <= 0) return null;  // not ASCII, or a NUL, which modified UTF-8 writes on two bytes
+        }
+        return new String(b, start, len, ASCII);
+    }
+
+    private static int getUnsignedShort(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+    }
+
     private static RMQMessage instantiateRmqMessage(String messageClass, List<String> trustedPackages) throws RMQJMSException {
         if(isRmqObjectMessageClass(messageClass)) {
             return instantiateRmqObjectMessageWithTrustedPackages(trustedPackages);
@@ -1180,7 +1895,17 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     void generateInternalID() {
         this.internalMessageID = Util.generateUUID("");
-        this.rmqProperties.put(JMS_MESSAGE_ID, "ID:" + this.internalMessageID);
+        this.setHeader(HEADER_ID, "ID:" + this.internalMessageID);
+    }
+
+    /**
+     * Called when a message of a batch is sent, so that each message is unique without generating a UUID for each
+     * @param batchID unique ID generated once for the batch
+     * @param index position of this message in the batch
+     */
+    void generateInternalID(String batchID, int index) {
+        this.internalMessageID = batchID + '-' + index;
+        this.setHeader(HEADER_ID, "ID:" + this.internalMessageID);
     }
 
 	/**
@@ -1295,6 +2020,13 @@ public abstract class RMQMessage implements Message, Cloneable {
      */
     @Override
     public Object clone() throws CloneNotSupportedException {
+        try {
+            // the clone must not share the undecoded bytes
+            this.decodeProperties();
+            this.loadBody();
+        } catch (JMSException e) {
+            throw new java.lang.IllegalStateException("Cannot decode message to clone it", e);
+        }
         return super.clone();
     }
 
@@ -1332,7 +2064,7 @@ public abstract class RMQMessage implements Message, Cloneable {
                 else if (key.equals("JMSType"))         { this.setJMSType(val.toString());}
                 else if (key.startsWith(PREFIX))        {} // avoid setting this internal field
                 else if (key.startsWith("JMS"))         {} // avoid setting this field
-                else                                    { this.userJmsProperties.put(key, val.toString());}
+                else                                    { this.putUserProperty(key, val.toString());}
             }
         }
     }
@@ -1365,12 +2097,20 @@ public abstract class RMQMessage implements Message, Cloneable {
     }
 
     static RMQMessage normalise(Message msg) throws JMSException {
+        return normalise(msg, JavaObjectMessageSerializer.INSTANCE);
+    }
+
+    /**
+     * @param msg message to send
+     * @param serializer serializer for the object of an ObjectMessage that is not one of ours
+     */
+    static RMQMessage normalise(Message msg, ObjectMessageSerializer serializer) throws JMSException {
         if (msg instanceof RMQMessage) return (RMQMessage) msg;
 
         /* If not one of our own, copy it into an RMQMessage */
              if (msg instanceof BytesMessage )    return RMQBytesMessage.recreate((BytesMessage)msg);
         else if (msg instanceof MapMessage   )    return RMQMapMessage.recreate((MapMessage)msg);
-        else if (msg instanceof ObjectMessage)    return RMQObjectMessage.recreate((ObjectMessage) msg);
+        else if (msg instanceof ObjectMessage)    return RMQObjectMessage.recreate((ObjectMessage) msg, serializer);
         else if (msg instanceof StreamMessage)    return RMQStreamMessage.recreate((StreamMessage)msg);
         else if (msg instanceof TextMessage  )    return RMQTextMessage.recreate((TextMessage)msg);
         else                                      return RMQNullMessage.recreate(msg);
@@ -1405,4 +2145,121 @@ public abstract class RMQMessage implements Message, Cloneable {
             rmqMsg.setObjectProperty(name, msg.getObjectProperty(name));
         }
     }
+
+    /**
+     * The bytes of a received JMS message, with how far they have been decoded.
+     * <p>
+     * In the compact format the properties and the body are decoded independently. In the Java serialization format they
+     * are decoded from the same stream, so the properties are decoded first.
+     * </p>
+     */
+    private static final class UndecodedBytes {
+        private final byte[] bytes;
+        private final List<String> trustedPackages;
+        /** Whether the bytes are in the compact format */
+        private final boolean compact;
+        /** Offset of the properties in {@link #bytes}, in the compact format */
+        private final int propertiesOffset;
+        /** AMQP properties and headers carrying properties left out of {@link #bytes}, or <code>null</code> */
+        private final BasicProperties props;
+        /** Offset of the body in {@link #bytes}; in the serialization format, -1 until the properties are decoded */
+        private int bodyOffset;
+        /** In the serialization format, positioned at the start of the body once the properties are decoded */
+        private ObjectInput in = null;
+        private ByteArrayInputStream bin = null;
+        private boolean propertiesDecoded = false;
+        private boolean bodyDecoded = false;
+
+        /** Bytes in the serialization format */
+        UndecodedBytes(byte[] bytes, List<String> trustedPackages) {
+            this.bytes = bytes;
+            this.trustedPackages = trustedPackages;
+            this.compact = false;
+            this.propertiesOffset = -1;
+            this.bodyOffset = -1;
+            this.props = null;
+        }
+
+        /** Bytes in the compact format */
+        UndecodedBytes(byte[] bytes, List<String> trustedPackages, int propertiesOffset, int bodyOffset, BasicProperties props) {
+            this.bytes = bytes;
+            this.trustedPackages = trustedPackages;
+            this.compact = true;
+            this.propertiesOffset = propertiesOffset;
+            this.bodyOffset = bodyOffset;
+            this.props = props;
+        }
+
+        synchronized void decodeProperties(RMQMessage msg) throws RMQJMSException {
+            if (this.propertiesDecoded) return;
+            try {
+                if (this.compact) {
+                    ByteArrayInputStream bin = new ByteArrayInputStream(this.bytes, this.propertiesOffset, this.bodyOffset - this.propertiesOffset);
+                    msg.readCompactProperties(new CompactObjectInput(bin, this.trustedPackages));
+                    if (this.props != null) msg.readAmqpProperties(this.props);
+                } else {
+                    ByteArrayInputStream bin = new RMQByteArrayInputStream(this.bytes);
+                    ObjectInput in = new WhiteListObjectInputStream(bin, this.trustedPackages);
+                    in.readUTF();  // class name
+                    in.readUTF();  // message id
+                    msg.readProperties(in);
+                    // the properties end on a block boundary, so the stream has not read beyond them
+                    this.bodyOffset = this.bytes.length - bin.available();
+                    this.in = in;
+                    this.bin = bin;
+                }
+            } catch (IOException x) {
+                throw new RMQJMSException(x);
+            } catch (ClassNotFoundException x) {
+                throw new RMQJMSException(x);
+            }
+            this.propertiesDecoded = true;
+            this.release(msg);
+        }
+
+        synchronized void decodeBody(RMQMessage msg) throws RMQJMSException {
+            if (this.bodyDecoded) return;
+            try {
+                if (this.compact) {
+                    ByteArrayInputStream bin = new RMQByteArrayInputStream(this.bytes, this.bodyOffset, this.bytes.length - this.bodyOffset);
+                    msg.readBody(new CompactObjectInput(bin, this.trustedPackages), bin);
+                } else {
+                    this.decodeProperties(msg);
+                    msg.readBody(this.in, this.bin);
+                    this.in = null;
+                    this.bin = null;
+                }
+            } catch (IOException x) {
+                throw new RMQJMSException(x);
+            } catch (ClassNotFoundException x) {
+                throw new RMQJMSException(x);
+            }
+            this.bodyDecoded = true;
+            this.release(msg);
+        }
+
+        /** The body is being cleared, so it need never be decoded */
+        synchronized void discardBody(RMQMessage msg) {
+            this.bodyDecoded = true;
+            this.in = null;
+            this.bin = null;
+            this.release(msg);
+        }
+
+        /**
+         * Copies the body as received, if it is still undecoded (and so unchanged) and in the format being written.
+         * @return false if the body must be written by the message instead
+         */
+        synchronized boolean copyBody(RMQMessage msg, ByteArrayOutputStream bout, boolean compact) throws RMQJMSException {
+            if (this.bodyDecoded || compact != this.compact) return false;
+            this.decodeProperties(msg);  // which finds the body in the serialization format
+            bout.write(this.bytes, this.bodyOffset, this.bytes.length - this.bodyOffset);
+            return true;
+        }
+
+        /** Once everything is decoded the message no longer needs the bytes */
+        private void release(RMQMessage msg) {
+            if (this.propertiesDecoded && this.bodyDecoded) msg.undecoded = null;
+        }
+    }
 }
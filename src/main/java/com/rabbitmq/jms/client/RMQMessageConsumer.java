@@ -2,6 +2,9 @@
 package com.rabbitmq.jms.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -34,7 +37,8 @@ import com.rabbitmq.jms.util.Util;
 /**
  * The implementation of {@link MessageConsumer} in the RabbitMQ JMS Client.
  * <p>
- * Single message {@link #receive receive()}s are implemented by abortable polling in {@link DelayedReceiver}.
+ * Single message {@link #receive receive()}s are implemented by abortable polling in {@link DelayedReceiver}, or,
+ * if a receive prefetch is configured, from the buffered subscription of a {@link PrefetchingReceiver}.
  * </p>
  * <p>
  * {@link MessageListener#onMessage} calls are implemented with a more conventional {@link Consumer}.
@@ -71,6 +75,8 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
     private volatile boolean noLocal = false;
     /** For getting messages from {@link #receive} queues. */
     private final DelayedReceiver delayedReceiver;
+    /** For getting messages from {@link #receive} queues by subscription, <code>null</code> if {@link #delayedReceiver} polls instead. */
+    private final PrefetchingReceiver prefetchingReceiver;
     /** Record and preserve the need to acknowledge automatically */
     private final boolean autoAck;
 
@@ -92,8 +98,10 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
      *            unique name.
      * @param paused - true if the connection is {@link javax.jms.Connection#stop}ped, false otherwise.
      * @param requeueOnMessageListenerException true to requeue message on RuntimeException in listener, false otherwise
+     * @param receivePrefetch number of messages to buffer for {@link #receive}, 0 to poll instead
      */
-    RMQMessageConsumer(RMQSession session, RMQDestination destination, String uuidTag, boolean paused, String messageSelector, boolean requeueOnMessageListenerException) {
+    RMQMessageConsumer(RMQSession session, RMQDestination destination, String uuidTag, boolean paused, String messageSelector, boolean requeueOnMessageListenerException,
+                       int receivePrefetch) {
         this.session = session;
         this.destination = destination;
         this.uuidTag = uuidTag;
@@ -103,6 +111,15 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
             this.receiveManager.openGate();
         this.autoAck = session.isAutoAck();
         this.requeueOnMessageListenerException = requeueOnMessageListenerException;
+        /* buffered messages are only bounded by the prefetch limit if they are acknowledged on receipt */
+        if (receivePrefetch > 0 && this.autoAck && !session.getTransactedNoException()) {
+            this.prefetchingReceiver = new PrefetchingReceiver(this, session.getChannel(), receivePrefetch,
+                                                               session.getConnection().getChannelsQos(), paused,
+                                                               TimeUnit.MILLISECONDS.toNanos(session.getConnection().getTerminationTimeout()));
+            this.abortables.add(this.prefetchingReceiver);
+        } else {
+            this.prefetchingReceiver = null;
+        }
     }
 
     /**
@@ -177,6 +194,10 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
             throw new IllegalStateException("A MessageListener cannot be set if receive() is outstanding on a session. (See JMS 1.1 §4.4.6.)");
         }
         logger.trace("setting MessageListener({})", messageListener);
+        if (messageListener != null) {
+            // return messages buffered for receive() by any consumer of the session, which can no longer receive()
+            this.session.releaseReceiveBuffers();
+        }
         this.removeListenerConsumer();  // if there is any
         this.messageListener = messageListener;
         this.setNewListenerConsumer(messageListener); // if needed
@@ -246,6 +267,34 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
         return receive(timeout==0 ? new TimeTracker() : new TimeTracker(timeout, TimeUnit.MILLISECONDS));
     }
 
+    /**
+     * Receive up to <code>maxMessages</code> messages from the destination, waiting for up to <code>timeout</code>
+     * milliseconds for the first one if necessary.
+     * <p>
+     * Once a message is available, whatever else is buffered or immediately available on the queue is returned with it,
+     * up to the limit, without waiting further. The messages are received as a group: the consumer is entered and left
+     * once and, if the session acknowledges automatically, the group is acknowledged with a single
+     * <code>basic.ack</code> where possible.
+     * </p>
+     * <p>
+     * This is not part of the JMS API.
+     * </p>
+     *
+     * @param maxMessages - the maximum number of messages to return
+     * @param timeout - (in milliseconds) zero means wait forever
+     * @return the messages received, in order; empty if none were received in time or this consumer is closed
+     *         concurrently.
+     * @throws JMSException if the consumer is closed or closing, or <code>maxMessages</code> is not positive.
+     */
+    public List<Message> receive(int maxMessages, long timeout) throws JMSException {
+        if (this.closed || this.closing)
+            throw new IllegalStateException("Consumer is closed or closing.");
+        if (maxMessages <= 0)
+            throw new IllegalArgumentException("maxMessages must be positive");
+        logger.trace("receive(maxMessages={}, timeout={}ms)", maxMessages, timeout);
+        return receive(maxMessages, timeout==0 ? new TimeTracker() : new TimeTracker(timeout, TimeUnit.MILLISECONDS));
+    }
+
     /**
      * Returns true if messages should be automatically acknowledged upon arrival
      *
@@ -325,7 +374,8 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
                 return null; // timed out while stopped
             /* Try to receive a message, there's some time left! */
             try {
-                GetResponse resp = this.delayedReceiver.get(tt);
+                GetResponse resp = (this.prefetchingReceiver != null) ? this.prefetchingReceiver.get(tt)
+                                                                      : this.delayedReceiver.get(tt);
                 if (resp == null) return null; // nothing received in time or aborted
                 this.dealWithAcknowledgements(this.isAutoAck(), resp.getEnvelope().getDeliveryTag());
                 return RMQMessage.convertMessage(this.session, this.destination, resp);
@@ -344,9 +394,69 @@ public class RMQMessageConsumer implements MessageConsumer, QueueReceiver, Topic
         }
     }
 
+    private List<Message> receive(int maxMessages, TimeTracker tt) throws JMSException {
+        if (!this.session.syncAllowed()) {
+            throw new IllegalStateException("A session may not receive() when a MessageListener is set. (See JMS 1.1 §4.4.6.)");
+        }
+        this.numberOfReceives.incrementAndGet();
+        try {
+            if (!this.receiveManager.enter(tt))  // stopped?
+                return Collections.emptyList(); // timed out while stopped
+            try {
+                List<GetResponse> resps = (this.prefetchingReceiver != null) ? this.prefetchingReceiver.get(maxMessages, tt)
+                                                                             : this.delayedReceiver.get(maxMessages, tt);
+                if (resps.isEmpty()) return Collections.emptyList(); // nothing received in time or aborted
+                this.dealWithAcknowledgements(this.isAutoAck(), resps);
+                List<Message> messages = new ArrayList<Message>(resps.size());
+                for (GetResponse resp : resps) {
+                    messages.add(RMQMessage.convertMessage(this.session, this.destination, resp));
+                }
+                return messages;
+            } finally {
+                this.receiveManager.exit();
+            }
+        } catch (AbortedException e) {
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // reset interrupt status
+            return Collections.emptyList();
+        } finally {
+            this.numberOfReceives.decrementAndGet();
+        }
+    }
+
+    /**
+     * Acknowledges a group of messages received together, in delivery order. A single multiple <code>basic.ack</code>
+     * would also acknowledge any earlier deliveries on the channel, so it is only used when no other consumer of the
+     * session may be holding deliveries.
+     */
+    private void dealWithAcknowledgements(boolean ack, List<GetResponse> resps) {
+        if (ack && !this.session.otherConsumersHoldDeliveries(this)) {
+            this.session.autoAck(this, resps.get(resps.size() - 1).getEnvelope().getDeliveryTag(), true);
+        } else {
+            for (GetResponse resp : resps) {
+                this.dealWithAcknowledgements(ack, resp.getEnvelope().getDeliveryTag());
+            }
+        }
+    }
+
+    /**
+     * Gives up the subscription buffering messages for {@link #receive}, if any, and returns the buffered messages.
+     */
+    void releaseReceiveBuffer() {
+        if (this.prefetchingReceiver != null) this.prefetchingReceiver.release();
+    }
+
+    /**
+     * @return true if this consumer has deliveries buffered for {@link #receive}, which are not yet acknowledged
+     */
+    boolean holdsDeliveries() {
+        return this.prefetchingReceiver != null && this.prefetchingReceiver.holdsDeliveries();
+    }
+
     void dealWithAcknowledgements(boolean ack, long dtag) {
         if (ack) {
-            this.session.explicitAck(dtag);
+            this.session.autoAck(this, dtag, false);
         } else {
             this.session.unackedMessageReceived(dtag);
         }
@@ -2,6 +2,11 @@
 package com.rabbitmq.jms.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.Destination;
 import javax.jms.InvalidDestinationException;
@@ -20,7 +25,10 @@ import com.rabbitmq.client.AMQP;
 import com.rabbitmq.jms.admin.RMQDestination;
 import com.rabbitmq.jms.client.message.RMQBytesMessage;
 import com.rabbitmq.jms.client.message.RMQTextMessage;
+import com.rabbitmq.jms.util.AdaptiveByteArrayOutputStream;
 import com.rabbitmq.jms.util.RMQJMSException;
+import com.rabbitmq.jms.util.TimeTracker;
+import com.rabbitmq.jms.util.Util;
 
 import static com.rabbitmq.jms.client.RMQMessage.JMS_MESSAGE_DELIVERY_MODE;
 import static com.rabbitmq.jms.client.RMQMessage.JMS_MESSAGE_EXPIRATION;
@@ -69,6 +77,22 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
 
     private final SendingStrategy sendingStrategy;
 
+    /**
+     * The buffer messages are encoded in, reused from one send to the next.
+     */
+    private final AdaptiveByteArrayOutputStream encodeBuffer = new AdaptiveByteArrayOutputStream(RMQMessage.DEFAULT_MESSAGE_BODY_SIZE);
+
+    /**
+     * Called for messages the broker does not confirm, when the session is in publisher confirms mode.
+     */
+    private volatile PublishNackListener publishNackListener;
+
+    /**
+     * The most recently used publish properties template. Templates are immutable, so unsynchronised access at worst
+     * builds a template again.
+     */
+    private PropertiesTemplate propertiesTemplate;
+
     /**
      * Create a producer of messages.
      * @param session which this producer uses
@@ -174,6 +198,20 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
         return this.ttl;
     }
 
+    /**
+     * Set the listener called for messages sent by this producer which the broker does not confirm.
+     * Only used if the session is in publisher confirms mode.
+     * If no listener is set, the connection's {@link javax.jms.ExceptionListener} is notified instead.
+     * @param publishNackListener the listener, or <code>null</code> to remove it
+     */
+    public void setPublishNackListener(PublishNackListener publishNackListener) {
+        this.publishNackListener = publishNackListener;
+    }
+
+    public PublishNackListener getPublishNackListener() {
+        return this.publishNackListener;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -237,21 +275,143 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
         this.sendingStrategy.send(destination, message, deliveryMode, priority, timeToLive);
     }
 
-    private void internalSend(RMQDestination destination, Message message, int deliveryMode, int priority, long timeToLiveOrExpiration, MessageExpirationType messageExpirationType) throws JMSException {
-        logger.trace("send/publish message({}) to destination({}) with properties deliveryMode({}), priority({}), timeToLive({})", message, destination, deliveryMode, priority, timeToLiveOrExpiration);
+    /**
+     * Sends a message asynchronously to this producer's destination, using the default delivery mode,
+     * priority and time to live.
+     * @see #send(Destination, Message, int, int, long, CompletionListener)
+     */
+    public void send(Message message, CompletionListener completionListener) throws JMSException {
+        this.sendingStrategy.send(this.destination, message, checkCompletionListener(completionListener));
+    }
+
+    /**
+     * Sends a message asynchronously to this producer's destination.
+     * @see #send(Destination, Message, int, int, long, CompletionListener)
+     */
+    public void send(Message message, int deliveryMode, int priority, long timeToLive, CompletionListener completionListener) throws JMSException {
+        this.sendingStrategy.send(this.destination, message, deliveryMode, priority, timeToLive, checkCompletionListener(completionListener));
+    }
+
+    /**
+     * Sends a message asynchronously from an unidentified producer, using the default delivery mode,
+     * priority and time to live.
+     * @see #send(Destination, Message, int, int, long, CompletionListener)
+     */
+    public void send(Destination destination, Message message, CompletionListener completionListener) throws JMSException {
+        this.checkUnidentifiedMessageProducer(destination);
+        this.sendingStrategy.send(destination, message, checkCompletionListener(completionListener));
+    }
+
+    /**
+     * Sends a message asynchronously from an unidentified producer.
+     * <p>
+     * This returns as soon as the message has been handed to the channel. If the session is in publisher
+     * confirms mode the listener is called when the broker confirms or nacks the message, so a single thread can
+     * keep up to the publisher confirms window of messages in flight; this blocks only while that window is full.
+     * Without publisher confirms the listener is called once the message has been handed to the channel.
+     * </p>
+     * <p>
+     * The application must not modify the message until the listener has been called.
+     * </p>
+     * @param completionListener called when the send completes, must not be <code>null</code>
+     * @throws JMSException if the message cannot be sent; the listener is not called in that case
+     * @see com.rabbitmq.jms.admin.RMQConnectionFactory#setPublisherConfirmsWindowSize(int)
+     */
+    public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive, CompletionListener completionListener) throws JMSException {
+        this.checkUnidentifiedMessageProducer(destination);
+        this.sendingStrategy.send(destination, message, deliveryMode, priority, timeToLive, checkCompletionListener(completionListener));
+    }
+
+    private static CompletionListener checkCompletionListener(CompletionListener completionListener) {
+        if (completionListener == null)
+            throw new IllegalArgumentException("CompletionListener must not be null");
+        return completionListener;
+    }
+
+    /**
+     * Sends a list of messages to this producer's destination, using the default delivery mode,
+     * priority and time to live.
+     * @see #send(Destination, List)
+     */
+    public void send(List<? extends Message> messages) throws JMSException {
+        this.sendBatch(this.destination, messages);
+    }
+
+    /**
+     * Sends a list of messages from an unidentified producer, using the default delivery mode,
+     * priority and time to live.
+     * <p>
+     * All the messages are prepared and encoded before any is published, and they are then published back to back.
+     * If the session is in publisher confirms mode this waits once, until the broker has confirmed the whole batch,
+     * for at most the connection termination timeout. The messages of a batch are given the same timestamp.
+     * In a transacted session the batch is part of the current transaction, so one {@link javax.jms.Session#commit()}
+     * settles all of it.
+     * </p>
+     * @param messages the messages to send, in order
+     * @throws JMSException if a message cannot be sent, or is nacked or not confirmed in time by the broker
+     */
+    public void send(Destination destination, List<? extends Message> messages) throws JMSException {
+        this.checkUnidentifiedMessageProducer(destination);
+        this.sendBatch(destination, messages);
+    }
+
+    private void sendBatch(Destination destination, List<? extends Message> messages) throws JMSException {
+        RMQDestination rmqDestination = this.publishDestination((RMQDestination) destination);
+        logger.trace("send/publish {} messages to destination({})", messages.size(), rmqDestination);
+
+        /* The messages of a batch share their timestamp, and their ids are derived from one generated for the batch */
+        long currentTime = System.currentTimeMillis();
+        String batchID = Util.generateUUID("");
+        List<PreparedPublish> batch = new ArrayList<PreparedPublish>(messages.size());
+        for (Message message : messages) {
+            batch.add(this.sendingStrategy.prepare(rmqDestination, message, currentTime, batchID, batch.size()));
+        }
+
+        this.session.awaitTopologyDeclarations();
+        BatchCompletion batchCompletion = this.session.getPublisherConfirmsTracker() == null ? null : new BatchCompletion(batch.size());
+        for (PreparedPublish publish : batch) {
+            this.publish(publish, batchCompletion);
+        }
+        if (batchCompletion != null) {
+            batchCompletion.await(this.session.getConnection().getTerminationTimeout());
+        }
+    }
 
+    /**
+     * @return the destination to publish to, this producer's if none is supplied, declared if it is not already
+     */
+    private RMQDestination publishDestination(RMQDestination destination) throws JMSException {
         if (destination == null)
             destination = this.destination;
         if (destination == null)
             throw new InvalidDestinationException("No destination supplied, or implied.");
+        if (!destination.isAmqp())
+            this.session.declareDestinationIfNecessary(destination);
+        return destination;
+    }
+
+    private PreparedPublish preparePublish(RMQDestination destination, Message message, int deliveryMode, int priority, long timeToLiveOrExpiration, MessageExpirationType messageExpirationType) throws JMSException {
+        logger.trace("send/publish message({}) to destination({}) with properties deliveryMode({}), priority({}), timeToLive({})", message, destination, deliveryMode, priority, timeToLiveOrExpiration);
+        return this.prepareMessage(this.publishDestination(destination), message, deliveryMode, priority, timeToLiveOrExpiration, messageExpirationType,
+                                   System.currentTimeMillis(), null, 0);
+    }
+
+    /**
+     * Sets the JMS headers of a message and encodes it.
+     * @param destination the destination to publish to, already declared
+     * @param currentTime timestamp of the send
+     * @param batchID id generated for the batch the message is sent in, <code>null</code> if it is sent alone
+     * @param index position of the message in its batch
+     */
+    private PreparedPublish prepareMessage(RMQDestination destination, Message message, int deliveryMode, int priority, long timeToLiveOrExpiration, MessageExpirationType messageExpirationType,
+                                           long currentTime, String batchID, int index) throws JMSException {
         if (deliveryMode != javax.jms.DeliveryMode.PERSISTENT)
             deliveryMode = javax.jms.DeliveryMode.NON_PERSISTENT;
 
         /* Normalise message to internal form */
-        RMQMessage rmqMessage = RMQMessage.normalise(message);
+        RMQMessage rmqMessage = RMQMessage.normalise(message, this.session.getObjectMessageSerializer());
 
         /* Set known JMS message properties that need to be set during this call */
-        long currentTime = System.currentTimeMillis();
         long expiration;
         long ttl;
         if (messageExpirationType == MessageExpirationType.TTL) {
@@ -267,17 +427,20 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
         rmqMessage.setJMSExpiration(expiration);
         rmqMessage.setJMSDestination(destination);
         rmqMessage.setJMSTimestamp(currentTime);
-        rmqMessage.generateInternalID();
+        if (batchID == null)
+            rmqMessage.generateInternalID();
+        else
+            rmqMessage.generateInternalID(batchID, index);
 
-        /* Now send it */
+        /* Now encode it */
         if (destination.isAmqp()) {
-            sendAMQPMessage(destination, rmqMessage, deliveryMode, priority, ttl);
+            return prepareAMQPPublish(destination, rmqMessage, deliveryMode, priority, ttl);
         } else {
-            sendJMSMessage(destination, rmqMessage, deliveryMode, priority, ttl);
+            return prepareJMSPublish(destination, rmqMessage, deliveryMode, priority, ttl);
         }
     }
 
-    private void sendAMQPMessage(RMQDestination destination, RMQMessage msg, int deliveryMode, int priority, long timeToLive) throws JMSException {
+    private PreparedPublish prepareAMQPPublish(RMQDestination destination, RMQMessage msg, int deliveryMode, int priority, long timeToLive) throws JMSException {
         if (!destination.amqpWritable()) {
             this.logger.error("Cannot write to AMQP destination {}", destination);
             throw new RMQJMSException("Cannot write to AMQP destination", new UnsupportedOperationException("MessageProducer.send to undefined AMQP resource"));
@@ -285,16 +448,15 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
 
         if (msg instanceof RMQBytesMessage || msg instanceof RMQTextMessage) {
             try {
-                AMQP.BasicProperties.Builder bob = new AMQP.BasicProperties.Builder();
-                bob.contentType("application/octet-stream");
-                bob.deliveryMode(RMQMessage.rmqDeliveryMode(deliveryMode));
-                bob.priority(priority);
-                bob.expiration(rmqExpiration(timeToLive));
-                bob.headers(msg.toAmqpHeaders());
+                AMQP.BasicProperties props = this.propertiesTemplate(deliveryMode, priority, timeToLive).forMessage(msg, msg.toAmqpHeaders());
 
-                byte[] data = msg.toAmqpByteArray();
+                byte[] data;
+                synchronized (this.encodeBuffer) {
+                    this.encodeBuffer.reset();
+                    data = msg.toAmqpByteArray(this.encodeBuffer);
+                }
 
-                this.session.getChannel().basicPublish(destination.getAmqpExchangeName(), destination.getAmqpRoutingKey(), bob.build(), data);
+                return new PreparedPublish(msg, destination.getAmqpExchangeName(), destination.getAmqpRoutingKey(), props, data);
             } catch (IOException x) {
                 throw new RMQJMSException(x);
             }
@@ -304,25 +466,87 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
         }
     }
 
-    // protected for testing
-    protected void sendJMSMessage(RMQDestination destination, RMQMessage msg, int deliveryMode, int priority, long timeToLive) throws JMSException {
-        this.session.declareDestinationIfNecessary(destination);
+    private PreparedPublish prepareJMSPublish(RMQDestination destination, RMQMessage msg, int deliveryMode, int priority, long timeToLive) throws JMSException {
         try {
-            AMQP.BasicProperties.Builder bob = new AMQP.BasicProperties.Builder();
-            bob.contentType("application/octet-stream");
-            bob.deliveryMode(RMQMessage.rmqDeliveryMode(deliveryMode));
-            bob.priority(priority);
-            bob.expiration(rmqExpiration(timeToLive));
-            bob.headers(msg.toHeaders());
+            // only topics select on the headers, so messages to queues carry the JMS headers in the AMQP properties only
+            AMQP.BasicProperties props = this.propertiesTemplate(deliveryMode, priority, timeToLive).forMessage(msg, msg.toHeaders(!destination.isQueue()));
+
+            byte[] data;
+            synchronized (this.encodeBuffer) {
+                this.encodeBuffer.reset();
+                data = msg.toByteArray(this.session.isCompactMessageEncoding(), this.session.isPropertiesInHeadersOnly(), this.encodeBuffer);
+            }
+
+            return new PreparedPublish(msg, destination.getAmqpExchangeName(), destination.getAmqpRoutingKey(), props, data);
+        } catch (IOException x) {
+            throw new RMQJMSException(x);
+        }
+    }
 
-            byte[] data = msg.toByteArray();
+    /**
+     * Returns the publish properties template for these settings, reusing the last one built if they are unchanged.
+     * Only the most recent template is kept: a producer normally sends with one combination of settings, whereas
+     * messages carrying their own expiration give a different time to live on every send.
+     */
+    private PropertiesTemplate propertiesTemplate(int deliveryMode, int priority, long timeToLive) {
+        PropertiesTemplate template = this.propertiesTemplate;
+        if (template == null || !template.matches(deliveryMode, priority, timeToLive)) {
+            template = new PropertiesTemplate(deliveryMode, priority, timeToLive);
+            this.propertiesTemplate = template;
+        }
+        return template;
+    }
 
-            this.session.getChannel().basicPublish(destination.getAmqpExchangeName(), destination.getAmqpRoutingKey(), bob.build(), data);
+    /**
+     * Publish on the session channel, tracking the message for confirmation if the session is in publisher confirms mode.
+     */
+    // protected for testing
+    protected void basicPublish(PreparedPublish publish, CompletionListener completionListener) throws JMSException {
+        this.session.awaitTopologyDeclarations();
+        this.publish(publish, completionListener);
+    }
+
+    private void publish(PreparedPublish publish, CompletionListener completionListener) throws JMSException {
+        PublisherConfirmsTracker confirmsTracker = this.session.getPublisherConfirmsTracker();
+        try {
+            if (confirmsTracker == null) {
+                this.session.getChannel().basicPublish(publish.exchange, publish.routingKey, publish.props, publish.body);
+                if (completionListener != null) {
+                    try {
+                        completionListener.onCompletion(publish.message);
+                    } catch (RuntimeException e) {
+                        this.logger.error("Unexpected exception from CompletionListener.onCompletion", e);
+                    }
+                }
+            } else {
+                confirmsTracker.publish(this, publish.message, completionListener, publish.exchange, publish.routingKey, publish.props, publish.body);
+            }
         } catch (IOException x) {
             throw new RMQJMSException(x);
         }
     }
 
+    /**
+     * Called when a message sent by this producer is nacked by the broker, or was
+     * still unconfirmed when the channel closed.
+     * @param msg the message as sent
+     */
+    void publishNotConfirmed(RMQMessage msg) {
+        PublishNackListener listener = this.publishNackListener;
+        if (listener != null) {
+            listener.onNack(msg);
+        } else {
+            String messageID = null;
+            try {
+                messageID = msg.getJMSMessageID();
+            } catch (JMSException e) {
+                // ignore: only used for the exception message
+            }
+            this.session.getConnection().notifyExceptionListener(
+                new RMQJMSException(String.format("Message [%s] not confirmed by the broker", messageID), null));
+        }
+    }
+
     /** This is dictated by `erlang:send_after' on which rabbitmq depends to implement TTL:
      * <br/><code>-define(MAX_EXPIRY_TIMER, 4294967295)</code>.
      */
@@ -408,13 +632,40 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
     }
 
     /**
-     * Strategy interface for sending messages.
+     * Strategy for sending messages.
      */
-    private interface SendingStrategy {
+    private abstract class SendingStrategy {
 
-        void send(Destination destination, Message message) throws JMSException;
+        /**
+         * Sets the JMS headers of a message from the settings this strategy prefers, and encodes it.
+         * @see RMQMessageProducer#prepareMessage(RMQDestination, Message, int, int, long, MessageExpirationType, long, String, int)
+         */
+        abstract PreparedPublish prepare(RMQDestination destination, Message message, long currentTime, String batchID, int index) throws JMSException;
 
-        void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException;
+        PreparedPublish prepare(Destination destination, Message message) throws JMSException {
+            logger.trace("send/publish message({}) to destination({})", message, destination);
+            return prepare(publishDestination((RMQDestination) destination), message, System.currentTimeMillis(), null, 0);
+        }
+
+        PreparedPublish prepare(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+            return preparePublish((RMQDestination) destination, message, deliveryMode, priority, timeToLive, MessageExpirationType.TTL);
+        }
+
+        void send(Destination destination, Message message) throws JMSException {
+            basicPublish(prepare(destination, message), null);
+        }
+
+        void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+            basicPublish(prepare(destination, message, deliveryMode, priority, timeToLive), null);
+        }
+
+        void send(Destination destination, Message message, CompletionListener completionListener) throws JMSException {
+            basicPublish(prepare(destination, message), completionListener);
+        }
+
+        void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive, CompletionListener completionListener) throws JMSException {
+            basicPublish(prepare(destination, message, deliveryMode, priority, timeToLive), completionListener);
+        }
 
     }
 
@@ -422,16 +673,12 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
      * This implementation ignores message properties (delivery mode, priority, and expiration)
      * in favor of the message producer's properties.
      */
-    private class PreferMessageProducerPropertySendingStategy implements SendingStrategy {
-
-        @Override
-        public void send(Destination destination, Message message) throws JMSException {
-            internalSend((RMQDestination) destination, message, getDeliveryMode(), getPriority(), getTimeToLive(), MessageExpirationType.TTL);
-        }
+    private class PreferMessageProducerPropertySendingStategy extends SendingStrategy {
 
         @Override
-        public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
-            internalSend((RMQDestination) destination, message, deliveryMode, priority, timeToLive, MessageExpirationType.TTL);
+        PreparedPublish prepare(RMQDestination destination, Message message, long currentTime, String batchID, int index) throws JMSException {
+            return prepareMessage(destination, message, getDeliveryMode(), getPriority(), getTimeToLive(), MessageExpirationType.TTL,
+                                  currentTime, batchID, index);
         }
 
     }
@@ -440,22 +687,132 @@ public class RMQMessageProducer implements MessageProducer, QueueSender, TopicPu
      * This implementation uses message properties (delivery mode, priority, and expiration)
      * if they've been set up. It falls back to the message producer's properties.
      */
-    private class PreferMessagePropertySendingStrategy implements SendingStrategy {
+    private class PreferMessagePropertySendingStrategy extends SendingStrategy {
 
         @Override
-        public void send(Destination destination, Message message) throws JMSException {
-            internalSend((RMQDestination) destination, message,
+        PreparedPublish prepare(RMQDestination destination, Message message, long currentTime, String batchID, int index) throws JMSException {
+            return prepareMessage(destination, message,
                 message.propertyExists(JMS_MESSAGE_DELIVERY_MODE) ? message.getJMSDeliveryMode() : getDeliveryMode(),
                 message.propertyExists(JMS_MESSAGE_PRIORITY) ? message.getJMSPriority() : getPriority(),
                 message.propertyExists(JMS_MESSAGE_EXPIRATION) ? message.getJMSExpiration() : getTimeToLive(),
-                message.propertyExists(JMS_MESSAGE_EXPIRATION) ? MessageExpirationType.EXPIRATION : MessageExpirationType.TTL);
+                message.propertyExists(JMS_MESSAGE_EXPIRATION) ? MessageExpirationType.EXPIRATION : MessageExpirationType.TTL,
+                currentTime, batchID, index);
+        }
+
+    }
+
+    /**
+     * The message-independent publish properties for one combination of delivery mode, priority and time to live.
+     */
+    private static final class PropertiesTemplate {
+        private final int deliveryMode;
+        private final int priority;
+        private final long timeToLive;
+        private final Integer rmqDeliveryMode;
+        private final Integer rmqPriority;
+        private final String rmqExpiration;
+
+        PropertiesTemplate(int deliveryMode, int priority, long timeToLive) {
+            this.deliveryMode = deliveryMode;
+            this.priority = priority;
+            this.timeToLive = timeToLive;
+            this.rmqDeliveryMode = RMQMessage.rmqDeliveryMode(deliveryMode);
+            this.rmqPriority = priority;
+            this.rmqExpiration = rmqExpiration(timeToLive);
+        }
+
+        boolean matches(int deliveryMode, int priority, long timeToLive) {
+            return this.deliveryMode == deliveryMode && this.priority == priority && this.timeToLive == timeToLive;
+        }
+
+        /**
+         * @return properties from this template with the message headers merged in, and the JMS message id,
+         * correlation id, timestamp, type and reply-to queue in their AMQP properties, built without a
+         * {@link AMQP.BasicProperties.Builder}
+         */
+        AMQP.BasicProperties forMessage(RMQMessage msg, Map<String, Object> headers) throws JMSException {
+            long timestamp = msg.getJMSTimestamp();
+            return new AMQP.BasicProperties("application/octet-stream", null, headers, this.rmqDeliveryMode, this.rmqPriority,
+                                            msg.getJMSCorrelationID(), replyToQueue(msg.getJMSReplyTo()), this.rmqExpiration,
+                                            msg.getJMSMessageID(), timestamp == 0L ? null : new Date(timestamp),
+                                            msg.getJMSType(), null, null, null);
+        }
+
+        private static String replyToQueue(Destination replyTo) {
+            if (replyTo instanceof RMQDestination && ((RMQDestination) replyTo).isQueue()) {
+                return ((RMQDestination) replyTo).getAmqpQueueName();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An encoded message, ready to be published.
+     */
+    static final class PreparedPublish {
+        final RMQMessage message;
+        final String exchange;
+        final String routingKey;
+        final AMQP.BasicProperties props;
+        final byte[] body;
+
+        PreparedPublish(RMQMessage message, String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+            this.message = message;
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.props = props;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Collects the publisher confirms for a batch send, so that the sender waits once for all of them.
+     */
+    private static final class BatchCompletion implements CompletionListener {
+        private final int size;
+        private int settled = 0; // GuardedBy(this)
+        private int failed = 0; // GuardedBy(this)
+        private Exception firstFailure = null; // GuardedBy(this)
+
+        BatchCompletion(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public synchronized void onCompletion(Message message) {
+            this.settled++;
+            this.notifyAll();
         }
 
         @Override
-        public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
-            internalSend((RMQDestination) destination, message, deliveryMode, priority, timeToLive, MessageExpirationType.TTL);
+        public synchronized void onException(Message message, Exception exception) {
+            this.settled++;
+            if (this.failed++ == 0) this.firstFailure = exception;
+            this.notifyAll();
         }
 
+        /**
+         * @param timeoutMs how long to wait for the confirms of the batch
+         * @throws JMSException if a message is nacked, or not all are confirmed in time
+         */
+        synchronized void await(long timeoutMs) throws JMSException {
+            TimeTracker tt = new TimeTracker(timeoutMs, TimeUnit.MILLISECONDS);
+            try {
+                while (this.settled < this.size) {
+                    if (tt.timedOut()) {
+                        throw new RMQJMSException(String.format("%d of %d messages not confirmed by the broker within %d ms",
+                                                                this.size - this.settled, this.size, timeoutMs), null);
+                    }
+                    tt.timedWait(this);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RMQJMSException("Interrupted while waiting for publisher confirms", e);
+            }
+            if (this.failed > 0) {
+                throw new RMQJMSException(String.format("%d of %d messages not confirmed by the broker", this.failed, this.size), this.firstFailure);
+            }
+        }
     }
 
     private enum MessageExpirationType {
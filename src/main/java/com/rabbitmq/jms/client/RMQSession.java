@@ -10,8 +10,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.jms.BytesMessage;
@@ -47,6 +46,8 @@ import org.slf4j.LoggerFactory;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ShutdownSignalException;
 import com.rabbitmq.jms.admin.RMQDestination;
+import com.rabbitmq.jms.client.message.JavaObjectMessageSerializer;
+import com.rabbitmq.jms.client.message.ObjectMessageSerializer;
 import com.rabbitmq.jms.client.message.RMQBytesMessage;
 import com.rabbitmq.jms.client.message.RMQMapMessage;
 import com.rabbitmq.jms.client.message.RMQObjectMessage;
@@ -59,6 +60,7 @@ import com.rabbitmq.jms.parse.sql.SqlParser;
 import com.rabbitmq.jms.parse.sql.SqlTokenStream;
 import com.rabbitmq.jms.util.RMQJMSException;
 import com.rabbitmq.jms.util.RMQJMSSelectorException;
+import com.rabbitmq.jms.util.TimeTracker;
 import com.rabbitmq.jms.util.Util;
 /**
  * RabbitMQ implementation of JMS {@link Session}
@@ -94,8 +96,25 @@ public class RMQSession implements Session, QueueSession, TopicSession {
      */
     private boolean requeueOnMessageListenerException = false;
 
+    /** Whether producers send messages in the compact binary format */
+    private final boolean compactMessageEncoding;
+    /** Whether compact messages leave out the properties carried in the AMQP headers */
+    private final boolean propertiesInHeadersOnly;
+
     /** The main RabbitMQ channel we use under the hood */
     private final Channel channel;
+    /** Tracks unconfirmed publishes when the channel is in publisher confirms mode, <code>null</code> otherwise */
+    private final PublisherConfirmsTracker publisherConfirmsTracker;
+
+    /** Whether topology is declared with no-wait methods */
+    private final boolean declareTopologyNoWait;
+    /** Number of messages a consumer buffers for synchronous receive, 0 to poll */
+    private final int receivePrefetch;
+    /** No-wait declarations not yet checked by a barrier, <code>null</code> if there are none */
+    private volatile DeclaredTopology pendingTopology; // GuardedBy(topologyLock) for writes
+    private final Object topologyLock = new Object();
+    /** Built-in exchange passively declared as the barrier for no-wait declarations */
+    private static final String TOPOLOGY_BARRIER_EXCHANGE = "amq.direct";
     /** Set to true if close() has been called and completed */
     private volatile boolean closed = false;
     /** The message listener for this session. */
@@ -109,7 +128,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
     /** We keep an ordered set of the message tags (acknowledgement tags) for all messages received and unacknowledged.
      * Each message acknowledgement must ACK all (unacknowledged) messages received up to this point, and
      * we must never acknowledge a message more than once (nor acknowledge a message that doesn't exist). */
-    private final SortedSet<Long> unackedMessageTags = Collections.synchronizedSortedSet(new TreeSet<Long>());
+    private final DeliveryTagBitmap unackedMessageTags = new DeliveryTagBitmap(); // GuardedBy(unackedMessageTags)
 
     /** List of all our durable subscriptions so we can track them */
     private final Map<String, RMQMessageConsumer> subscriptions;
@@ -158,6 +177,12 @@ public class RMQSession implements Session, QueueSession, TopicSession {
     private static final String JMS_TOPIC_SELECTOR_EXCHANGE_TYPE = "x-jms-topic";
 
     private final DeliveryExecutor deliveryExecutor;
+    /** Parallel delivery to message listeners, <code>null</code> if they are called one at a time */
+    private final DeliveryLanes deliveryLanes;
+    /** Coalesces automatic acknowledgements, <code>null</code> if each message is acknowledged on its own */
+    private final AckAccumulator ackAccumulator;
+    /** Coalesces individual acknowledgements, <code>null</code> if each message is acknowledged on its own */
+    private final IndividualAcknowledger individualAcknowledger;
 
     /** The channels we use for browsing queues (there may be more than one in operation at a time) */
     private Set<Channel> browsingChannels = new HashSet<Channel>(); // @GuardedBy(bcLock)
@@ -170,6 +195,13 @@ public class RMQSession implements Session, QueueSession, TopicSession {
      */
     private List<String> trustedPackages = WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES;
 
+    /**
+     * Serializes the objects of ObjectMessages.
+     *
+     * @see ObjectMessageSerializer
+     */
+    private ObjectMessageSerializer objectMessageSerializer = JavaObjectMessageSerializer.INSTANCE;
+
     /**
      * Creates a session object associated with a connection
      * @param sessionParams parameters for this session
@@ -182,9 +214,13 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         this.connection = sessionParams.getConnection();
         this.transacted = sessionParams.isTransacted();
         this.subscriptions = sessionParams.getSubscriptions();
-        this.deliveryExecutor = new DeliveryExecutor(sessionParams.getOnMessageTimeoutMs());
+        this.deliveryExecutor = new DeliveryExecutor(sessionParams.getOnMessageTimeoutMs(), sessionParams.willDeliverOnMessageInline());
         this.preferProducerMessageProperty = sessionParams.willPreferProducerMessageProperty();
         this.requeueOnMessageListenerException = sessionParams.willRequeueOnMessageListenerException();
+        this.compactMessageEncoding = sessionParams.willUseCompactMessageEncoding();
+        this.propertiesInHeadersOnly = sessionParams.willPutPropertiesInHeadersOnly();
+        this.declareTopologyNoWait = sessionParams.willDeclareTopologyNoWait();
+        this.receivePrefetch = sessionParams.getReceivePrefetch();
 
         if (transacted) {
             this.acknowledgeMode = Session.SESSION_TRANSACTED;
@@ -196,13 +232,42 @@ public class RMQSession implements Session, QueueSession, TopicSession {
             this.acknowledgeMode = sessionParams.getMode();
             this.isIndividualAck = false;
         }
+        // Message.acknowledge() in a CLIENT_ACKNOWLEDGE session acknowledges every earlier message, which could still be
+        // being processed on another lane, so lanes are only used where messages are acknowledged one at a time
+        this.deliveryLanes = (sessionParams.getOnMessageLanes() > 1 && !this.transacted
+                              && (this.acknowledgeMode != Session.CLIENT_ACKNOWLEDGE || this.isIndividualAck))
+            ? new DeliveryLanes(sessionParams.getOnMessageLanes(), sessionParams.getOnMessageGroupProperty(), sessionParams.getOnMessageTimeoutMs())
+            : null;
+        int ackBatchSize = AckAccumulator.batchSizeBelowPrefetch(sessionParams.getAckBatchSize(), this.connection.getChannelsQos(), this.receivePrefetch);
+        this.ackAccumulator = (ackBatchSize > 1
+                               && (this.acknowledgeMode == Session.AUTO_ACKNOWLEDGE || this.acknowledgeMode == Session.DUPS_OK_ACKNOWLEDGE))
+            ? new AckAccumulator(this, ackBatchSize, sessionParams.getAckBatchTimeoutMs())
+            : null;
         try {
             this.channel = connection.createRabbitChannel(transacted);
+            this.publisherConfirmsTracker = createPublisherConfirmsTracker(this.channel, transacted, sessionParams.getPublisherConfirmsWindowSize());
+            this.individualAcknowledger = (this.isIndividualAck && sessionParams.getIndividualAckDelayMs() > 0)
+                ? new IndividualAcknowledger(this.channel, sessionParams.getIndividualAckDelayMs())
+                : null;
         } catch (Exception x) { // includes unchecked exceptions, e.g. ShutdownSignalException
             throw new RMQJMSException(x);
         }
     }
 
+    /**
+     * Puts the channel in publisher confirms mode if enabled. Transacted channels cannot use confirms,
+     * and their publishes are settled by commit instead.
+     * @return the tracker for unconfirmed publishes, or <code>null</code> if confirms are not used
+     */
+    private static PublisherConfirmsTracker createPublisherConfirmsTracker(Channel channel, boolean transacted, int windowSize) throws IOException {
+        if (transacted || windowSize <= 0) return null;
+        channel.confirmSelect();
+        PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, windowSize);
+        channel.addConfirmListener(tracker);
+        channel.addShutdownListener(tracker);
+        return tracker;
+    }
+
     /**
      * Creates a session object associated with a connection
      * @param connection the connection that we will send data on
@@ -259,7 +324,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
     @Override
     public ObjectMessage createObjectMessage() throws JMSException {
         illegalStateExceptionIfClosed();
-        return new RMQObjectMessage();
+        return new RMQObjectMessage(this.trustedPackages, this.objectMessageSerializer);
     }
 
     /**
@@ -279,7 +344,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
     @Override
     public StreamMessage createStreamMessage() throws JMSException {
         illegalStateExceptionIfClosed();
-        return new RMQStreamMessage();
+        return new RMQStreamMessage(this.compactMessageEncoding);
     }
 
     /**
@@ -316,7 +381,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
      * but does not declare a JMSException in the throw clause
      * @return true if this session is transacted
      */
-    private boolean getTransactedNoException() {
+    boolean getTransactedNoException() {
         return this.transacted;
     }
 
@@ -338,6 +403,14 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         this.trustedPackages = trustedPackages;
     }
 
+    public ObjectMessageSerializer getObjectMessageSerializer() {
+        return objectMessageSerializer;
+    }
+
+    public void setObjectMessageSerializer(ObjectMessageSerializer objectMessageSerializer) {
+        this.objectMessageSerializer = objectMessageSerializer;
+    }
+
     /**
      * Same as {@link RMQSession#getAcknowledgeMode()} but without
      * a declared exception in the throws clause.
@@ -418,9 +491,17 @@ public class RMQSession implements Session, QueueSession, TopicSession {
     }
 
     void explicitAck(long deliveryTag) {
+        this.explicitAck(deliveryTag, false);
+    }
+
+    /**
+     * @param deliveryTag the tag of the message to acknowledge
+     * @param multiple true to also acknowledge all earlier unacknowledged deliveries on the channel
+     */
+    void explicitAck(long deliveryTag, boolean multiple) {
         if (this.enterCommittingBlock()) {
             try {
-                this.channel.basicAck(deliveryTag, false);
+                this.channel.basicAck(deliveryTag, multiple);
             } catch (Exception x) {
                 // this is problematic, we have received a message, but we can't ACK it to the server
                 this.logger.error("Cannot acknowledge message received (dTag={})", deliveryTag, x);
@@ -432,6 +513,37 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         }
     }
 
+    /**
+     * Acknowledges a message received in a session which acknowledges automatically, or, if acknowledgements are
+     * coalesced, records it to be acknowledged with others.
+     * @param consumer the consumer which received the message
+     * @param deliveryTag the delivery tag of the message
+     * @param multiple true if all earlier deliveries on the channel are known to be due for acknowledgement too
+     */
+    void autoAck(RMQMessageConsumer consumer, long deliveryTag, boolean multiple) {
+        AckAccumulator accumulator = this.ackAccumulator;
+        if (accumulator != null && (multiple || !this.otherConsumersHoldDeliveries(consumer))) {
+            accumulator.ack(deliveryTag);
+        } else {
+            this.flushAcks();
+            this.explicitAck(deliveryTag, multiple);
+        }
+    }
+
+    /**
+     * Sends any acknowledgements held back to be coalesced.
+     */
+    void flushAcks() {
+        if (this.ackAccumulator != null) this.ackAccumulator.flush();
+        if (this.individualAcknowledger != null) {
+            try {
+                this.individualAcknowledger.flush();
+            } catch (Exception x) { // includes unchecked exceptions, e.g. ShutdownSignalException
+                this.logger.error("Cannot acknowledge messages held back on session {}", this, x);
+            }
+        }
+    }
+
     void explicitNack(long deliveryTag) {
         if (this.enterCommittingBlock()) {
             try {
@@ -462,6 +574,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
             try {
                 // close consumers first (to prevent requeues being consumed)
                 closeAllConsumers();
+                this.flushAcks();
 
                 // rollback anything not committed already
                 if (this.getTransactedNoException()) {
@@ -470,6 +583,9 @@ public class RMQSession implements Session, QueueSession, TopicSession {
 
                 //clear up potential executor
                 this.deliveryExecutor.close();
+                if (this.deliveryLanes != null) {
+                    this.deliveryLanes.close(new TimeTracker(this.getConnection().getTerminationTimeout(), TimeUnit.MILLISECONDS));
+                }
 
                 //close all producers created by this session
                 for (RMQMessageProducer producer : this.producers) {
@@ -482,6 +598,8 @@ public class RMQSession implements Session, QueueSession, TopicSession {
                     this.commit();
                 }
 
+                this.waitForPublisherConfirmsOnClose();
+
                 this.closeRabbitChannels();
 
             } finally {
@@ -506,6 +624,28 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         this.deliveryExecutor.deliverMessageWithProtection(rmqMessage, messageListener);
     }
 
+    /**
+     * @return the lanes delivering to message listeners in parallel, or <code>null</code> if they are called one at a time
+     */
+    DeliveryLanes getDeliveryLanes() {
+        return this.deliveryLanes;
+    }
+
+    /**
+     * Gives outstanding publisher confirms up to the connection termination timeout to arrive.
+     * Messages still unconfirmed after that are reported to their producers when the channel closes.
+     */
+    private void waitForPublisherConfirmsOnClose() {
+        if (this.publisherConfirmsTracker == null) return;
+        try {
+            if (!this.publisherConfirmsTracker.waitForConfirms(new TimeTracker(this.getConnection().getTerminationTimeout(), TimeUnit.MILLISECONDS))) {
+                this.logger.warn("Timed out waiting for {} publisher confirm(s) on session {}", this.publisherConfirmsTracker.outstandingCount(), this);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void closeRabbitChannels() throws JMSException {
         this.clearBrowsingChannels(); // does not throw exception
         if (this.channel == null)
@@ -540,6 +680,16 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         if (getTransactedNoException()) {
             throw new javax.jms.IllegalStateException("Session is transacted.");
         } else {
+            if (this.individualAcknowledger != null) {
+                try {
+                    if (this.individualAcknowledger.recover()) this.channel.basicRecover(true); // requeue
+                } catch (IOException x) {
+                    logger.warn("basicRecover on channel({}) failed", this.channel, x);
+                    throw new RMQJMSException(x);
+                }
+                return;
+            }
+            this.flushAcks();
             synchronized (this.unackedMessageTags) {
                 /* If we have messages to recover */
                 if (!this.unackedMessageTags.isEmpty()) {
@@ -626,6 +776,20 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         }
         return true;
     }
+    /** Returns the messages buffered for synchronous receives by the consumers of this session */
+    void releaseReceiveBuffers() {
+        for (RMQMessageConsumer mc : consumers) {
+            mc.releaseReceiveBuffer();
+        }
+    }
+
+    /** Whether any consumer other than the one given holds unacknowledged deliveries for synchronous receives */
+    boolean otherConsumersHoldDeliveries(RMQMessageConsumer consumer) {
+        for (RMQMessageConsumer mc : consumers) {
+            if (mc != consumer && mc.holdsDeliveries()) return true;
+        }
+        return false;
+    }
     boolean aSyncAllowed() {
         // Return (Number of receives is zero for all MessageConsumers.)
         for (RMQMessageConsumer mc : consumers) {
@@ -658,7 +822,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
                 this.declareRMQQueue(dest, queueName, durableSubscriber);
                 if (nullOrEmpty(jmsSelector)) {
                     // bind the queue to the exchange with the correct routing key
-                    this.channel.queueBind(queueName, dest.getAmqpExchangeName(), dest.getAmqpRoutingKey());
+                    this.bindQueue(queueName, dest.getAmqpExchangeName(), dest.getAmqpRoutingKey(), false);
                 } else {
                     // get this session's topic selector exchange (name)
                     String selectionExchange = this.getSelectionExchange(durableSubscriber);
@@ -671,7 +835,9 @@ public class RMQSession implements Session, QueueSession, TopicSession {
                 throw new RMQJMSException("RabbitMQ Exception creating Consumer", x);
             }
         }
-        RMQMessageConsumer consumer = new RMQMessageConsumer(this, dest, consumerTag, getConnection().isStopped(), jmsSelector, this.requeueOnMessageListenerException);
+        // a no-wait declaration that failed must fail this call, not leave a consumer on a closed channel
+        this.awaitTopologyDeclarations();
+        RMQMessageConsumer consumer = new RMQMessageConsumer(this, dest, consumerTag, getConnection().isStopped(), jmsSelector, this.requeueOnMessageListenerException, this.receivePrefetch);
         this.consumers.add(consumer);
         return consumer;
     }
@@ -789,31 +955,37 @@ public class RMQSession implements Session, QueueSession, TopicSession {
 
         Map<String,Object> options = null; //new HashMap<String,Object>();
 
+        /* Exclusive queues go when their consumer or connection does, so only shared queues are recorded */
+        boolean recordQueue = !exclusive;
+
         if (dest.isQueue()) {
             if (dest.noNeedToDeclareExchange()) {
                 logger.warn("no need to declare built-in exchange for queue destination '{}'", dest);
             }
+            else if (this.isExchangeDeclared(exchangeName, exchangeType, durable)) {
+                logger.trace("RabbitMQ exchange for queue destination '{}' already declared on this connection", dest);
+            }
             else {
                 logger.trace("declare RabbitMQ exchange for queue destinations '{}'", dest);
                 try {
-                    this.channel.exchangeDeclare(exchangeName, exchangeType, durable,
-                                                 false, // autoDelete
-                                                 false, // internal
-                                                 null); // object properties
+                    this.declareExchange(exchangeName, exchangeType, durable);
                 } catch (Exception x) {
                     throw new RMQJMSException(x);
                 }
             }
         }
 
+        if (recordQueue && this.isQueueDeclared(queueName, durable)
+                        && this.isBindingDeclared(queueName, exchangeName, queueName)) {
+            logger.trace("RabbitMQ queue({}) and binding already declared on this connection", queueName);
+            dest.setDeclared(true);
+            return;
+        }
+
         try { /* Declare the queue to RabbitMQ -- this creates it if it doesn't already exist */
             this.logger.debug("declare RabbitMQ queue name({}), durable({}), exclusive({}), auto-delete({}), properties({})",
                               queueName, durable, exclusive, false, options);
-            this.channel.queueDeclare(queueName,
-                                      durable,
-                                      exclusive,
-                                      false,    // autoDelete - exclusive takes care of this
-                                      options); // object properties
+            this.declareQueue(queueName, durable, exclusive, options, recordQueue);
 
             /* Temporary or 'topic queues' are exclusive and therefore get deleted by RabbitMQ on close */
         } catch (Exception x) {
@@ -825,9 +997,9 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         try { /* Bind the queue to our exchange -- this allows publications to succeed. */
             this.logger.debug("bind queue name({}), to exchange({}), with r-key({}), no arguments",
                               queueName, exchangeName, queueName);
-            this.channel.queueBind(queueName, exchangeName,
-                                   queueName, // routing key
-                                   null); // arguments
+            this.bindQueue(queueName, exchangeName,
+                           queueName, // routing key
+                           recordQueue);
         } catch (Exception x) {
             this.logger.error("RabbitMQ exception on queue declare name({}), durable({}), exclusive({}), auto-delete({}), properties({})",
                               queueName, durable, exclusive, false, options, x);
@@ -857,22 +1029,19 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         if (dest.noNeedToDeclareExchange()) {
             logger.warn("no need to declare built-in exchange for topic destination '{}'", dest);
         }
+        else if (this.isExchangeDeclared(dest.getAmqpExchangeName(), dest.amqpExchangeType(), !dest.isTemporary())) {
+            logger.trace("RabbitMQ exchange for topic destination '{}' already declared on this connection", dest);
+        }
         else {
             logger.trace("declare RabbitMQ exchange for topic destination '{}'", dest);
             try {
-                this.channel.exchangeDeclare(/* the name of the exchange */
-                                             dest.getAmqpExchangeName(),
-                                             /* the type of exchange to use */
-                                             dest.amqpExchangeType(),
-                                             /* durable for all except temporary topics */
-                                             !dest.isTemporary(),
-                                             // TODO: how do we delete exchanges used for temporary topics
-                                             /* auto delete is always false */
-                                             false,
-                                             /* internal is false: JMS clients will want to publish directly to the exchange */
-                                             false,
-                                             /* object parameters */
-                                             null);
+                this.declareExchange(/* the name of the exchange */
+                                     dest.getAmqpExchangeName(),
+                                     /* the type of exchange to use */
+                                     dest.amqpExchangeType(),
+                                     /* durable for all except temporary topics */
+                                     !dest.isTemporary());
+                                     // TODO: how do we delete exchanges used for temporary topics
             } catch (IOException x) {
                 throw new RMQJMSException(x);
             }
@@ -880,6 +1049,99 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         dest.setDeclared(true);
     }
 
+    /**
+     * Declares an exchange (not auto-delete, not internal, no arguments) and records it for the connection.
+     */
+    private void declareExchange(String name, String type, boolean durable) throws IOException {
+        if (this.declareTopologyNoWait) {
+            this.channel.exchangeDeclareNoWait(name, type, durable, false, false, null);
+            this.pendingTopology().exchangeDeclared(name, type, durable);
+        } else {
+            this.channel.exchangeDeclare(name, type, durable, false, false, null);
+            this.getConnection().getDeclaredTopology().exchangeDeclared(name, type, durable);
+        }
+    }
+
+    /**
+     * Declares a queue (not auto-delete) and, if <code>record</code> is set, records it for the connection.
+     */
+    private void declareQueue(String name, boolean durable, boolean exclusive, Map<String, Object> arguments, boolean record) throws IOException {
+        if (this.declareTopologyNoWait) {
+            this.channel.queueDeclareNoWait(name, durable, exclusive, false, arguments);
+            DeclaredTopology pending = this.pendingTopology();
+            if (record) pending.queueDeclared(name, durable);
+        } else {
+            this.channel.queueDeclare(name, durable, exclusive, false, arguments);
+            if (record) this.getConnection().getDeclaredTopology().queueDeclared(name, durable);
+        }
+    }
+
+    /**
+     * Binds a queue to an exchange (no arguments) and, if <code>record</code> is set, records the binding for the connection.
+     */
+    private void bindQueue(String queue, String exchange, String routingKey, boolean record) throws IOException {
+        if (this.declareTopologyNoWait) {
+            this.channel.queueBindNoWait(queue, exchange, routingKey, null);
+            DeclaredTopology pending = this.pendingTopology();
+            if (record) pending.bindingDeclared(queue, exchange, routingKey);
+        } else {
+            this.channel.queueBind(queue, exchange, routingKey, null);
+            if (record) this.getConnection().getDeclaredTopology().bindingDeclared(queue, exchange, routingKey);
+        }
+    }
+
+    private boolean isExchangeDeclared(String name, String type, boolean durable) {
+        DeclaredTopology pending = this.pendingTopology;
+        return this.getConnection().getDeclaredTopology().isExchangeDeclared(name, type, durable)
+            || (pending != null && pending.isExchangeDeclared(name, type, durable));
+    }
+
+    private boolean isQueueDeclared(String name, boolean durable) {
+        DeclaredTopology pending = this.pendingTopology;
+        return this.getConnection().getDeclaredTopology().isQueueDeclared(name, durable)
+            || (pending != null && pending.isQueueDeclared(name, durable));
+    }
+
+    private boolean isBindingDeclared(String queue, String exchange, String routingKey) {
+        DeclaredTopology pending = this.pendingTopology;
+        return this.getConnection().getDeclaredTopology().isBindingDeclared(queue, exchange, routingKey)
+            || (pending != null && pending.isBindingDeclared(queue, exchange, routingKey));
+    }
+
+    /**
+     * No-wait declarations are recorded here, and only shared with the rest of the connection after
+     * {@link #awaitTopologyDeclarations()} has checked them: until then other channels might not see them.
+     * Declarations which are not recorded still create it, so that they are checked too.
+     */
+    private DeclaredTopology pendingTopology() {
+        synchronized (this.topologyLock) {
+            if (this.pendingTopology == null) this.pendingTopology = new DeclaredTopology();
+            return this.pendingTopology;
+        }
+    }
+
+    /**
+     * Checks that all no-wait declarations made on this session's channel have succeeded, with a single
+     * synchronous round trip. The broker handles a channel's commands in order, so a failed declaration
+     * has closed the channel by the time the barrier is processed.
+     * @throws JMSException if a declaration failed
+     */
+    void awaitTopologyDeclarations() throws JMSException {
+        if (this.pendingTopology == null) return;
+        synchronized (this.topologyLock) {
+            DeclaredTopology pending = this.pendingTopology;
+            if (pending == null) return;
+            this.pendingTopology = null;
+            try {
+                this.channel.exchangeDeclarePassive(TOPOLOGY_BARRIER_EXCHANGE);
+            } catch (Exception x) { // includes unchecked exceptions, e.g. ShutdownSignalException
+                this.logger.error("RabbitMQ exception on no-wait topology declaration for session {}", this, x);
+                throw new RMQJMSException("Topology declaration failed", x);
+            }
+            this.getConnection().getDeclaredTopology().addAll(pending);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1026,6 +1288,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
             if (name != null && this.subscriptions.remove(name) != null) {
                 // remove the queue
                 this.channel.queueDelete(name);
+                this.getConnection().getDeclaredTopology().queueDeleted(name);
             } else {
                 logger.warn("Cannot unsubscribe subscription named '{}'", name);
             }
@@ -1110,6 +1373,13 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         return this.channel;
     }
 
+    /**
+     * @return the publisher confirms tracker, or <code>null</code> if this session does not use publisher confirms
+     */
+    PublisherConfirmsTracker getPublisherConfirmsTracker() {
+        return this.publisherConfirmsTracker;
+    }
+
     void consumerClose(RMQMessageConsumer consumer) throws JMSException {
         if (this.consumers.remove(consumer)) {
             //TODO: if (consumer.isDurable()) { don't cancel it? cancel it? -- decide }
@@ -1127,6 +1397,14 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         return (getAcknowledgeModeNoException()!=Session.CLIENT_ACKNOWLEDGE);  // only case when auto ack not required
     }
 
+    boolean isCompactMessageEncoding() {
+        return this.compactMessageEncoding;
+    }
+
+    boolean isPropertiesInHeadersOnly() {
+        return this.propertiesInHeadersOnly;
+    }
+
     /**
      * Stops all consumers from receiving messages. This is called by the
      * session indirectly after {@link javax.jms.Connection#stop()} has been
@@ -1144,6 +1422,18 @@ public class RMQSession implements Session, QueueSession, TopicSession {
                 throw new RMQJMSException(x);
             }
         }
+        if (this.deliveryLanes != null) {
+            try {
+                // messages already dispatched to the lanes are processed before stop() returns
+                if (!this.deliveryLanes.awaitIdle(new TimeTracker(this.getConnection().getTerminationTimeout(), TimeUnit.MILLISECONDS))) {
+                    logger.warn("Timed out waiting for message listeners to complete on session {}", this);
+                }
+            } catch (InterruptedException x) {
+                logger.error("Session({}) pause interrupted", this, x);
+                throw new RMQJMSException(x);
+            }
+        }
+        this.flushAcks();
     }
 
     /**
@@ -1153,6 +1443,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
      * @throws javax.jms.JMSException if the thread is interrupted
      */
     void resume() throws JMSException {
+        this.awaitTopologyDeclarations();
         for (RMQMessageConsumer consumer : this.consumers) {
             try {
                 consumer.resume();
@@ -1163,13 +1454,32 @@ public class RMQSession implements Session, QueueSession, TopicSession {
     }
 
     void unackedMessageReceived(long dTag) {
-        if (!getTransactedNoException()) {
+        if (this.individualAcknowledger != null) {
+            this.individualAcknowledger.received(dTag);
+        } else if (!getTransactedNoException()) {
             synchronized (this.unackedMessageTags) {
                 this.unackedMessageTags.add(dTag);
             }
         }
     }
 
+    /**
+     * Stops tracking a message registered by {@link #unackedMessageReceived}, before it is rejected.
+     */
+    void unackedMessageRejected(long dTag) {
+        if (this.individualAcknowledger != null) {
+            try {
+                this.individualAcknowledger.forget(dTag);
+            } catch (Exception x) { // includes unchecked exceptions, e.g. ShutdownSignalException
+                this.logger.error("Cannot acknowledge messages held back on session {}", this, x);
+            }
+        } else {
+            synchronized (this.unackedMessageTags) {
+                this.unackedMessageTags.remove(dTag);
+            }
+        }
+    }
+
     /**
      * Acknowledges messages in this session.
      * Invoked when the method {@link javax.jms.Message#acknowledge()} is called.
@@ -1179,8 +1489,17 @@ public class RMQSession implements Session, QueueSession, TopicSession {
         illegalStateExceptionIfClosed();
 
         boolean individualAck = this.getIndividualAck();
+        if (individualAck && this.individualAcknowledger != null) {
+            try {
+                this.individualAcknowledger.acknowledge(message.getRabbitDeliveryTag());
+            } catch (IOException x) {
+                this.logger.error("RabbitMQ exception on basicAck of message {}; on session '{}'", message, this, x);
+                throw new RMQJMSException(x);
+            }
+            return;
+        }
         boolean groupAck      = true;  // This assumption is new in RJMS 1.2.0 and is consistent with other implementations. It allows a form of group acknowledge.
-        if (!isAutoAck() && !this.unackedMessageTags.isEmpty()) {
+        if (!isAutoAck()) {
             /**
              * Per JMS specification of {@link Message#acknowledge()}, <i>if we ack the last message in a group, we will ack all the ones prior received</i>.
              * <p>But, JMS spec 11.2.21 says:</p>
@@ -1192,6 +1511,7 @@ public class RMQSession implements Session, QueueSession, TopicSession {
              * </p>
              */
             synchronized (this.unackedMessageTags) {
+                if (this.unackedMessageTags.isEmpty()) return;
                 try {
                     if (individualAck) {
                         long messageTag = message.getRabbitDeliveryTag();
@@ -1201,14 +1521,14 @@ public class RMQSession implements Session, QueueSession, TopicSession {
                         this.unackedMessageTags.remove(messageTag);
                     } else if (groupAck) {
                         long messageTag = message.getRabbitDeliveryTag();
-                        /** The tags that precede the given one, and the given one, if unacknowledged */
-                        SortedSet<Long> previousTags = this.unackedMessageTags.headSet(messageTag+1);
-                        if (previousTags.isEmpty()) return; // no message to acknowledge
+                        /** The latest of the tags that precede the given one, and the given one, if unacknowledged */
+                        long lastTag = this.unackedMessageTags.lastUpTo(messageTag);
+                        if (lastTag < 0) return; // no message to acknowledge
                         /* ack multiple message up until the existing tag */
-                        this.getChannel().basicAck(previousTags.last(), // we ack the latest one (which might be this one, but might not be)
-                                              true);               // and everything prior to that
+                        this.getChannel().basicAck(lastTag, // we ack the latest one (which might be this one, but might not be)
+                                              true);   // and everything prior to that
                         // now remove all the tags <= messageTag
-                        previousTags.clear();
+                        this.unackedMessageTags.removeUpTo(messageTag);
                     } else {
                         // this block is no longer possible (groupAck == true) after RJMS 1.2.0
                         this.getChannel().basicAck(this.unackedMessageTags.last(), // we ack the highest tag
@@ -0,0 +1,35 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import com.rabbitmq.jms.util.WhiteListClassLoader;
+import com.rabbitmq.jms.util.WhiteListObjectInputStream;
+
+/**
+ * {@link ObjectMessageSerializer} using Java serialization. A {@link WhiteListObjectInputStream} checks every class in
+ * the stream against the trusted packages of the class loader as it is loaded.
+ */
+public class JavaObjectMessageSerializer implements ObjectMessageSerializer {
+
+    public static final JavaObjectMessageSerializer INSTANCE = new JavaObjectMessageSerializer();
+
+    @Override
+    public byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(object);
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    @Override
+    public Serializable deserialize(byte[] bytes, WhiteListClassLoader classLoader) throws IOException, ClassNotFoundException {
+        WhiteListObjectInputStream in = new WhiteListObjectInputStream(new ByteArrayInputStream(bytes), classLoader.getTrustedPackages());
+        return (Serializable) in.readObject();
+    }
+}
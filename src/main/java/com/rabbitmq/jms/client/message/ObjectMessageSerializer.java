@@ -0,0 +1,41 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client.message;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.rabbitmq.jms.util.WhiteListClassLoader;
+
+/**
+ * Turns the object of an {@link javax.jms.ObjectMessage} into the bytes sent in its body, and back.
+ * <p>
+ * The default is {@link JavaObjectMessageSerializer}. Producers and consumers of the same messages must use the same
+ * serializer, and implementations must be thread-safe, as one is shared by all the sessions of a connection.
+ * </p>
+ * <p>
+ * To deserialize, a serializer is given a {@link WhiteListClassLoader}, which refuses classes outside the trusted
+ * packages. Every class of the object graph must be resolved through it, and never by other means, so that untrusted
+ * classes are refused before anything is instantiated. The class of the object returned is checked again before the
+ * object is handed to the application.
+ * </p>
+ *
+ * @see com.rabbitmq.jms.admin.RMQConnectionFactory#setObjectMessageSerializer(ObjectMessageSerializer)
+ */
+public interface ObjectMessageSerializer {
+
+    /**
+     * @param object the object set on the message, never <code>null</code>
+     * @return the bytes of the message body
+     * @throws IOException if the object cannot be serialized
+     */
+    byte[] serialize(Serializable object) throws IOException;
+
+    /**
+     * @param bytes the bytes of the message body
+     * @param classLoader loader to resolve every class through, which refuses classes that are not trusted
+     * @return the object the bytes were serialized from
+     * @throws IOException if the bytes cannot be deserialized
+     * @throws ClassNotFoundException if a class is not found, or isn't trusted
+     */
+    Serializable deserialize(byte[] bytes, WhiteListClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
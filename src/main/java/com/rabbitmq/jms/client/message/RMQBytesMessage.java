@@ -3,11 +3,12 @@ package com.rabbitmq.jms.client.message;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
@@ -17,9 +18,9 @@ import javax.jms.MessageNotReadableException;
 import javax.jms.MessageNotWriteableException;
 
 import com.rabbitmq.jms.client.RMQMessage;
+import com.rabbitmq.jms.util.RMQByteArrayInputStream;
 import com.rabbitmq.jms.util.RMQByteArrayOutputStream;
 import com.rabbitmq.jms.util.RMQJMSException;
-import com.rabbitmq.jms.util.RMQMessageFormatException;
 
 /**
  * Implementation of {@link BytesMessage} interface.
@@ -31,12 +32,13 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     private volatile boolean reading;
 
-    /** <code>buf</code> stores the byte array payload and we read from it directly */
-    private volatile transient byte[] buf;
-    /** The position of our read in the byte array <code>buf</code> */
-    private volatile transient int pos;
+    /**
+     * <code>body</code> stores the byte array payload, from position zero to its limit, and we read from it directly,
+     * at its position. When writing it is the body set by {@link #setBody(ByteBuffer)}, if any.
+     */
+    private volatile transient ByteBuffer body;
 
-    /** The stream we write structured and unstructured data to */
+    /** The stream we write structured and unstructured data to; <code>null</code> until written to, see {@link #writer()} */
     private transient RMQByteArrayOutputStream bout;
 
     /** Instantiates a new, writable RMQBytesMessage */
@@ -50,10 +52,38 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     private RMQBytesMessage(boolean reading) {
         this.reading = reading;
-        if (!reading) {
-            /* If we are in Write state, then create the objects to support that state */
+    }
+
+    /**
+     * @return the stream to write to, created on first use, as a received message is seldom written
+     */
+    private RMQByteArrayOutputStream writer() throws JMSException {
+        if (this.bout == null) {
             this.bout = new RMQByteArrayOutputStream(DEFAULT_MESSAGE_BODY_SIZE);
+            if (this.body != null) {
+                // a body that was set is written to first
+                this.bout.write(this.body.array(), this.body.arrayOffset(), this.body.limit());
+                this.body = null;
+            }
         }
+        return this.bout;
+    }
+
+    // package-private for testing
+    boolean hasWriter() {
+        return this.bout != null;
+    }
+
+    /**
+     * @param length the number of bytes to be read
+     * @return the body, positioned at the bytes to be read
+     */
+    private ByteBuffer readable(int length) throws JMSException {
+        if (!this.isReading())
+            throw new MessageNotReadableException(NOT_READABLE);
+        if (this.body.remaining() < length)
+            throw new MessageEOFException(MSG_EOF);
+        return this.body;
     }
 
     /**
@@ -61,11 +91,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public boolean readBoolean() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_BOOLEAN > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        return Bits.getBoolean(this.buf, this.pos++);
+        return this.readable(1).get() != 0;
     }
 
     /**
@@ -73,11 +99,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public byte readByte() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + 1 > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        return this.buf[this.pos++];
+        return this.readable(1).get();
     }
 
     /**
@@ -85,11 +107,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public int readUnsignedByte() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + 1 > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        return ((int) (this.buf[this.pos++])) & 0xFF;
+        return this.readable(1).get() & 0xFF;
     }
 
     /**
@@ -97,13 +115,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public short readShort() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_SHORT > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        short s = Bits.getShort(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_SHORT;
-        return s;
+        return this.readable(2).getShort();
     }
 
     /**
@@ -111,13 +123,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public int readUnsignedShort() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_SHORT > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        short s = Bits.getShort(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_SHORT;
-        return ((int) s) & 0xFFFF;
+        return this.readable(2).getShort() & 0xFFFF;
     }
 
     /**
@@ -125,13 +131,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public char readChar() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_CHAR > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        char ch = Bits.getChar(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_CHAR;
-        return ch;
+        return this.readable(2).getChar();
     }
 
     /**
@@ -139,13 +139,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public int readInt() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_INT > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        int i = Bits.getInt(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_INT;
-        return i;
+        return this.readable(4).getInt();
     }
 
     /**
@@ -153,13 +147,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public long readLong() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_LONG > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        long l = Bits.getLong(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_LONG;
-        return l;
+        return this.readable(8).getLong();
     }
 
     /**
@@ -167,13 +155,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public float readFloat() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_FLOAT > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        float flt = Bits.getFloat(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_FLOAT;
-        return flt;
+        return this.readable(4).getFloat();
     }
 
     /**
@@ -181,13 +163,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public double readDouble() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        if (this.pos + Bits.NUM_BYTES_IN_DOUBLE > this.buf.length)
-            throw new MessageEOFException(MSG_EOF);
-        double dbl = Bits.getDouble(this.buf, this.pos);
-        this.pos += Bits.NUM_BYTES_IN_DOUBLE;
-        return dbl;
+        return this.readable(8).getDouble();
     }
 
     /**
@@ -195,26 +171,63 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public String readUTF() throws JMSException {
-        if (!this.reading)
-            throw new MessageNotReadableException(NOT_READABLE);
-        int posOfUtfItem = this.pos;
-        int lenUtfBytes = readUnsignedShort(); // modifies pos if valid
-        this.pos = posOfUtfItem;               // reset in case of failure
-
-        int utfItemLen = Bits.NUM_BYTES_IN_SHORT + lenUtfBytes;
-        if (posOfUtfItem + utfItemLen > this.buf.length) {
+        ByteBuffer b = this.readable(2);
+        int posOfUtfItem = b.position();
+        int lenUtfBytes = b.getShort() & 0xFFFF;
+        if (b.remaining() < lenUtfBytes) {
+            b.position(posOfUtfItem);
             throw new MessageFormatException("Not enough bytes in message body for UTF object");
         }
-        byte[] utfBuf = new byte[utfItemLen];
-        System.arraycopy(this.buf, posOfUtfItem, utfBuf, 0, utfItemLen);
+        try {
+            return decodeUTF(b, lenUtfBytes);
+        } catch (MessageFormatException e) {
+            b.position(posOfUtfItem);
+            throw e;
+        }
+    }
 
+    /**
+     * Decodes a string in the modified UTF-8 of {@link java.io.DataInput#readUTF()}.
+     * @param b the buffer, positioned at the encoded characters, and left after them
+     * @param length the length of the encoded characters
+     */
+    private static String decodeUTF(ByteBuffer b, int length) throws MessageFormatException {
+        char[] chars = new char[length];
+        int charCount = 0;
+        int end = b.position() + length;
         try {
-            String str = new DataInputStream(new ByteArrayInputStream(utfBuf)).readUTF();
-            this.pos += utfItemLen;
-            return str;
-        } catch (IOException ioe) {
-            throw new RMQMessageFormatException("UTF String invalid format", ioe);
+            while (b.position() < end) {
+                int c = b.get() & 0xFF;
+                switch (c >> 4) {
+                case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                    chars[charCount++] = (char) c;
+                    break;
+                case 12: case 13: {
+                    int c2 = continuation(b, end);
+                    chars[charCount++] = (char) (((c & 0x1F) << 6) | c2);
+                    break;
+                }
+                case 14: {
+                    int c2 = continuation(b, end);
+                    int c3 = continuation(b, end);
+                    chars[charCount++] = (char) (((c & 0x0F) << 12) | (c2 << 6) | c3);
+                    break;
+                }
+                default:
+                    throw new MessageFormatException("UTF String invalid format");
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new MessageFormatException("UTF String invalid format");
         }
+        return new String(chars, 0, charCount);
+    }
+
+    private static int continuation(ByteBuffer b, int end) throws MessageFormatException {
+        if (b.position() >= end) throw new MessageFormatException("UTF String invalid format");
+        int c = b.get();
+        if ((c & 0xC0) != 0x80) throw new MessageFormatException("UTF String invalid format");
+        return c & 0x3F;
     }
 
     /**
@@ -230,20 +243,70 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public int readBytes(byte[] value, int length) throws JMSException {
-        if (!this.reading)
+        if (!this.isReading())
             throw new MessageNotReadableException(NOT_READABLE);
         if (length<0 || length>value.length) {
             throw new IndexOutOfBoundsException();
         }
-        if (this.pos < this.buf.length) {
-            int readLen = Math.min(length, this.buf.length - this.pos);
-            System.arraycopy(this.buf, this.pos, value, 0, readLen);
-            this.pos += readLen;
+        if (this.body.hasRemaining()) {
+            int readLen = Math.min(length, this.body.remaining());
+            this.body.get(value, 0, readLen);
             return readLen;
         }
         return -1; // means EOF already
     }
 
+    /**
+     * Returns the body of a message being read, without copying it. The buffer returned is read-only and runs from the
+     * start of the body, at position zero, to its end, and reading it does not move the position the
+     * <code>read</code> methods read from.
+     * @return the body
+     * @throws MessageNotReadableException if the message is being written
+     */
+    public ByteBuffer getBodyBuffer() throws JMSException {
+        if (!this.isReading())
+            throw new MessageNotReadableException(NOT_READABLE);
+        ByteBuffer b = this.body.asReadOnlyBuffer();
+        b.rewind();
+        return b;
+    }
+
+    /**
+     * Sets the body of a message being written to the bytes remaining in a buffer. Unless the buffer is read-only, or
+     * not backed by an array, the bytes are not copied, and are sent as they are when the message is sent, so they
+     * must not be changed until then. Anything written to the message after this is written after them.
+     * @param value the body
+     * @throws MessageNotWriteableException if the message is being read
+     */
+    public void setBody(ByteBuffer value) throws JMSException {
+        if (this.reading || isReadonlyBody())
+            throw new MessageNotWriteableException(NOT_WRITEABLE);
+        if (value == null)
+            throw new MessageFormatException("Null byte buffer");
+        ByteBuffer b = value.slice();
+        if (!b.hasArray()) {
+            byte[] copy = new byte[b.remaining()];
+            b.get(copy);
+            b = ByteBuffer.wrap(copy);
+        }
+        this.bout = null;
+        this.body = b;
+    }
+
+    /**
+     * Sets the body of a message being written to part of an array, which is not copied.
+     * @param value the array holding the body
+     * @param offset the start of the body in the array
+     * @param length the length of the body
+     * @throws MessageNotWriteableException if the message is being read
+     * @see #setBody(ByteBuffer)
+     */
+    public void setBody(byte[] value, int offset, int length) throws JMSException {
+        if (value == null)
+            throw new MessageFormatException("Null byte array");
+        this.setBody(ByteBuffer.wrap(value, offset, length));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -251,7 +314,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeBoolean(boolean value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeBoolean(value);
+        this.writer().writeBoolean(value);
     }
 
     /**
@@ -261,7 +324,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeByte(byte value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeByte(value);
+        this.writer().writeByte(value);
     }
 
     /**
@@ -271,7 +334,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeShort(short value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeShort(value);
+        this.writer().writeShort(value);
     }
 
     /**
@@ -281,7 +344,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeChar(char value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeChar(value);
+        this.writer().writeChar(value);
     }
 
     /**
@@ -291,7 +354,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeInt(int value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeInt(value);
+        this.writer().writeInt(value);
     }
 
     /**
@@ -301,7 +364,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeLong(long value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeLong(value);
+        this.writer().writeLong(value);
     }
 
     /**
@@ -311,7 +374,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeFloat(float value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeFloat(value);
+        this.writer().writeFloat(value);
     }
 
     /**
@@ -321,7 +384,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeDouble(double value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeDouble(value);
+        this.writer().writeDouble(value);
     }
 
     /**
@@ -331,7 +394,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeUTF(String value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        this.bout.writeUTF(value);
+        this.writer().writeUTF(value);
     }
 
     /**
@@ -342,7 +405,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
         try {
-            this.bout.write(value);
+            this.writer().write(value);
         } catch (IOException e) {
             throw new RMQJMSException(e);
         }
@@ -360,7 +423,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
         } else if (offset>=value.length || length<0) {
             throw new IndexOutOfBoundsException();
         }
-        this.bout.write(value, offset, length);
+        this.writer().write(value, offset, length);
     }
 
     /**
@@ -370,7 +433,7 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
     public void writeObject(Object value) throws JMSException {
         if (this.reading || isReadonlyBody())
             throw new MessageNotWriteableException(NOT_WRITEABLE);
-        writePrimitiveData(value, this.bout);
+        writePrimitiveData(value, this.writer());
     }
 
     /**
@@ -378,17 +441,16 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public void reset() throws JMSException {
-        if (this.reading) {
+        if (this.isReading()) {
             //if we already are reading, all we want to do is reset to the
             //beginning of the stream
-            this.pos = 0;
+            this.body.rewind();
         } else {
             if (this.bout != null) {
-                this.buf = this.bout.toByteArray();
-            } else {
-                this.buf = new byte[0];
+                this.body = this.bout.toByteBuffer();
+            } else if (this.body == null) {
+                this.body = ByteBuffer.wrap(new byte[0]);
             }
-            this.pos = 0;
             this.reading = true;
             this.bout = null;
         }
@@ -399,7 +461,17 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public long getBodyLength() throws JMSException {
-        return this.reading ? this.buf.length : this.bout.size();
+        if (this.isReading()) return this.body.limit();
+        if (this.body != null) return this.body.limit();
+        return (this.bout == null) ? 0 : this.bout.size();
+    }
+
+    /**
+     * @return true if the message is in read state, once its body is decoded
+     */
+    private boolean isReading() throws JMSException {
+        this.loadBody();
+        return this.reading;
     }
 
     /**
@@ -407,15 +479,18 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     public void clearBodyInternal() throws JMSException {
-        this.bout = new RMQByteArrayOutputStream(DEFAULT_MESSAGE_BODY_SIZE);
-        this.pos = 0;
-        this.buf = null;
+        this.bout = null;
+        this.body = null;
         this.reading = false;
     }
 
-    private byte[] getByteArray() {
-        if (reading) return this.buf;
-        else return this.bout.toByteArray();
+    /**
+     * @return the body, from position zero to its limit, backed by an array
+     */
+    private ByteBuffer getBody() {
+        if (this.body != null) return this.body;
+        else if (this.bout == null) return ByteBuffer.wrap(new byte[0]);
+        else return this.bout.toByteBuffer();
     }
 
     /**
@@ -423,34 +498,58 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
      */
     @Override
     protected void writeBody(ObjectOutput oOut, ByteArrayOutputStream bout) throws IOException {
-        byte[] buf = getByteArray();
-        bout.write(buf);
+        ByteBuffer b = getBody();
+        bout.write(b.array(), b.arrayOffset(), b.limit());
     }
 
     @Override
     protected void writeAmqpBody(ByteArrayOutputStream baos) throws IOException {
-        byte[] buf = getByteArray();
-        baos.write(buf);
+        ByteBuffer b = getBody();
+        baos.write(b.array(), b.arrayOffset(), b.limit());
+    }
+
+    /**
+     * {@inheritDoc}
+     * The body is sent as the array it was received or set in, if that is the whole of the array.
+     */
+    @Override
+    protected byte[] getAmqpBodyArray() {
+        ByteBuffer b = getBody();
+        return (b.arrayOffset() == 0 && b.limit() == b.array().length) ? b.array() : null;
     }
 
     /**
      * {@inheritDoc}
      * Structured data (if any) is already read by the time this is called, in which case, for {@link RMQBytesMessage},
-     * only a byte array remains.
+     * only a byte array remains, which is read without copying it if it is a {@link RMQByteArrayInputStream}.
      */
     @Override
     protected void readBody(ObjectInput inputStream, ByteArrayInputStream bin) throws IOException, ClassNotFoundException {
-        this.buf = new byte[bin.available()];
-        bin.read(this.buf);
+        if (bin instanceof RMQByteArrayInputStream) {
+            this.body = ((RMQByteArrayInputStream) bin).readRemaining();
+        } else {
+            byte[] buf = new byte[bin.available()];
+            bin.read(buf);
+            this.body = ByteBuffer.wrap(buf);
+        }
         this.reading = true;
-        this.pos = 0;
     }
 
     @Override
     protected void readAmqpBody(byte[] barr) {
-        this.buf = barr;
+        this.body = ByteBuffer.wrap(barr);
         this.reading = true;
-        this.pos = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The clone reads from its own position in the body.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        RMQBytesMessage clone = (RMQBytesMessage) super.clone();
+        if (clone.body != null) clone.body = clone.body.duplicate();
+        return clone;
     }
 
     /**
@@ -487,67 +586,6 @@ public class RMQBytesMessage extends RMQMessage implements BytesMessage {
             throw new MessageFormatException(s + " is not a recognized writable type.");
     }
 
-    /**
-    * Utility methods for unpacking primitive values out of byte arrays
-    * using big-endian byte ordering.
-    * [A modified copy of java.io.Bits, it being package private :-(]
-    */
-    private static abstract class Bits { // prevent ourselves creating an instance
-
-        private Bits() {};  // prevent anyone else creating an instance
-        /*
-         * Methods for unpacking primitive values from byte arrays starting at
-         * given offsets.
-         */
-
-        static final int NUM_BYTES_IN_BOOLEAN = 1;
-        static boolean getBoolean(byte[] b, int off) {
-            return b[off] != 0;
-        }
-
-        static final int NUM_BYTES_IN_CHAR = 2;
-        static char getChar(byte[] b, int off) {
-            return (char) (((b[off + 1] & 0xFF)) +
-                           ((b[off]) << 8));
-        }
-
-        static final int NUM_BYTES_IN_SHORT = 2;
-        static short getShort(byte[] b, int off) {
-            return (short) (((b[off + 1] & 0xFF)) +
-                            ((b[off]) << 8));
-        }
-
-        static final int NUM_BYTES_IN_INT = 4;
-        static int getInt(byte[] b, int off) {
-            return ((b[off + 3] & 0xFF)) +
-                   ((b[off + 2] & 0xFF) << 8) +
-                   ((b[off + 1] & 0xFF) << 16) +
-                   ((b[off]) << 24);
-        }
-
-        static final int NUM_BYTES_IN_FLOAT = 4;
-        static float getFloat(byte[] b, int off) {
-            return Float.intBitsToFloat(getInt(b, off));
-        }
-
-        static final int NUM_BYTES_IN_LONG = 8;
-        static long getLong(byte[] b, int off) {
-            return ((b[off + 7] & 0xFFL)) +
-                    ((b[off + 6] & 0xFFL) << 8) +
-                    ((b[off + 5] & 0xFFL) << 16) +
-                    ((b[off + 4] & 0xFFL) << 24) +
-                    ((b[off + 3] & 0xFFL) << 32) +
-                    ((b[off + 2] & 0xFFL) << 40) +
-                    ((b[off + 1] & 0xFFL) << 48) +
-                    (((long) b[off]) << 56);
-        }
-
-        static final int NUM_BYTES_IN_DOUBLE = 8;
-        static double getDouble(byte[] b, int off) {
-            return Double.longBitsToDouble(getLong(b, off));
-        }
-    }
-
     public static RMQMessage recreate(BytesMessage msg) throws JMSException {
         msg.reset();
         long bodyLength = msg.getBodyLength();
@@ -3,13 +3,20 @@ package com.rabbitmq.jms.client.message;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
@@ -17,20 +24,44 @@ import javax.jms.MessageFormatException;
 import javax.jms.MessageNotWriteableException;
 
 import com.rabbitmq.jms.client.RMQMessage;
-import com.rabbitmq.jms.util.DiscardingObjectOutput;
+import com.rabbitmq.jms.util.CompactObjectInput;
+import com.rabbitmq.jms.util.CompactObjectOutput;
 import com.rabbitmq.jms.util.IteratorEnum;
+import com.rabbitmq.jms.util.RMQByteArrayInputStream;
+import com.rabbitmq.jms.util.RMQJMSException;
 import com.rabbitmq.jms.util.RMQMessageFormatException;
+import com.rabbitmq.jms.util.WhiteListObjectInputStream;
 
 /**
  * Implementation of {@link MapMessage} interface.
+ * <p>
+ * In the compact message format the body is an {@link IndexedBody}, after a leading {@link #INDEXED_FORMAT} byte, so
+ * that a received message decodes only the entries which are read. In the original message format it is the number of
+ * entries followed by each name and value.
+ * </p>
  */
 public class RMQMapMessage extends RMQMessage implements MapMessage {
 
-    private Map<String, Serializable> data = new HashMap<String, Serializable>();
+    /**
+     * The classes of the values a map may hold: the primitive wrappers, {@link String} and <code>byte[]</code>. They are
+     * all final, so a value is of one of them if its class is.
+     */
+    private static final Set<Class<?>> VALUE_CLASSES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+        Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class,
+        String.class, byte[].class
+    ));
+
+    /** The first byte of an indexed body, which cannot be the first byte of the entry count of other bodies */
+    private static final int INDEXED_FORMAT = 0xFF;
+
+    /** The entries; <code>null</code> while they are only in {@link #indexed}, until the message is changed */
+    private Map<String, Serializable> data = null;
+    /** The entries of a received message with an indexed body, decoded as they are read */
+    private IndexedBody indexed = null;
 
     @Override
     public boolean getBoolean(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             return false;
         else if (o instanceof Boolean)
@@ -43,7 +74,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public byte getByte(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "byte"));
         else if (o instanceof Byte)
@@ -56,7 +87,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public short getShort(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "short"));
         else if (o instanceof Byte)
@@ -71,7 +102,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public char getChar(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "char"));
         else if (o instanceof Character)
@@ -82,7 +113,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public int getInt(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "int"));
         else if (o instanceof Byte)
@@ -99,7 +130,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public long getLong(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "long"));
         else if (o instanceof Byte)
@@ -118,7 +149,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public float getFloat(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "float"));
         else if (o instanceof Float) {
@@ -131,7 +162,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public double getDouble(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             throw new NumberFormatException(String.format(UNABLE_TO_CAST, o, "double"));
         else if (o instanceof Float)
@@ -146,7 +177,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public String getString(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null)
             return null;
         else if (o instanceof String)
@@ -159,7 +190,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public byte[] getBytes(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null) {
             return null;
         } else if (o instanceof byte[]) {
@@ -173,7 +204,7 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public Object getObject(String name) throws JMSException {
-        Object o = this.data.get(name);
+        Object o = this.get(name);
         if (o == null) {
             return null;
         } else if (o instanceof byte[]) {
@@ -185,61 +216,65 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     public Enumeration<String> getMapNames() throws JMSException {
-        return new IteratorEnum<String>(this.data.keySet().iterator());
+        this.loadBody();
+        Iterator<String> names = (this.data != null) ? this.data.keySet().iterator()
+                               : (this.indexed != null) ? Arrays.asList(this.indexed.names).iterator()
+                               : new HashMap<String, Serializable>().keySet().iterator();
+        return new IteratorEnum<String>(names);
     }
 
     @Override
     public void setBoolean(String name, boolean value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setByte(String name, byte value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setShort(String name, short value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setChar(String name, char value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setInt(String name, int value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setLong(String name, long value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setFloat(String name, float value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setDouble(String name, double value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
     public void setString(String name, String value) throws JMSException {
         checkNotReadonlyBody();
-        this.data.put(name, value);
+        this.writableData().put(name, value);
     }
 
     @Override
@@ -252,12 +287,12 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
     public void setBytes(String name, byte[] value, int offset, int length) throws JMSException {
         checkNotReadonlyBody();
         if (value == null) {
-            this.data.remove(name);
+            this.writableData().remove(name);
             return;
         }
         byte[] buf = new byte[length];
         System.arraycopy(value, offset, buf, 0, length);
-        this.data.put(name, buf);
+        this.writableData().put(name, buf);
     }
 
     @Override
@@ -265,40 +300,88 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
         checkNotReadonlyBody();
         if (name == null && value == null) {
         } else if (value == null) {
-            this.data.remove(name);
+            this.writableData().remove(name);
         } else if (!(value instanceof Serializable)) {
             throw new MessageFormatException(String.format(UNABLE_TO_CAST, value, Serializable.class.getName()));
-        } else {
-            try {
-                /* Make sure we can write this type of object */
-                writePrimitiveData(value, new DiscardingObjectOutput(), false);
-            } catch (IOException x) {
-                throw new RMQMessageFormatException(x);
-            }
+        } else if (!VALUE_CLASSES.contains(value.getClass())) {
+            /* only these types can be written */
+            throw new MessageFormatException(value + " is not a recognized primitive type.");
         }
 
         if (value instanceof byte[]) {
             setBytes(name, (byte[])value);
         } else {
-            this.data.put(name, (Serializable) value);
+            this.writableData().put(name, (Serializable) value);
         }
     }
 
     @Override
     public boolean itemExists(String name) throws JMSException {
-        return this.data.containsKey(name);
+        this.loadBody();
+        if (this.data != null) return this.data.containsKey(name);
+        return this.indexed != null && this.indexed.indexOf(name) >= 0;
     }
 
     @Override
     public void clearBodyInternal() throws JMSException {
-        this.data.clear();
+        this.data = null;
+        this.indexed = null;
+    }
+
+    /**
+     * @return the value of an entry, once the body, or at least the entry, is decoded
+     */
+    private Object get(String name) throws JMSException {
+        this.loadBody();
+        if (this.data != null) return this.data.get(name);
+        if (this.indexed != null) return this.indexed.get(name);
+        return null;
+    }
+
+    /**
+     * @return the map, to be changed, decoding any entries not yet decoded
+     */
+    private Map<String, Serializable> writableData() throws JMSException {
+        if (this.data == null) {
+            this.loadBody();
+            Map<String, Serializable> data = new HashMap<String, Serializable>();
+            if (this.indexed != null) {
+                for (int i = 0; i < this.indexed.names.length; i++) {
+                    data.put(this.indexed.names[i], this.indexed.get(i));
+                }
+            }
+            this.data = data;
+            this.indexed = null;
+        }
+        return this.data;
     }
 
+    /**
+     * {@inheritDoc}
+     * The body is indexed in the compact message format.
+     */
     @Override
     protected void writeBody(ObjectOutput out, ByteArrayOutputStream bout) throws IOException {
-        int size = this.data.size();
+        Map<String, Serializable> data = this.data;
+        if (out instanceof CompactObjectOutput) {
+            IndexedBody indexed = this.indexed;
+            if (indexed == null) {
+                indexed = IndexedBody.of(data == null ? new HashMap<String, Serializable>() : data);
+            }
+            out.write(INDEXED_FORMAT);
+            indexed.writeTo((CompactObjectOutput) out);
+            return;
+        }
+        if (data == null) {
+            try {
+                data = this.writableData();
+            } catch (JMSException x) {
+                throw new IOException(x);
+            }
+        }
+        int size = data.size();
         out.writeInt(size);
-        for (Map.Entry<String, Serializable> entry : this.data.entrySet()) {
+        for (Map.Entry<String, Serializable> entry : data.entrySet()) {
             out.writeUTF(entry.getKey());
             try {
                 RMQMessage.writePrimitive(entry.getValue(), out);
@@ -310,12 +393,24 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
 
     @Override
     protected void readBody(ObjectInput inputStream, ByteArrayInputStream bin) throws IOException, ClassNotFoundException {
+        if (inputStream instanceof CompactObjectInput) {
+            bin.mark(0);
+            if (bin.read() == INDEXED_FORMAT) {
+                this.indexed = IndexedBody.read((CompactObjectInput) inputStream, bin);
+                this.data = null;
+                return;
+            }
+            bin.reset();
+        }
+        Map<String, Serializable> data = new HashMap<String, Serializable>();
         int size = inputStream.readInt();
         for (int i = 0; i < size; i++) {
             String name = inputStream.readUTF();
             Object value = RMQMessage.readPrimitive(inputStream);
-            this.data.put(name, (Serializable) value);
+            data.put(name, (Serializable) value);
         }
+        this.data = data;
+        this.indexed = null;
     }
 
     @Override
@@ -323,43 +418,6 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
         throw new UnsupportedOperationException();
     }
 
-    /**
-     * Utility method to write an object as a primitive or as an object
-     * @param s the object to write
-     * @param out the stream to write it to
-     * @param allowSerializable true if we allow objects other than serializable
-     * @throws IOException
-     * @throws NullPointerException if s is null
-     */
-    private void writePrimitiveData(Object s, ObjectOutput out, boolean allowSerializable) throws IOException, MessageFormatException {
-        if(s==null) {
-            throw new NullPointerException();
-        } else if (s instanceof Boolean) {
-            out.writeBoolean((Boolean) s);
-        } else if (s instanceof Byte) {
-            out.writeByte((Byte) s);
-        } else if (s instanceof Short) {
-            out.writeShort(((Short) s));
-        } else if (s instanceof Integer) {
-            out.writeInt((Integer) s);
-        } else if (s instanceof Long) {
-            out.writeLong((Long) s);
-        } else if (s instanceof Float) {
-            out.writeFloat((Float) s);
-        } else if (s instanceof Double) {
-            out.writeDouble((Double) s);
-        } else if (s instanceof String) {
-            out.writeUTF((String) s);
-        } else if (s instanceof Character) {
-            out.writeChar((Character) s);
-        } else if (allowSerializable && s instanceof Serializable) {
-            out.writeObject(s);
-        } else if (s instanceof byte[]) {
-            out.write((byte[])s);
-        } else
-            throw new MessageFormatException(s + " is not a recognized primitive type.");
-    }
-
     private void checkNotReadonlyBody() throws JMSException {
         if (isReadonlyBody())
             throw new MessageNotWriteableException("Message not writeable");
@@ -370,6 +428,106 @@ public class RMQMapMessage extends RMQMessage implements MapMessage {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * A map body with the names, in order, and where each value is, ahead of the values, so that a value can be found
+     * and decoded without decoding the others. The body is the number of entries, then each name and the offset of its
+     * value, then the length of the values and the values themselves, as tagged values.
+     */
+    private static final class IndexedBody {
+        /** The names, in order */
+        final String[] names;
+        /** The offset of each value in <code>values</code> */
+        private final int[] offsets;
+        /** The tagged values, from position zero to the limit */
+        private final ByteBuffer values;
+        /** The values decoded so far */
+        private final Serializable[] decoded;
+        private final boolean[] isDecoded;
+
+        private IndexedBody(String[] names, int[] offsets, ByteBuffer values) {
+            this.names = names;
+            this.offsets = offsets;
+            this.values = values;
+            this.decoded = new Serializable[names.length];
+            this.isDecoded = new boolean[names.length];
+        }
+
+        static IndexedBody of(Map<String, Serializable> data) throws IOException {
+            TreeMap<String, Serializable> sorted = new TreeMap<String, Serializable>(data);
+            String[] names = new String[sorted.size()];
+            int[] offsets = new int[sorted.size()];
+            ByteArrayOutputStream vout = new ByteArrayOutputStream(RMQMessage.DEFAULT_MESSAGE_BODY_SIZE);
+            CompactObjectOutput out = new CompactObjectOutput(vout);
+            int i = 0;
+            for (Map.Entry<String, Serializable> entry : sorted.entrySet()) {
+                names[i] = entry.getKey();
+                offsets[i] = vout.size();
+                out.writeValue(entry.getValue(), false);
+                i++;
+            }
+            return new IndexedBody(names, offsets, ByteBuffer.wrap(vout.toByteArray()));
+        }
+
+        static IndexedBody read(CompactObjectInput in, ByteArrayInputStream bin) throws IOException {
+            int size = in.readVarInt();
+            if (size < 0 || size > bin.available()) throw new EOFException("Map size " + size + " runs past the end of the data");
+            String[] names = new String[size];
+            int[] offsets = new int[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = in.readString();
+                offsets[i] = in.readVarInt();
+            }
+            int length = in.readVarInt();
+            if (length < 0 || length > bin.available()) throw new EOFException("Map values length " + length + " runs past the end of the data");
+            ByteBuffer values;
+            if (bin instanceof RMQByteArrayInputStream) {
+                values = ((RMQByteArrayInputStream) bin).readRemaining();
+            } else {
+                byte[] b = new byte[bin.available()];
+                in.readFully(b);
+                values = ByteBuffer.wrap(b);
+            }
+            values.limit(length);
+            return new IndexedBody(names, offsets, values);
+        }
+
+        void writeTo(CompactObjectOutput out) throws IOException {
+            out.writeVarInt(this.names.length);
+            for (int i = 0; i < this.names.length; i++) {
+                out.writeString(this.names[i]);
+                out.writeVarInt(this.offsets[i]);
+            }
+            out.writeByteArray(this.values.array(), this.values.arrayOffset(), this.values.limit());
+        }
+
+        int indexOf(String name) {
+            return (name == null) ? -1 : Arrays.binarySearch(this.names, name);
+        }
+
+        Object get(String name) throws JMSException {
+            int i = this.indexOf(name);
+            return (i < 0) ? null : this.get(i);
+        }
+
+        Serializable get(int i) throws JMSException {
+            if (!this.isDecoded[i]) {
+                int offset = this.offsets[i];
+                if (offset < 0 || offset >= this.values.limit())
+                    throw new RMQMessageFormatException(new EOFException("Map value offset " + offset + " runs past the end of the data"));
+                ByteArrayInputStream bin = new ByteArrayInputStream(this.values.array(), this.values.arrayOffset() + offset, this.values.limit() - offset);
+                try {
+                    this.decoded[i] = (Serializable) new CompactObjectInput(bin, WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES).readValue();
+                } catch (IOException x) {
+                    throw new RMQMessageFormatException(x);
+                } catch (ClassNotFoundException x) {
+                    throw new RMQJMSException(x);
+                }
+                this.isDecoded[i] = true;
+            }
+            return this.decoded[i];
+        }
+    }
+
     public static RMQMessage recreate(MapMessage msg) throws JMSException {
         RMQMapMessage rmqMMsg = new RMQMapMessage();
         RMQMessage.copyAttributes(rmqMMsg, msg);
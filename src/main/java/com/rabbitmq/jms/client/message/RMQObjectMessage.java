@@ -5,11 +5,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.List;
 
 import javax.jms.JMSException;
@@ -18,6 +15,7 @@ import javax.jms.ObjectMessage;
 
 import com.rabbitmq.jms.client.RMQMessage;
 import com.rabbitmq.jms.util.RMQJMSException;
+import com.rabbitmq.jms.util.WhiteListClassLoader;
 import com.rabbitmq.jms.util.WhiteListObjectInputStream;
 
 /**
@@ -26,32 +24,46 @@ import com.rabbitmq.jms.util.WhiteListObjectInputStream;
 public class RMQObjectMessage extends RMQMessage implements ObjectMessage {
 
     private final List<String> trustedPackages;
+    private volatile ObjectMessageSerializer serializer;
     /** Buffer to hold serialised object */
     private volatile byte[] buf = null;
+    /** The object deserialised from {@link #buf} by {@link #getObject()}, kept for later calls */
+    private volatile Serializable object = null;
 
     public RMQObjectMessage() {
         this(WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES);
     }
 
     public RMQObjectMessage(List<String> trustedPackages) {
+        this(trustedPackages, JavaObjectMessageSerializer.INSTANCE);
+    }
+
+    public RMQObjectMessage(List<String> trustedPackages, ObjectMessageSerializer serializer) {
         this.trustedPackages = trustedPackages;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Sets the serializer the object of a received message is deserialised with. Messages are received before their
+     * type is known, so the serializer of the session is set once it is.
+     * @param serializer serializer of the session receiving this message
+     */
+    public void setSerializer(ObjectMessageSerializer serializer) {
+        this.serializer = serializer;
     }
 
     @Override
     public void setObject(Serializable object) throws JMSException {
         if (isReadonlyBody()) throw new MessageNotWriteableException("Message not writeable");
         try {
+            this.object = null;
             if (object==null) {
                 buf = null;
             } else {
                 /*
                  * We have to serialise the object now
                  */
-                ByteArrayOutputStream bout = new ByteArrayOutputStream();
-                ObjectOutputStream out = new ObjectOutputStream(bout);
-                out.writeObject(object);
-                out.flush();
-                buf = bout.toByteArray();
+                buf = this.serializer.serialize(object);
             }
         } catch (IOException x) {
             throw new RMQJMSException(x);
@@ -59,20 +71,36 @@ public class RMQObjectMessage extends RMQMessage implements ObjectMessage {
 
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The object is deserialised on the first call, and the same object returned by later calls.
+     * </p>
+     */
     @Override
     public Serializable getObject() throws JMSException {
         return this.getObject(this.trustedPackages);
     }
 
     public Serializable getObject(List<String> trustedPackages) throws JMSException {
-        if (buf == null) {
+        this.loadBody();
+        boolean cacheable = (trustedPackages == this.trustedPackages);
+        Serializable cached = this.object;
+        if (cacheable && cached != null) {
+            return cached;
+        }
+        byte[] b = this.buf;
+        if (b == null) {
             return null;
         } else {
-            this.loggerDebugByteArray("Deserialising object from buffer {} for {}", this.buf, "RMQObjectMessage");
-            ByteArrayInputStream bin = new ByteArrayInputStream(buf);
+            this.loggerDebugByteArray("Deserialising object from buffer {} for {}", b, "RMQObjectMessage");
             try {
-                WhiteListObjectInputStream in = new WhiteListObjectInputStream(bin, trustedPackages);
-                return (Serializable)in.readObject();
+                Serializable deserialised = this.serializer.deserialize(b, new WhiteListClassLoader(trustedPackages));
+                checkTrusted(deserialised, trustedPackages);
+                if (cacheable && b == this.buf) {
+                    this.object = deserialised;
+                }
+                return deserialised;
             } catch (ClassNotFoundException x) {
                 throw new RMQJMSException(x);
             } catch (IOException x) {
@@ -81,9 +109,23 @@ public class RMQObjectMessage extends RMQMessage implements ObjectMessage {
         }
     }
 
+    /**
+     * Checks the class of a deserialised object is trusted, whichever serializer it came from. Strings are left out,
+     * as Java serialisation does not check them either.
+     */
+    private static void checkTrusted(Serializable object, List<String> trustedPackages) throws ClassNotFoundException {
+        if (object == null || object instanceof String) return;
+        Class<?> clazz = object.getClass();
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        WhiteListObjectInputStream.checkTrusted(clazz, trustedPackages);
+    }
+
     @Override
     public void clearBodyInternal() throws JMSException {
         this.buf = null;
+        this.object = null;
     }
 
     @Override
@@ -99,6 +141,7 @@ public class RMQObjectMessage extends RMQMessage implements ObjectMessage {
     protected void readBody(ObjectInput inputStream, ByteArrayInputStream bin) throws IOException, ClassNotFoundException {
         // the body here is just a byte[] and we delay deserialising the object
         // until getObject() is called so that we have access to the Thread Context Classloader
+        this.object = null;
         boolean isnull = inputStream.readBoolean();
         if (!isnull) {
             readWholeBuffer(inputStream.readInt(), inputStream);
@@ -127,7 +170,11 @@ public class RMQObjectMessage extends RMQMessage implements ObjectMessage {
     }
 
     public static RMQMessage recreate(ObjectMessage msg) throws JMSException {
-        RMQObjectMessage rmqOMsg = new RMQObjectMessage();
+        return recreate(msg, JavaObjectMessageSerializer.INSTANCE);
+    }
+
+    public static RMQMessage recreate(ObjectMessage msg, ObjectMessageSerializer serializer) throws JMSException {
+        RMQObjectMessage rmqOMsg = new RMQObjectMessage(WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES, serializer);
         RMQMessage.copyAttributes(rmqOMsg, msg);
 
         // note: ObjectMessage here comes from the outside and may
@@ -139,7 +186,7 @@ public class RMQObjectMessage extends RMQMessage implements ObjectMessage {
     }
 
     public static RMQMessage recreate(RMQObjectMessage msg, List<String> patterns) throws JMSException {
-        RMQObjectMessage rmqOMsg = new RMQObjectMessage(patterns);
+        RMQObjectMessage rmqOMsg = new RMQObjectMessage(patterns, msg.serializer);
         RMQMessage.copyAttributes(rmqOMsg, msg);
 
         rmqOMsg.setObject(msg.getObject(patterns));
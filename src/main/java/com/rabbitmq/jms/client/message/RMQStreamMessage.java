@@ -5,10 +5,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.NotSerializableException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
 import java.io.UTFDataFormatException;
 
 import javax.jms.JMSException;
@@ -19,8 +21,11 @@ import javax.jms.MessageNotWriteableException;
 import javax.jms.StreamMessage;
 
 import com.rabbitmq.jms.client.RMQMessage;
+import com.rabbitmq.jms.util.CompactObjectInput;
+import com.rabbitmq.jms.util.CompactObjectOutput;
 import com.rabbitmq.jms.util.RMQJMSException;
 import com.rabbitmq.jms.util.RMQMessageFormatException;
+import com.rabbitmq.jms.util.WhiteListObjectInputStream;
 
 /* TODO For now we don't handle direct TCP streaming
  * this should write to disk, and when we send the message
@@ -29,16 +34,30 @@ import com.rabbitmq.jms.util.RMQMessageFormatException;
  */
 /**
  * Implements {@link StreamMessage} interface.
+ * <p>
+ * In the compact message format the values are sent as tagged values, written by a {@link CompactObjectOutput} after
+ * a leading {@link #TAGGED_FORMAT} byte. In the original message format they are sent as earlier versions wrote them,
+ * with {@link RMQMessage#writePrimitive(Object, ObjectOutput)} to an {@link ObjectOutputStream}, for those versions to
+ * read. Both are read. A message is written in the format chosen when it is created, normally that of its session,
+ * so that it is only converted when sent in the other format.
+ * </p>
  */
 public class RMQStreamMessage extends RMQMessage implements StreamMessage {
 
     private static final byte[] EOF_ARRAY = new byte[0];
 
+    /** The first byte of a body of tagged values, which cannot be the first byte of an object stream */
+    private static final int TAGGED_FORMAT = 'T';
+
     private volatile boolean reading;
 
-    private transient ObjectInputStream in;
+    /** The stream values are read from, a {@link CompactObjectInput} or, for the old format, an {@link ObjectInputStream} */
+    private transient ObjectInput in;
     private transient ByteArrayInputStream bin;
-    private transient ObjectOutputStream out;
+    /** Whether values are written as tagged values, rather than to an object stream */
+    private final boolean taggedValues;
+    /** The stream values are written to; <code>null</code> until written to, see {@link #writer()} */
+    private transient ObjectOutput out;
     private transient ByteArrayOutputStream bout;
     private volatile transient byte[] buf;
     private volatile transient byte[] readbuf = null;
@@ -47,29 +66,43 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
         this(false);
     }
 
-    private RMQStreamMessage(boolean reading) {
-        this.reading = reading;
-        if (!reading) {
+    /**
+     * @param taggedValues whether to write values as tagged values, as sent in the compact message format, rather than
+     *                     to an object stream, as sent in the original format
+     */
+    public RMQStreamMessage(boolean taggedValues) {
+        this.reading = false;
+        this.taggedValues = taggedValues;
+    }
+
+    /**
+     * @return the stream to write values to, created on first use
+     */
+    private ObjectOutput writer() throws JMSException {
+        if (this.reading || isReadonlyBody())
+            throw new MessageNotWriteableException(NOT_WRITEABLE);
+        if (this.out == null) {
             this.bout = new ByteArrayOutputStream(RMQMessage.DEFAULT_MESSAGE_BODY_SIZE);
-            try {
-                this.out = new ObjectOutputStream(this.bout);
-            } catch (IOException x) {
-                throw new RuntimeException(x);
+            if (this.taggedValues) {
+                this.bout.write(TAGGED_FORMAT);
+                this.out = new CompactObjectOutput(this.bout);
+            } else {
+                try {
+                    this.out = new ObjectOutputStream(this.bout);
+                } catch (IOException x) {
+                    throw new RMQJMSException(x);
+                }
             }
         }
+        return this.out;
     }
 
     private void writePrimitive(Object value) throws JMSException {
-        if (this.reading || isReadonlyBody())
-            throw new MessageNotWriteableException(NOT_WRITEABLE);
-        try {
-            RMQMessage.writePrimitive(value, this.out);
-        } catch (IOException x) {
-            throw new RMQJMSException(x);
-        }
+        this.writeObject(value, false);
     }
 
     private Object readPrimitiveType(Class<?> type) throws JMSException {
+        this.loadBody();
         if (!this.reading)
             throw new MessageNotReadableException(NOT_READABLE);
         if (this.readbuf!=null) {
@@ -78,7 +111,7 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
         boolean success = true;
         try {
             this.bin.mark(0);
-            Object o = RMQMessage.readPrimitive(in);
+            Object o = readValue(this.in);
             if (o instanceof byte[]) {
                 if (type == ByteArray.class || type == Object.class) {
                     return o;
@@ -411,9 +444,20 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
      */
     @Override
     public void writeBytes(byte[] value, int offset, int length) throws JMSException {
-        byte[] buf = new byte[length];
-        System.arraycopy(value, offset, buf, 0, length);
-        writePrimitive(buf);
+        if (offset < 0 || length < 0 || offset + length > value.length)
+            throw new IndexOutOfBoundsException();
+        ObjectOutput out = this.writer();
+        try {
+            if (out instanceof CompactObjectOutput) {
+                ((CompactObjectOutput) out).writeValue(value, offset, length);
+            } else {
+                byte[] buf = new byte[length];
+                System.arraycopy(value, offset, buf, 0, length);
+                RMQMessage.writePrimitive(buf, out);
+            }
+        } catch (IOException x) {
+            throw new RMQJMSException(x);
+        }
     }
 
     /**
@@ -425,10 +469,15 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
     }
 
     private void writeObject(Object value, boolean allowSerializable) throws JMSException {
-        if (this.reading || isReadonlyBody())
-            throw new MessageNotWriteableException(NOT_WRITEABLE);
+        ObjectOutput out = this.writer();
         try {
-            RMQMessage.writePrimitive(value, this.out, allowSerializable);
+            if (out instanceof CompactObjectOutput) {
+                ((CompactObjectOutput) out).writeValue(value, allowSerializable);
+            } else {
+                RMQMessage.writePrimitive(value, out, allowSerializable);
+            }
+        } catch (NotSerializableException x) {
+            throw new MessageFormatException(value + " is not a recognized primitive type.");
         } catch (IOException x) {
             throw new RMQJMSException(x);
         }
@@ -439,28 +488,12 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
      */
     @Override
     public void reset() throws JMSException {
+        this.loadBody();
         this.readbuf = null;
 
-        if (this.reading) {
-            //if we already are reading, all we want to do is reset to the
-            //beginning of the stream
+        if (!this.reading) {
             try {
-                this.bin = new ByteArrayInputStream(buf);
-                this.in = new ObjectInputStream(this.bin);
-            } catch (IOException x) {
-                throw new RMQJMSException(x);
-            }
-        } else {
-            try {
-                buf = null;
-                if (this.out != null) {
-                    this.out.flush();
-                    buf = this.bout.toByteArray();
-                } else {
-                    buf = new byte[0];
-                }
-                this.bin = new ByteArrayInputStream(buf);
-                this.in = new ObjectInputStream(this.bin);
+                this.buf = this.writtenBytes();
             } catch (IOException x) {
                 throw new RMQJMSException(x);
             }
@@ -468,6 +501,13 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
             this.out = null;
             this.bout = null;
         }
+        //if we already are reading, all we want to do is reset to the
+        //beginning of the stream
+        try {
+            this.openReader();
+        } catch (IOException x) {
+            throw new RMQJMSException(x);
+        }
     }
 
     /**
@@ -475,12 +515,8 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
      */
     @Override
     public void clearBodyInternal() throws JMSException {
-        this.bout = new ByteArrayOutputStream(RMQMessage.DEFAULT_MESSAGE_BODY_SIZE);
-        try {
-            this.out = new ObjectOutputStream(this.bout);
-        } catch (IOException x) {
-            throw new RMQJMSException(x);
-        }
+        this.bout = null;
+        this.out = null;
         this.bin = null;
         this.in = null;
         this.buf = null;
@@ -488,13 +524,104 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
         this.reading = false;
     }
 
+    private byte[] writtenBytes() throws IOException {
+        if (this.bout == null) return new byte[0];
+        this.out.flush();
+        return this.bout.toByteArray();
+    }
+
+    /**
+     * @return whether the body held is in the object stream format, and so is sent without conversion in the original
+     *         message format
+     */
+    // package-private for testing
+    boolean holdsObjectStream() throws IOException {
+        return isObjectStream(this.reading ? this.buf : this.writtenBytes());
+    }
+
+    private void openReader() throws IOException {
+        this.bin = new ByteArrayInputStream(this.buf);
+        this.in = openReader(this.buf, this.bin);
+    }
+
+    /**
+     * @param b the body
+     * @param bin a stream over the body
+     * @return the stream to read the values of the body from, in whichever format it is
+     */
+    private static ObjectInput openReader(byte[] b, ByteArrayInputStream bin) throws IOException {
+        if (isObjectStream(b)) {
+            return new ObjectInputStream(bin);
+        }
+        if (b.length > 0 && bin.read() != TAGGED_FORMAT) {
+            throw new StreamCorruptedException("Unknown stream message format");
+        }
+        return new CompactObjectInput(bin, WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES);
+    }
+
+    private static boolean isObjectStream(byte[] b) {
+        return b.length >= 2
+            && b[0] == (byte) (ObjectOutputStream.STREAM_MAGIC >>> 8)
+            && b[1] == (byte) ObjectOutputStream.STREAM_MAGIC;
+    }
+
+    private static Object readValue(ObjectInput in) throws IOException, ClassNotFoundException {
+        if (in instanceof CompactObjectInput) {
+            return ((CompactObjectInput) in).readValue();
+        }
+        return RMQMessage.readPrimitive(in);
+    }
+
+    /**
+     * Rewrites a body in the other format.
+     * @param b the body
+     * @param toObjectStream whether to write the old, object stream, format, rather than tagged values
+     */
+    private static byte[] convert(byte[] b, boolean toObjectStream) throws IOException {
+        ByteArrayInputStream bin = new ByteArrayInputStream(b);
+        ObjectInput in = openReader(b, bin);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(b.length + 16);
+        ObjectOutput out;
+        if (toObjectStream) {
+            out = new ObjectOutputStream(bout);
+        } else {
+            bout.write(TAGGED_FORMAT);
+            out = new CompactObjectOutput(bout);
+        }
+        try {
+            while (true) {
+                Object o;
+                try {
+                    o = readValue(in);
+                } catch (EOFException x) {
+                    break;  // no more values, as an object stream may have read ahead
+                }
+                if (toObjectStream) {
+                    RMQMessage.writePrimitive(o, out, true);
+                } else {
+                    ((CompactObjectOutput) out).writeValue(o, true);
+                }
+            }
+        } catch (ClassNotFoundException x) {
+            throw new IOException(x);
+        } catch (MessageFormatException x) {
+            throw new IOException(x);
+        }
+        out.flush();
+        return bout.toByteArray();
+    }
+
     /**
      * {@inheritDoc}
+     * The values are written as tagged values in the compact message format, and in an object stream otherwise.
      */
     @Override
     protected void writeBody(ObjectOutput out, ByteArrayOutputStream bout) throws IOException {
-        this.out.flush();
-        byte[] buf = this.bout.toByteArray();
+        byte[] buf = this.reading ? this.buf : this.writtenBytes();  // if reading, a received message being sent on
+        boolean toObjectStream = !(out instanceof CompactObjectOutput);
+        if (toObjectStream != isObjectStream(buf)) {
+            buf = convert(buf, toObjectStream);
+        }
         out.writeInt(buf.length);
         out.write(buf);
     }
@@ -506,10 +633,9 @@ public class RMQStreamMessage extends RMQMessage implements StreamMessage {
     protected void readBody(ObjectInput inputStream, ByteArrayInputStream bin) throws IOException, ClassNotFoundException {
         int len = inputStream.readInt();
         buf = new byte[len];
-        inputStream.read(buf);
+        inputStream.readFully(buf);
         this.reading = true;
-        this.bin = new ByteArrayInputStream(buf);
-        this.in = new ObjectInputStream(this.bin);
+        this.openReader();
     }
 
     @Override
@@ -0,0 +1,122 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * {@link ByteArrayOutputStream} meant to be {@link #reset()} and reused for one piece of content after another, such
+ * as the messages a producer sends.
+ * <p>
+ * The buffer is kept between uses, so that content of the usual size is written without the buffer having to grow.
+ * Its size follows a high percentile of the sizes of recent content: it is grown to it on reset, and shrunk to it if a
+ * larger piece of content has left it much bigger. {@link #toByteArray()} hands over the buffer itself, instead of a
+ * copy, when the content fills it exactly.
+ * </p>
+ * <p>
+ * Like {@link ByteArrayOutputStream}, the methods are synchronized, but a caller writing a piece of content must also
+ * hold the lock from {@link #reset()} to {@link #toByteArray()} if the stream is shared.
+ * </p>
+ */
+public class AdaptiveByteArrayOutputStream extends ByteArrayOutputStream {
+
+    /** The number of recent sizes kept */
+    private static final int SAMPLES = 64;
+    /** How often the size of the buffer is recalculated, in pieces of content */
+    private static final int RESIZE_INTERVAL = 16;
+    /** The percentile of recent sizes the buffer is sized to */
+    private static final int PERCENTILE = 90;
+    /** The buffer is shrunk once it is this many times the size it should be */
+    private static final int SHRINK_FACTOR = 4;
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final int minimumSize;
+    private final int[] sizes = new int[SAMPLES];
+    private int samples = 0;
+    private int targetSize;
+
+    /**
+     * @param minimumSize the size of the buffer until sizes have been seen, and the smallest it is ever made
+     */
+    public AdaptiveByteArrayOutputStream(int minimumSize) {
+        super(minimumSize);
+        this.minimumSize = minimumSize;
+        this.targetSize = minimumSize;
+    }
+
+    /**
+     * Discards the content, ready for the next, and sizes the buffer for it.
+     */
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        if (this.buf.length < this.targetSize || this.buf.length > this.targetSize * SHRINK_FACTOR) {
+            this.buf = new byte[this.targetSize];
+        }
+    }
+
+    /**
+     * Returns the content, and records its size. The array returned is the buffer itself if the content fills it
+     * exactly, in which case a new buffer is made for the next content.
+     */
+    @Override
+    public synchronized byte[] toByteArray() {
+        this.recordSize(this.count);
+        if (this.count == this.buf.length) {
+            byte[] content = this.buf;
+            this.buf = NO_BYTES;
+            this.count = 0;
+            return content;
+        }
+        return Arrays.copyOf(this.buf, this.count);
+    }
+
+    /**
+     * @return the size the buffer is made for the next content
+     */
+    public synchronized int getTargetSize() {
+        return this.targetSize;
+    }
+
+    /**
+     * Moves the last <code>length</code> bytes of the content to <code>position</code>, and the content from there on
+     * after them, so that a prefix can be written after what it prefixes once its value is known.
+     * @param position where in the content to move the bytes to
+     * @param length how many bytes, from the end of the content, to move
+     */
+    public synchronized void moveTail(int position, int length) {
+        if (position < 0 || length < 0 || position + length > this.count) {
+            throw new IndexOutOfBoundsException(String.format("cannot move %d bytes to %d in %d", length, position, this.count));
+        }
+        // rotating by reversals moves the bytes in place
+        reverse(this.buf, position, this.count - length);
+        reverse(this.buf, this.count - length, this.count);
+        reverse(this.buf, position, this.count);
+    }
+
+    private static void reverse(byte[] b, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            byte t = b[i];
+            b[i] = b[j];
+            b[j] = t;
+        }
+    }
+
+    /**
+     * Records the size of a piece of content which was not written to this stream, such as a message body sent as it
+     * is, so that the buffer is still sized for the content it serves.
+     * @param size the size of the content
+     */
+    public synchronized void recordSize(int size) {
+        this.sizes[this.samples % SAMPLES] = size;
+        this.samples++;
+        if (this.samples % RESIZE_INTERVAL == 0) {
+            int[] recent = Arrays.copyOf(this.sizes, Math.min(this.samples, SAMPLES));
+            Arrays.sort(recent);
+            int percentile = recent[(recent.length * PERCENTILE - 1) / 100];
+            this.targetSize = Math.max(this.minimumSize, percentile);
+        }
+        if (this.samples == 2 * SAMPLES) this.samples = SAMPLES;  // keep the count from overflowing, once the samples are full
+    }
+}
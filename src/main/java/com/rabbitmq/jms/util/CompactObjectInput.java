@@ -0,0 +1,139 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.StreamCorruptedException;
+import java.util.List;
+
+import com.rabbitmq.jms.admin.RMQDestination;
+
+/**
+ * {@link ObjectInput} for the compact message encoding written by {@link CompactObjectOutput}.
+ * <p>
+ * Meant for reading from a {@link ByteArrayInputStream}. Reads no further than it is asked to, so what follows in the
+ * underlying stream may be read directly from it.
+ * Objects are deserialized with a {@link WhiteListObjectInputStream}.
+ * </p>
+ */
+public class CompactObjectInput extends DataInputStream implements ObjectInput {
+
+    private final List<String> trustedPackages;
+
+    /**
+     * @param in the stream to read from
+     * @param trustedPackages prefixes of packages that are trusted to be safe to deserialize
+     */
+    public CompactObjectInput(InputStream in, List<String> trustedPackages) {
+        super(in);
+        this.trustedPackages = trustedPackages;
+    }
+
+    public int readVarInt() throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = this.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new StreamCorruptedException("Malformed variable-length int");
+    }
+
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = this.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new StreamCorruptedException("Malformed variable-length long");
+    }
+
+    public String readString() throws IOException {
+        return new String(this.readByteArray(), CompactObjectOutput.UTF8);
+    }
+
+    public byte[] readByteArray() throws IOException {
+        int len = this.readVarInt();
+        if (len < 0 || len > this.available()) throw new EOFException("Array length " + len + " runs past the end of the data");
+        byte[] b = new byte[len];
+        this.readFully(b);
+        return b;
+    }
+
+    /**
+     * Reads a value written by {@link CompactObjectOutput#writeValue(Object, boolean)}.
+     */
+    public Object readValue() throws IOException, ClassNotFoundException {
+        int tag = this.readUnsignedByte();
+        switch (tag) {
+        case CompactObjectOutput.NULL:
+            return null;
+        case CompactObjectOutput.TRUE:
+            return Boolean.TRUE;
+        case CompactObjectOutput.FALSE:
+            return Boolean.FALSE;
+        case CompactObjectOutput.BYTE:
+            return this.readByte();
+        case CompactObjectOutput.SHORT:
+            return this.readShort();
+        case CompactObjectOutput.INT: {
+            int i = this.readVarInt();
+            return (i >>> 1) ^ -(i & 1);
+        }
+        case CompactObjectOutput.LONG: {
+            long l = this.readVarLong();
+            return (l >>> 1) ^ -(l & 1);
+        }
+        case CompactObjectOutput.FLOAT:
+            return this.readFloat();
+        case CompactObjectOutput.DOUBLE:
+            return this.readDouble();
+        case CompactObjectOutput.STRING:
+            return this.readString();
+        case CompactObjectOutput.CHAR:
+            return this.readChar();
+        case CompactObjectOutput.BYTES:
+            return this.readByteArray();
+        case CompactObjectOutput.DESTINATION:
+            return this.readDestination();
+        case CompactObjectOutput.SERIALIZABLE:
+            return this.readObject();
+        default:
+            throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+
+    private RMQDestination readDestination() throws IOException {
+        int flags = this.readUnsignedByte();
+        String name = this.readNullableString();
+        RMQDestination d = new RMQDestination(name,
+                                              (flags & CompactObjectOutput.DESTINATION_QUEUE) != 0,
+                                              (flags & CompactObjectOutput.DESTINATION_TEMPORARY) != 0);
+        if ((flags & CompactObjectOutput.DESTINATION_AMQP) != 0) {
+            d.setAmqp(true);
+            d.setQueue((flags & CompactObjectOutput.DESTINATION_QUEUE) != 0);
+        }
+        d.setAmqpExchangeName(this.readNullableString());
+        d.setAmqpRoutingKey(this.readNullableString());
+        d.setAmqpQueueName(this.readNullableString());
+        return d;
+    }
+
+    private String readNullableString() throws IOException {
+        return (this.readUnsignedByte() == CompactObjectOutput.NULL) ? null : this.readString();
+    }
+
+    /**
+     * Reads an object written by {@link CompactObjectOutput#writeObject(Object)}, provided its classes are trusted.
+     */
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+        WhiteListObjectInputStream in = new WhiteListObjectInputStream(new ByteArrayInputStream(this.readByteArray()), this.trustedPackages);
+        return in.readObject();
+    }
+}
@@ -0,0 +1,190 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+import com.rabbitmq.jms.admin.RMQDestination;
+
+/**
+ * {@link ObjectOutput} for the compact message encoding, read by {@link CompactObjectInput}.
+ * <p>
+ * Primitives are written as by {@link DataOutputStream}, with no framing, and this adds variable-length integers,
+ * strings prefixed with their UTF-8 length, and tagged values. An object is written as its Java serialization, in a
+ * stream of its own, prefixed with its length.
+ * </p>
+ */
+public class CompactObjectOutput extends DataOutputStream implements ObjectOutput {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* Value tags, see writeValue(). Values may only be added. */
+    static final int NULL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int BYTE = 3;
+    static final int SHORT = 4;
+    static final int INT = 5;
+    static final int LONG = 6;
+    static final int FLOAT = 7;
+    static final int DOUBLE = 8;
+    static final int STRING = 9;
+    static final int CHAR = 10;
+    static final int BYTES = 11;
+    static final int DESTINATION = 12;
+    static final int SERIALIZABLE = 13;
+
+    /* Flags of a destination */
+    static final int DESTINATION_AMQP = 1;
+    static final int DESTINATION_QUEUE = 2;
+    static final int DESTINATION_TEMPORARY = 4;
+
+    public CompactObjectOutput(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Writes an unsigned integer in one to five bytes, seven bits at a time, least significant first.
+     */
+    public void writeVarInt(int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            this.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        this.write(v);
+    }
+
+    /**
+     * Writes an unsigned long in one to ten bytes, seven bits at a time, least significant first.
+     */
+    public void writeVarLong(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            this.write((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        this.write((int) v);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length then its UTF-8 bytes. Unlike {@link #writeUTF(String)}, the length is not
+     * limited to 65535 bytes.
+     * @param s the string, not <code>null</code>
+     */
+    public void writeString(String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        this.writeVarInt(b.length);
+        this.write(b);
+    }
+
+    /**
+     * Writes a byte array prefixed with its length.
+     */
+    public void writeByteArray(byte[] b, int off, int len) throws IOException {
+        this.writeVarInt(len);
+        this.write(b, off, len);
+    }
+
+    /**
+     * Writes a value as a one byte tag followed by its encoding: the primitive wrappers, {@link String},
+     * <code>byte[]</code>, <code>null</code>, and, if allowed, {@link RMQDestination} and any other
+     * {@link Serializable}. Integers and longs are written zig-zag encoded as variable-length integers.
+     * @param v the value
+     * @param allowSerializable whether values other than primitives, strings and byte arrays may be written
+     * @throws NotSerializableException if the value is of a type which cannot be written
+     */
+    public void writeValue(Object v, boolean allowSerializable) throws IOException {
+        if (v == null) {
+            this.write(NULL);
+        } else if (v instanceof String) {
+            this.write(STRING);
+            this.writeString((String) v);
+        } else if (v instanceof Integer) {
+            this.write(INT);
+            int i = (Integer) v;
+            this.writeVarInt((i << 1) ^ (i >> 31));
+        } else if (v instanceof Long) {
+            this.write(LONG);
+            long l = (Long) v;
+            this.writeVarLong((l << 1) ^ (l >> 63));
+        } else if (v instanceof Boolean) {
+            this.write((Boolean) v ? TRUE : FALSE);
+        } else if (v instanceof Byte) {
+            this.write(BYTE);
+            this.writeByte((Byte) v);
+        } else if (v instanceof Short) {
+            this.write(SHORT);
+            this.writeShort((Short) v);
+        } else if (v instanceof Float) {
+            this.write(FLOAT);
+            this.writeFloat((Float) v);
+        } else if (v instanceof Double) {
+            this.write(DOUBLE);
+            this.writeDouble((Double) v);
+        } else if (v instanceof Character) {
+            this.write(CHAR);
+            this.writeChar((Character) v);
+        } else if (v instanceof byte[]) {
+            byte[] b = (byte[]) v;
+            this.write(BYTES);
+            this.writeByteArray(b, 0, b.length);
+        } else if (allowSerializable && v.getClass() == RMQDestination.class) {
+            this.write(DESTINATION);
+            this.writeDestination((RMQDestination) v);
+        } else if (allowSerializable && v instanceof Serializable) {
+            this.write(SERIALIZABLE);
+            this.writeObject(v);
+        } else {
+            throw new NotSerializableException(v.getClass().getName());
+        }
+    }
+
+    /**
+     * Writes part of a byte array as a tagged value, as {@link #writeValue(Object, boolean)} writes a whole one.
+     */
+    public void writeValue(byte[] b, int off, int len) throws IOException {
+        this.write(BYTES);
+        this.writeByteArray(b, off, len);
+    }
+
+    /**
+     * A destination is written field by field, rather than serialized, as every message carries one.
+     */
+    private void writeDestination(RMQDestination d) throws IOException {
+        this.write((d.isAmqp() ? DESTINATION_AMQP : 0)
+                 | (d.isQueue() ? DESTINATION_QUEUE : 0)
+                 | (d.isTemporary() ? DESTINATION_TEMPORARY : 0));
+        this.writeNullableString(d.getDestinationName());
+        this.writeNullableString(d.getAmqpExchangeName());
+        this.writeNullableString(d.getAmqpRoutingKey());
+        this.writeNullableString(d.getAmqpQueueName());
+    }
+
+    private void writeNullableString(String s) throws IOException {
+        if (s == null) {
+            this.write(NULL);
+        } else {
+            this.write(STRING);
+            this.writeString(s);
+        }
+    }
+
+    /**
+     * Writes the Java serialization of an object, prefixed with its length.
+     */
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(obj);
+        out.flush();
+        this.writeVarInt(bout.size());
+        bout.writeTo(this);
+    }
+}
@@ -0,0 +1,29 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ByteArrayInputStream} whose remaining bytes can be taken without copying them.
+ */
+public class RMQByteArrayInputStream extends ByteArrayInputStream {
+
+    public RMQByteArrayInputStream(byte[] buf) {
+        super(buf);
+    }
+
+    public RMQByteArrayInputStream(byte[] buf, int offset, int length) {
+        super(buf, offset, length);
+    }
+
+    /**
+     * Reads the rest of the stream.
+     * @return a buffer over the remaining bytes, starting at position zero, which shares them rather than copying them
+     */
+    public synchronized ByteBuffer readRemaining() {
+        ByteBuffer remaining = ByteBuffer.wrap(this.buf, this.pos, this.count - this.pos).slice();
+        this.pos = this.count;
+        return remaining;
+    }
+}
@@ -3,6 +3,7 @@ package com.rabbitmq.jms.util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.jms.JMSException;
 import javax.jms.MessageFormatException;
@@ -13,6 +14,14 @@ public class RMQByteArrayOutputStream extends ByteArrayOutputStream {
         super(size);
     }
 
+    /**
+     * @return a buffer over the bytes written, which shares them rather than copying them, so nothing more may be
+     * written to this stream
+     */
+    public synchronized ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(this.buf, 0, this.count);
+    }
+
     public void writeBoolean(boolean value) throws JMSException {
         this.write((byte) (value ? 1 : 0));
     }
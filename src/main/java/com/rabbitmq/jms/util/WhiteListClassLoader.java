@@ -0,0 +1,55 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.util;
+
+import java.util.List;
+
+/**
+ * A {@link ClassLoader} that checks the classes it loads against a list of trusted packages or package prefixes, as
+ * {@link WhiteListObjectInputStream} does.
+ * <p>
+ * Classes are loaded by the parent loader, and refused with a {@link ClassNotFoundException} if not trusted. It is
+ * given to deserializers other than Java serialization, so that every class they resolve is checked before it is
+ * instantiated.
+ * </p>
+ */
+public class WhiteListClassLoader extends ClassLoader {
+
+    private final List<String> trustedPackages;
+
+    /**
+     * @param parent          loader the classes are loaded by
+     * @param trustedPackages prefixes of packages that are trusted to be safe to deserialize
+     */
+    public WhiteListClassLoader(ClassLoader parent, List<String> trustedPackages) {
+        super(parent);
+        this.trustedPackages = trustedPackages;
+    }
+
+    /**
+     * Creates a loader which loads classes through the context class loader of the current thread, or the loader of
+     * this class if there is none.
+     * @param trustedPackages prefixes of packages that are trusted to be safe to deserialize
+     */
+    public WhiteListClassLoader(List<String> trustedPackages) {
+        this(contextClassLoader(), trustedPackages);
+    }
+
+    private static ClassLoader contextClassLoader() {
+        ClassLoader threadLoader = Thread.currentThread().getContextClassLoader();
+        return threadLoader == null ? WhiteListClassLoader.class.getClassLoader() : threadLoader;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> clazz = super.loadClass(name, resolve);
+        WhiteListObjectInputStream.checkTrusted(clazz, this.trustedPackages);
+        return clazz;
+    }
+
+    /**
+     * @return list of packages trusted for deserialization
+     */
+    public List<String> getTrustedPackages() {
+        return this.trustedPackages;
+    }
+}
@@ -200,18 +200,34 @@ public class WhiteListObjectInputStream extends ObjectInputStream {
      * be trusted, false otherwise
      */
     public boolean shouldTrustAllPackages() {
-        return (this.trustedPackages != null) && (trustedPackages.size() == 1 && trustedPackages.get(0).equals("*"));
+        return trustsAllPackages(this.trustedPackages);
     }
 
     private void checkWhiteList(Class clazz) throws ClassNotFoundException {
+        checkTrusted(clazz, this.trustedPackages);
+    }
+
+    private static boolean trustsAllPackages(List<String> trustedPackages) {
+        return (trustedPackages != null) && (trustedPackages.size() == 1 && trustedPackages.get(0).equals("*"));
+    }
+
+    /**
+     * Checks a class against a list of trusted packages, as this stream checks the classes it loads. Deserializers
+     * other than this stream can use it to apply the same check.
+     *
+     * @param clazz           class about to be deserialized
+     * @param trustedPackages prefixes of packages that are trusted to be safe to deserialize
+     * @throws ClassNotFoundException if the class isn't trusted
+     */
+    public static void checkTrusted(Class<?> clazz, List<String> trustedPackages) throws ClassNotFoundException {
         if (clazz.isPrimitive()) {
             return;
         }
 
-        if (clazz.getPackage() != null && !shouldTrustAllPackages()) {
+        if (clazz.getPackage() != null && !trustsAllPackages(trustedPackages)) {
             boolean result = false;
             String p = clazz.getPackage().getName();
-            for (String pkg : this.trustedPackages) {
+            for (String pkg : trustedPackages) {
                 // Note: this means that an empty string works the same way as "*"
                 //       but making it mean "trust no package" makes even less sense
                 if (p.equals(pkg) || p.startsWith(pkg)) {
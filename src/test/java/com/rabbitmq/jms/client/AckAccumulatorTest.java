@@ -0,0 +1,62 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ */
+public class AckAccumulatorTest {
+
+    RMQSession session;
+
+    @Before public void init() {
+        session = Mockito.mock(RMQSession.class);
+    }
+
+    @Test public void fullBatchIsAcknowledgedWithOneMultipleAck() {
+        AckAccumulator accumulator = new AckAccumulator(session, 3, 10000);
+        accumulator.ack(1);
+        accumulator.ack(2);
+        verify(session, never()).explicitAck(anyLong(), anyBoolean());
+
+        accumulator.ack(3);
+        verify(session).explicitAck(3, true);
+    }
+
+    @Test public void partialBatchIsAcknowledgedAfterTimeout() {
+        AckAccumulator accumulator = new AckAccumulator(session, 100, 20);
+        accumulator.ack(1);
+        accumulator.ack(2);
+        verify(session, timeout(1000)).explicitAck(2, true);
+    }
+
+    @Test public void flushAcknowledgesOnlyWhatIsPending() {
+        AckAccumulator accumulator = new AckAccumulator(session, 100, 10000);
+        accumulator.flush();
+        verify(session, never()).explicitAck(anyLong(), anyBoolean());
+
+        accumulator.ack(5);
+        accumulator.flush();
+        accumulator.flush();
+        verify(session).explicitAck(5, true);
+    }
+
+    @Test public void batchIsKeptBelowThePrefetchLimits() {
+        assertEquals(10, AckAccumulator.batchSizeBelowPrefetch(10, 0, 0));
+        assertEquals(10, AckAccumulator.batchSizeBelowPrefetch(10, 11, 0));
+        assertEquals(9, AckAccumulator.batchSizeBelowPrefetch(10, 10, 0));
+        assertEquals(4, AckAccumulator.batchSizeBelowPrefetch(10, 0, 5));
+        assertEquals(4, AckAccumulator.batchSizeBelowPrefetch(10, 20, 5));
+        assertEquals(0, AckAccumulator.batchSizeBelowPrefetch(10, 1, 0));
+    }
+}
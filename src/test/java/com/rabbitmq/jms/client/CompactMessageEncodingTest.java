@@ -0,0 +1,307 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.LongStringHelper;
+import com.rabbitmq.jms.admin.RMQDestination;
+import com.rabbitmq.jms.client.message.RMQBytesMessage;
+import com.rabbitmq.jms.client.message.RMQMapMessage;
+import com.rabbitmq.jms.client.message.RMQObjectMessage;
+import com.rabbitmq.jms.client.message.RMQStreamMessage;
+import com.rabbitmq.jms.client.message.RMQTextMessage;
+import com.rabbitmq.jms.util.AdaptiveByteArrayOutputStream;
+import com.rabbitmq.jms.util.WhiteListObjectInputStream;
+import org.junit.Test;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class CompactMessageEncodingTest {
+
+    static final List<String> TRUSTED = WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES;
+
+    private static <M extends RMQMessage> M withProperties(M message) throws Exception {
+        message.setStringProperty("colour", "blue");
+        message.setIntProperty("size", -42);
+        message.setLongProperty("big", Long.MAX_VALUE);
+        message.setBooleanProperty("flag", true);
+        message.setDoubleProperty("ratio", 0.25);
+        message.setJMSDeliveryMode(DeliveryMode.PERSISTENT);
+        message.setJMSPriority(7);
+        message.setJMSTimestamp(1000L);
+        message.setJMSCorrelationID("corr");
+        message.setJMSDestination(new RMQDestination("compact", true, false));
+        message.setJMSReplyTo(new RMQDestination("reply", "exchange", "routing", "queue"));
+        message.generateInternalID();
+        return message;
+    }
+
+    private static void assertProperties(RMQMessage sent, RMQMessage received) throws Exception {
+        assertEquals(sent.getClass(), received.getClass());
+        assertEquals(sent.getInternalID(), received.getInternalID());
+        assertEquals(sent.getJMSMessageID(), received.getJMSMessageID());
+        assertEquals("blue", received.getStringProperty("colour"));
+        assertEquals(-42, received.getIntProperty("size"));
+        assertEquals(Long.MAX_VALUE, received.getLongProperty("big"));
+        assertTrue(received.getBooleanProperty("flag"));
+        assertEquals(0.25, received.getDoubleProperty("ratio"), 0.0);
+        assertEquals(DeliveryMode.PERSISTENT, received.getJMSDeliveryMode());
+        assertEquals(7, received.getJMSPriority());
+        assertEquals("corr", received.getJMSCorrelationID());
+        assertEquals(new RMQDestination("compact", true, false), received.getJMSDestination());
+        RMQDestination replyTo = (RMQDestination) received.getJMSReplyTo();
+        assertTrue(replyTo.isAmqp());
+        assertEquals("exchange", replyTo.getAmqpExchangeName());
+        assertEquals("routing", replyTo.getAmqpRoutingKey());
+        assertEquals("queue", replyTo.getAmqpQueueName());
+    }
+
+    private static List<RMQMessage> messagesOfEveryType() throws Exception {
+        RMQTextMessage text = withProperties(new RMQTextMessage());
+        text.setText("héllo");
+        RMQBytesMessage bytes = withProperties(new RMQBytesMessage());
+        bytes.writeBytes(new byte[] { 1, 2, 3 });
+        RMQMapMessage map = withProperties(new RMQMapMessage());
+        map.setString("symbol", "RMQ");
+        map.setBytes("raw", new byte[] { 4, 5 });
+        RMQObjectMessage object = withProperties(new RMQObjectMessage());
+        object.setObject(new Date(1234L));
+        RMQStreamMessage stream = withProperties(new RMQStreamMessage());
+        stream.writeString("tick");
+        stream.writeLong(99L);
+        RMQNullMessage none = withProperties(new RMQNullMessage());
+        return Arrays.<RMQMessage>asList(text, bytes, map, object, stream, none);
+    }
+
+    private static void assertBody(RMQMessage received) throws JMSException {
+        if (received instanceof RMQTextMessage) {
+            assertEquals("héllo", ((RMQTextMessage) received).getText());
+        } else if (received instanceof RMQBytesMessage) {
+            byte[] body = new byte[4];
+            assertEquals(3, ((RMQBytesMessage) received).readBytes(body));
+            assertArrayEquals(new byte[] { 1, 2, 3, 0 }, body);
+        } else if (received instanceof RMQMapMessage) {
+            assertEquals("RMQ", ((RMQMapMessage) received).getString("symbol"));
+            assertArrayEquals(new byte[] { 4, 5 }, ((RMQMapMessage) received).getBytes("raw"));
+        } else if (received instanceof RMQObjectMessage) {
+            assertEquals(new Date(1234L), ((RMQObjectMessage) received).getObject());
+        } else if (received instanceof RMQStreamMessage) {
+            assertEquals("tick", ((RMQStreamMessage) received).readString());
+            assertEquals(99L, ((RMQStreamMessage) received).readLong());
+        }
+    }
+
+    @Test public void everyMessageTypeRoundTripsInBothFormats() throws Exception {
+        for (boolean compact : new boolean[] { false, true }) {
+            for (RMQMessage sent : messagesOfEveryType()) {
+                byte[] b = sent.toByteArray(compact);
+                RMQMessage eager = RMQMessage.fromMessage(b, TRUSTED);
+                assertProperties(sent, eager);
+                assertBody(eager);
+                RMQMessage lazy = RMQMessage.fromMessageLazily(b, TRUSTED);
+                assertBody(lazy);
+                assertProperties(sent, lazy);
+            }
+        }
+    }
+
+    @Test public void propertiesOfAnyLengthRoundTrip() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int length : new int[] { 0, 200, 20000 }) {
+            while (value.length() < length) value.append('x');
+            for (RMQMessage sent : messagesOfEveryType()) {
+                sent.setStringProperty("long", value.toString());
+                AdaptiveByteArrayOutputStream bout = new AdaptiveByteArrayOutputStream(16);
+                bout.reset();
+                RMQMessage received = RMQMessage.fromMessage(sent.toByteArray(true, false, bout), TRUSTED);
+                assertProperties(sent, received);
+                assertEquals(value.toString(), received.getStringProperty("long"));
+                assertBody(received);
+            }
+        }
+    }
+
+    @Test public void compactFormatIsSmaller() throws Exception {
+        for (RMQMessage sent : messagesOfEveryType()) {
+            int serialized = sent.toByteArray(false).length;
+            int compact = sent.toByteArray(true).length;
+            assertTrue(sent.getClass().getSimpleName() + ": " + compact + " >= " + serialized, compact < serialized);
+        }
+    }
+
+    @Test public void defaultFormatIsJavaSerialization() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        sent.setText("hello");
+        byte[] b = ((RMQMessage) sent).toByteArray();
+        assertEquals((byte) 0xAC, b[0]);
+        assertEquals((byte) 0xED, b[1]);
+        assertArrayEquals(b, ((RMQMessage) sent).toByteArray(false));
+    }
+
+    @Test public void forwardedBodyIsConvertedToTheFormatSent() throws Exception {
+        for (boolean receivedCompact : new boolean[] { false, true }) {
+            for (boolean forwardedCompact : new boolean[] { false, true }) {
+                for (RMQMessage sent : messagesOfEveryType()) {
+                    RMQMessage received = RMQMessage.fromMessageLazily(sent.toByteArray(receivedCompact), TRUSTED);
+                    received.setJMSPriority(3);
+                    received.generateInternalID();
+
+                    RMQMessage forwarded = RMQMessage.fromMessage(received.toByteArray(forwardedCompact), TRUSTED);
+                    assertEquals(3, forwarded.getJMSPriority());
+                    assertEquals("blue", forwarded.getStringProperty("colour"));
+                    assertBody(forwarded);
+                }
+            }
+        }
+    }
+
+    @Test public void unsupportedVersionIsRejected() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        byte[] b = ((RMQMessage) sent).toByteArray(true);
+        b[2] = 99;
+        try {
+            RMQMessage.fromMessageLazily(b, TRUSTED);
+            fail("unknown format version must not decode");
+        } catch (JMSException e) {
+            // expected
+        }
+    }
+
+    @Test public void nullTextRoundTrips() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        RMQMessage received = RMQMessage.fromMessage(((RMQMessage) sent).toByteArray(true), TRUSTED);
+        assertNull(((RMQTextMessage) received).getText());
+    }
+
+    /** The headers as a consumer receives them, with strings as long strings */
+    private static Map<String, Object> receivedHeaders(Map<String, Object> headers) {
+        Map<String, Object> received = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> e : headers.entrySet()) {
+            Object v = e.getValue();
+            received.put(e.getKey(), v instanceof String ? LongStringHelper.asLongString((String) v) : v);
+        }
+        return received;
+    }
+
+    private static AMQP.BasicProperties withHeaders(Map<String, Object> headers) {
+        return new AMQP.BasicProperties.Builder().headers(headers).build();
+    }
+
+    @Test public void propertiesInHeadersRoundTrip() throws Exception {
+        for (RMQMessage sent : messagesOfEveryType()) {
+            sent.setJMSType("tick");
+            byte[] b = sent.toByteArray(true, true);
+            RMQMessage received = RMQMessage.fromMessageLazily(b, TRUSTED, withHeaders(receivedHeaders(sent.toHeaders())));
+            assertProperties(sent, received);
+            assertEquals("tick", received.getJMSType());
+            assertEquals(sent.getJMSTimestamp(), received.getJMSTimestamp());
+            assertBody(received);
+        }
+    }
+
+    @Test public void propertiesInHeadersAreNotRepeated() throws Exception {
+        for (RMQMessage sent : messagesOfEveryType()) {
+            for (int i = 0; i < 10; i++) sent.setStringProperty("property" + i, "value" + i);
+            int repeated = sent.toByteArray(true, false).length;
+            int once = sent.toByteArray(true, true).length;
+            assertTrue(sent.getClass().getSimpleName() + ": " + once + " >= " + repeated, once + 200 < repeated);
+        }
+    }
+
+    @Test public void headersOfOtherTypesAreNotProperties() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        Map<String, Object> headers = receivedHeaders(((RMQMessage) sent).toHeaders());
+        headers.put("x-death", Collections.singletonList(Collections.singletonMap("count", 1L)));
+        RMQMessage received = RMQMessage.fromMessageLazily(((RMQMessage) sent).toByteArray(true, true), TRUSTED, withHeaders(headers));
+        assertFalse(received.propertyExists("x-death"));
+        assertEquals("blue", received.getStringProperty("colour"));
+    }
+
+    @Test public void deadLetteringHeadersAreNotProperties() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        Map<String, Object> headers = receivedHeaders(((RMQMessage) sent).toHeaders());
+        Map<String, Object> death = new HashMap<String, Object>();
+        death.put("count", 1L);
+        death.put("reason", LongStringHelper.asLongString("rejected"));
+        death.put("queue", LongStringHelper.asLongString("compact"));
+        headers.put("x-death", Collections.singletonList(death));
+        headers.put("x-first-death-queue", LongStringHelper.asLongString("compact"));
+        headers.put("x-first-death-reason", LongStringHelper.asLongString("rejected"));
+        headers.put("x-first-death-exchange", LongStringHelper.asLongString(""));
+        headers.put("CC", Collections.singletonList(LongStringHelper.asLongString("other")));
+        RMQMessage received = RMQMessage.fromMessageLazily(((RMQMessage) sent).toByteArray(true, true), TRUSTED, withHeaders(headers));
+        assertFalse(received.propertyExists("x-death"));
+        assertFalse(received.propertyExists("x-first-death-queue"));
+        assertFalse(received.propertyExists("x-first-death-reason"));
+        assertFalse(received.propertyExists("x-first-death-exchange"));
+        assertFalse(received.propertyExists("CC"));
+        for (Enumeration<?> names = received.getPropertyNames(); names.hasMoreElements(); ) {
+            assertFalse(((String) names.nextElement()).startsWith("x-"));
+        }
+        assertProperties(sent, received);
+    }
+
+    @Test public void propertiesNamedAsReservedHeadersRoundTrip() throws Exception {
+        for (RMQMessage sent : messagesOfEveryType()) {
+            sent.setStringProperty("x-region", "eu");
+            sent.setStringProperty("CC", "ops");
+            sent.setStringProperty("BCC", "audit");
+            sent.setStringProperty("plain", "ok");
+            Map<String, Object> headers = sent.toHeaders();
+            assertFalse(headers.containsKey("x-region"));
+            assertFalse(headers.containsKey("CC"));
+            assertFalse(headers.containsKey("BCC"));
+            RMQMessage received = RMQMessage.fromMessageLazily(sent.toByteArray(true, true), TRUSTED, withHeaders(receivedHeaders(headers)));
+            assertEquals("eu", received.getStringProperty("x-region"));
+            assertEquals("ops", received.getStringProperty("CC"));
+            assertEquals("audit", received.getStringProperty("BCC"));
+            assertEquals("ok", received.getStringProperty("plain"));
+            assertProperties(sent, received);
+            assertBody(received);
+        }
+    }
+
+    @Test public void headersAreIgnoredUnlessPropertiesAreLeftOut() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        Map<String, Object> headers = receivedHeaders(((RMQMessage) sent).toHeaders());
+        headers.put("added", LongStringHelper.asLongString("on the way"));
+        headers.put("JMSPriority", 1);
+        RMQMessage received = RMQMessage.fromMessageLazily(((RMQMessage) sent).toByteArray(true, false), TRUSTED, withHeaders(headers));
+        assertFalse(received.propertyExists("added"));
+        assertEquals(7, received.getJMSPriority());
+    }
+
+    @Test public void jmsHeadersAreReadFromAmqpProperties() throws Exception {
+        RMQTextMessage sent = withProperties(new RMQTextMessage());
+        sent.setJMSType("tick");
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+            .headers(receivedHeaders(((RMQMessage) sent).toHeaders(false)))
+            .deliveryMode(2)
+            .priority(7)
+            .messageId(sent.getJMSMessageID())
+            .correlationId("corr")
+            .type("tick")
+            .build();
+        RMQMessage received = RMQMessage.fromMessageLazily(((RMQMessage) sent).toByteArray(true, true), TRUSTED, props);
+        assertProperties(sent, received);
+        assertEquals("tick", received.getJMSType());
+        assertEquals(1000L, received.getJMSTimestamp());
+    }
+}
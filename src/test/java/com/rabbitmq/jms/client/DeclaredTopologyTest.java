@@ -0,0 +1,51 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DeclaredTopologyTest {
+
+    @Test public void declarationsAreKeyedByArguments() {
+        DeclaredTopology topology = new DeclaredTopology();
+        topology.exchangeDeclared("jms.durable.queues", "direct", true);
+        topology.queueDeclared("q", true);
+
+        assertTrue(topology.isExchangeDeclared("jms.durable.queues", "direct", true));
+        assertFalse(topology.isExchangeDeclared("jms.durable.queues", "direct", false));
+        assertFalse(topology.isExchangeDeclared("jms.durable.queues", "topic", true));
+        assertTrue(topology.isQueueDeclared("q", true));
+        assertFalse(topology.isQueueDeclared("q", false));
+    }
+
+    @Test public void deletingQueueForgetsItsBindings() {
+        DeclaredTopology topology = new DeclaredTopology();
+        topology.queueDeclared("q", true);
+        topology.bindingDeclared("q", "x", "q");
+        topology.queueDeclared("other", true);
+        topology.bindingDeclared("other", "x", "other");
+
+        topology.queueDeleted("q");
+        assertFalse(topology.isQueueDeclared("q", true));
+        assertFalse(topology.isBindingDeclared("q", "x", "q"));
+        assertTrue(topology.isQueueDeclared("other", true));
+        assertTrue(topology.isBindingDeclared("other", "x", "other"));
+    }
+
+    @Test public void recoveryClearsEverything() {
+        DeclaredTopology topology = new DeclaredTopology();
+        topology.exchangeDeclared("x", "topic", true);
+        topology.queueDeclared("q", true);
+        topology.bindingDeclared("q", "x", "q");
+
+        topology.handleRecoveryStarted(null);
+        assertFalse(topology.isExchangeDeclared("x", "topic", true));
+        assertFalse(topology.isQueueDeclared("q", true));
+        assertFalse(topology.isBindingDeclared("q", "x", "q"));
+    }
+}
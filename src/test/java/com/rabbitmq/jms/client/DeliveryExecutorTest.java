@@ -0,0 +1,76 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.jms.client.message.RMQTextMessage;
+import com.rabbitmq.jms.util.RMQJMSException;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class DeliveryExecutorTest {
+
+    DeliveryExecutor executor = new DeliveryExecutor(100, true);
+
+    @After public void tearDown() {
+        executor.close();
+    }
+
+    @Test public void inlineDeliveryRunsOnCallingThread() throws Exception {
+        final AtomicReference<Thread> listenerThread = new AtomicReference<Thread>();
+        executor.deliverMessageWithProtection(new RMQTextMessage(), new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                listenerThread.set(Thread.currentThread());
+            }
+        });
+        assertSame(Thread.currentThread(), listenerThread.get());
+    }
+
+    @Test public void inlineDeliveryInterruptsOverdueListener() throws Exception {
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        try {
+            executor.deliverMessageWithProtection(new RMQTextMessage(), new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                    }
+                }
+            });
+            fail("overdue onMessage should have been reported");
+        } catch (RMQJMSException e) {
+            // expected
+        }
+        assertTrue(interrupted.get());
+        assertFalse("interrupt must not leak to the dispatch thread", Thread.currentThread().isInterrupted());
+    }
+
+    @Test public void inlineDeliveryWrapsListenerException() throws Exception {
+        final RuntimeException failure = new RuntimeException("listener failure");
+        try {
+            executor.deliverMessageWithProtection(new RMQTextMessage(), new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    throw failure;
+                }
+            });
+            fail("listener exception should have been reported");
+        } catch (RMQMessageListenerExecutionJMSException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.jms.client.message.RMQTextMessage;
+import com.rabbitmq.jms.util.TimeTracker;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ */
+public class DeliveryLanesTest {
+
+    DeliveryLanes lanes = new DeliveryLanes(4, "JMSXGroupID", 2000);
+
+    @After public void tearDown() {
+        lanes.close(new TimeTracker(1, TimeUnit.SECONDS));
+    }
+
+    private static RMQMessage message(String group, int sequence) throws JMSException {
+        RMQMessage message = new RMQTextMessage();
+        if (group != null) message.setStringProperty("JMSXGroupID", group);
+        message.setIntProperty("sequence", sequence);
+        return message;
+    }
+
+    private static final DeliveryLanes.Callback NO_CALLBACK = new DeliveryLanes.Callback() {
+        @Override public void delivered(RMQMessage message) { }
+        @Override public void failed(RMQMessage message, JMSException e) { }
+    };
+
+    @Test public void messagesOfAGroupShareALane() throws Exception {
+        assertEquals(lanes.laneFor(message("a", 1)), lanes.laneFor(message("a", 2)));
+        assertEquals(0, lanes.laneFor(message(null, 1)));
+    }
+
+    @Test public void groupsRunInParallelButInOrder() throws Exception {
+        String slowGroup = "slow";
+        String fastGroup = "fast";
+        for (int i = 0; lanes.laneFor(message(fastGroup, 0)) == lanes.laneFor(message(slowGroup, 0)); i++) {
+            fastGroup = "fast" + i;
+        }
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        final String blockingGroup = slowGroup;
+        MessageListener listener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                try {
+                    String group = message.getStringProperty("JMSXGroupID");
+                    if (blockingGroup.equals(group)) release.await(1, TimeUnit.SECONDS);
+                    processed.add(group + message.getIntProperty("sequence"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        lanes.dispatch(message(slowGroup, 1), listener, NO_CALLBACK);
+        lanes.dispatch(message(slowGroup, 2), listener, NO_CALLBACK);
+        lanes.dispatch(message(fastGroup, 1), listener, NO_CALLBACK);
+        lanes.dispatch(message(fastGroup, 2), listener, NO_CALLBACK);
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (processed.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(2, processed.size());
+        assertEquals(fastGroup + "1", processed.get(0));
+        assertEquals(fastGroup + "2", processed.get(1));
+
+        release.countDown();
+        assertTrue(lanes.awaitIdle(new TimeTracker(1, TimeUnit.SECONDS)));
+        assertEquals(slowGroup + "1", processed.get(2));
+        assertEquals(slowGroup + "2", processed.get(3));
+    }
+
+    @Test public void completionNeverCoversUnfinishedDeliveries() {
+        lanes.dispatched(1);
+        lanes.dispatched(2);
+        lanes.dispatched(3);
+
+        assertEquals(0, lanes.completed(2, true));
+        assertEquals(0, lanes.completed(3, true));
+        assertEquals(3, lanes.completed(1, true));
+        lanes.dispatched(4);
+        assertEquals(4, lanes.completed(4, true));
+    }
+
+    @Test public void rejectedDeliveriesAreNotNamedInAcknowledgements() {
+        lanes.dispatched(1);
+        lanes.dispatched(2);
+
+        assertEquals(0, lanes.completed(2, false));
+        assertEquals(1, lanes.completed(1, true));
+        lanes.dispatched(3);
+        assertEquals(0, lanes.completed(3, false));
+    }
+
+    private static RMQSession session(Channel channel, int mode) throws Exception {
+        RMQConnection connection = Mockito.mock(RMQConnection.class);
+        Mockito.when(connection.createRabbitChannel(false)).thenReturn(channel);
+        Mockito.when(connection.getTerminationTimeout()).thenReturn(1000L);
+        return new RMQSession(new SessionParams()
+            .setConnection(connection)
+            .setOnMessageTimeoutMs(2000)
+            .setMode(mode)
+            .setOnMessageLanes(4));
+    }
+
+    @Test public void lanesAreOnlyUsedWhereMessagesAreAcknowledgedOneAtATime() throws Exception {
+        Channel channel = Mockito.mock(Channel.class);
+        assertNotNull(session(channel, Session.AUTO_ACKNOWLEDGE).getDeliveryLanes());
+        assertNotNull(session(channel, Session.DUPS_OK_ACKNOWLEDGE).getDeliveryLanes());
+        assertNotNull(session(channel, RMQSession.CLIENT_INDIVIDUAL_ACKNOWLEDGE).getDeliveryLanes());
+        assertNull(session(channel, Session.CLIENT_ACKNOWLEDGE).getDeliveryLanes());
+    }
+
+    @Test public void acknowledgementOnOneLaneDoesNotCoverALowerTagOnAnother() throws Exception {
+        Channel channel = Mockito.mock(Channel.class);
+        RMQSession session = session(channel, RMQSession.CLIENT_INDIVIDUAL_ACKNOWLEDGE);
+        DeliveryLanes sessionLanes = session.getDeliveryLanes();
+        String slowGroup = "slow";
+        String fastGroup = "fast";
+        for (int i = 0; sessionLanes.laneFor(message(fastGroup, 0)) == sessionLanes.laneFor(message(slowGroup, 0)); i++) {
+            fastGroup = "fast" + i;
+        }
+        final CountDownLatch release = new CountDownLatch(1);
+        MessageListener listener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                try {
+                    if (message.getIntProperty("sequence") == 1) release.await(1, TimeUnit.SECONDS);
+                    message.acknowledge();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        RMQMessage slow = message(slowGroup, 1);
+        RMQMessage fast = message(fastGroup, 2);
+        for (RMQMessage m : new RMQMessage[] { slow, fast }) {
+            m.setSession(session);
+            m.setRabbitDeliveryTag(m.getIntProperty("sequence"));
+            session.unackedMessageReceived(m.getRabbitDeliveryTag());
+        }
+        try {
+            sessionLanes.dispatch(slow, listener, NO_CALLBACK);
+            sessionLanes.dispatch(fast, listener, NO_CALLBACK);
+
+            verify(channel, timeout(1000)).basicAck(2, false);
+            verify(channel, never()).basicAck(eq(1L), anyBoolean());
+            verify(channel, never()).basicAck(2, true);
+            release.countDown();
+            verify(channel, timeout(1000)).basicAck(1, false);
+        } finally {
+            release.countDown();
+            sessionLanes.close(new TimeTracker(1, TimeUnit.SECONDS));
+        }
+    }
+}
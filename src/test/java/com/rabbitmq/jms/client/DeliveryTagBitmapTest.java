@@ -0,0 +1,110 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DeliveryTagBitmapTest {
+
+    @Test public void addContainsRemove() {
+        DeliveryTagBitmap tags = new DeliveryTagBitmap();
+        assertTrue(tags.isEmpty());
+        assertTrue(tags.add(1));
+        assertTrue(tags.add(70));
+        assertFalse(tags.add(70));
+        assertEquals(2, tags.size());
+        assertTrue(tags.contains(70));
+        assertFalse(tags.contains(69));
+
+        assertTrue(tags.remove(1));
+        assertFalse(tags.remove(1));
+        assertEquals(70, tags.first());
+        assertEquals(70, tags.last());
+        assertTrue(tags.remove(70));
+        assertTrue(tags.isEmpty());
+        assertEquals(-1, tags.first());
+    }
+
+    @Test public void lastUpToAndRemoveUpTo() {
+        DeliveryTagBitmap tags = new DeliveryTagBitmap();
+        for (long tag : new long[] { 3, 5, 64, 130, 200 }) tags.add(tag);
+
+        assertEquals(5, tags.lastUpTo(63));
+        assertEquals(64, tags.lastUpTo(64));
+        assertEquals(130, tags.lastUpTo(199));
+        assertEquals(-1, tags.lastUpTo(2));
+
+        assertEquals(3, tags.removeUpTo(64));
+        assertEquals(130, tags.first());
+        assertEquals(200, tags.last());
+        assertEquals(2, tags.size());
+    }
+
+    @Test public void windowMovesUpAndWrapsAroundTheRing() {
+        DeliveryTagBitmap tags = new DeliveryTagBitmap();
+        for (long tag = 1; tag <= 100000; tag++) {
+            tags.add(tag);
+            if (tag > 500) tags.remove(tag - 500);
+        }
+        assertEquals(500, tags.size());
+        assertEquals(99501, tags.first());
+        assertEquals(100000, tags.last());
+        assertEquals(100, tags.removeUpTo(99600));
+        assertEquals(99601, tags.first());
+    }
+
+    @Test public void tagsBelowTheWindowExtendItDownwards() {
+        DeliveryTagBitmap tags = new DeliveryTagBitmap();
+        tags.add(1000);
+        tags.add(10);
+        tags.add(500);
+        final List<Long> visited = new ArrayList<Long>();
+        tags.forEach(new DeliveryTagBitmap.TagVisitor() {
+            @Override
+            public void visit(long tag) {
+                visited.add(tag);
+            }
+        });
+        assertEquals(Arrays.asList(10L, 500L, 1000L), visited);
+        assertEquals(10, tags.first());
+    }
+
+    @Test public void behavesAsASortedSetOfTags() {
+        Random random = new Random(42);
+        DeliveryTagBitmap tags = new DeliveryTagBitmap();
+        SortedSet<Long> expected = new TreeSet<Long>();
+        long next = 1;
+        for (int i = 0; i < 100000; i++) {
+            int op = random.nextInt(10);
+            if (op < 5) {
+                assertEquals(expected.add(next), tags.add(next));
+                next++;
+            } else if (op < 8 && !expected.isEmpty()) {
+                long tag = expected.first() + random.nextInt(200);
+                assertEquals(expected.remove(tag), tags.remove(tag));
+            } else if (op < 9 && !expected.isEmpty()) {
+                long tag = expected.first() + random.nextInt(50);
+                SortedSet<Long> head = expected.headSet(tag + 1);
+                assertEquals(head.isEmpty() ? -1 : head.last(), tags.lastUpTo(tag));
+                assertEquals(head.size(), tags.removeUpTo(tag));
+                head.clear();
+            }
+            assertEquals(expected.size(), tags.size());
+            assertEquals(expected.isEmpty() ? -1 : expected.first(), tags.first());
+            assertEquals(expected.isEmpty() ? -1 : expected.last(), tags.last());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.client.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ */
+public class IndividualAcknowledgerTest {
+
+    Channel channel;
+
+    @Before public void init() {
+        channel = Mockito.mock(Channel.class);
+    }
+
+    private IndividualAcknowledger acknowledger(long delayMs, long... received) {
+        IndividualAcknowledger acknowledger = new IndividualAcknowledger(channel, delayMs);
+        for (long tag : received) acknowledger.received(tag);
+        return acknowledger;
+    }
+
+    @Test public void outOfOrderAcknowledgementsCompleteAsOneMultipleAck() throws Exception {
+        IndividualAcknowledger acknowledger = acknowledger(10000, 1, 2, 3, 4);
+        acknowledger.acknowledge(3);
+        acknowledger.acknowledge(2);
+        acknowledger.acknowledge(4);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        acknowledger.acknowledge(1);
+        verify(channel).basicAck(4, true);
+        assertFalse(acknowledger.hasOutstanding());
+    }
+
+    @Test public void stragglersAreAcknowledgedAfterDelay() throws Exception {
+        IndividualAcknowledger acknowledger = acknowledger(20, 1, 2, 3);
+        acknowledger.acknowledge(2);
+        acknowledger.acknowledge(3);
+        verify(channel, timeout(1000)).basicAck(2, false);
+        verify(channel, timeout(1000)).basicAck(3, false);
+
+        acknowledger.acknowledge(2); // already acknowledged
+        acknowledger.acknowledge(1);
+        verify(channel).basicAck(1, true);
+    }
+
+    @Test public void forgottenMessagesDoNotHoldBackLaterOnes() throws Exception {
+        IndividualAcknowledger acknowledger = acknowledger(10000, 1, 2);
+        acknowledger.acknowledge(2);
+        acknowledger.forget(1);
+        verify(channel).basicAck(2, true);
+    }
+
+    @Test public void recoverSendsAcknowledgementsAndForgetsOutstanding() throws Exception {
+        IndividualAcknowledger acknowledger = acknowledger(10000, 1, 2, 3);
+        acknowledger.acknowledge(2);
+        assertTrue(acknowledger.recover());
+        verify(channel).basicAck(2, false);
+        assertFalse(acknowledger.hasOutstanding());
+        assertFalse(acknowledger.recover());
+    }
+}
@@ -0,0 +1,238 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.jms.admin.RMQDestination;
+import com.rabbitmq.jms.client.message.RMQBytesMessage;
+import com.rabbitmq.jms.client.message.RMQMapMessage;
+import com.rabbitmq.jms.client.message.RMQStreamMessage;
+import com.rabbitmq.jms.client.message.RMQTextMessage;
+import com.rabbitmq.jms.util.WhiteListObjectInputStream;
+import org.junit.Test;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageNotWriteableException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class LazyMessageDecodingTest {
+
+    static final List<String> TRUSTED = WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES;
+
+    private static <M extends RMQMessage> M sent(M message) throws Exception {
+        message.setStringProperty("colour", "blue");
+        message.setIntProperty("size", 42);
+        message.setJMSDeliveryMode(DeliveryMode.PERSISTENT);
+        message.setJMSDestination(new RMQDestination("lazy", true, false));
+        message.generateInternalID();
+        return message;
+    }
+
+    private static RMQMessage receive(RMQMessage sent) throws Exception {
+        RMQMessage received = RMQMessage.fromMessageLazily(sent.toByteArray(), TRUSTED);
+        received.setReadonly(true);
+        return received;
+    }
+
+    @Test public void classAndIdAreKnownBeforeDecoding() throws Exception {
+        RMQTextMessage sent = sent(new RMQTextMessage());
+        sent.setText("hello");
+        RMQMessage received = receive(sent);
+
+        assertTrue(received instanceof RMQTextMessage);
+        assertEquals(sent.getInternalID(), received.getInternalID());
+        assertEquals(sent, received);
+    }
+
+    @Test public void propertiesAndBodyAreDecodedOnAccess() throws Exception {
+        RMQTextMessage sent = sent(new RMQTextMessage());
+        sent.setText("hello");
+        RMQMessage received = receive(sent);
+
+        assertEquals("blue", received.getStringProperty("colour"));
+        assertEquals(42, received.getIntProperty("size"));
+        assertEquals(DeliveryMode.PERSISTENT, received.getJMSDeliveryMode());
+        assertEquals(new RMQDestination("lazy", true, false), received.getJMSDestination());
+        assertEquals(sent.getJMSMessageID(), received.getJMSMessageID());
+        assertEquals("hello", ((RMQTextMessage) received).getText());
+        try {
+            ((RMQTextMessage) received).setText("changed");
+            fail("received body must be read-only");
+        } catch (MessageNotWriteableException e) {
+            // expected
+        }
+    }
+
+    @Test public void bodyCanBeDecodedBeforeProperties() throws Exception {
+        RMQMapMessage sent = sent(new RMQMapMessage());
+        sent.setString("symbol", "RMQ");
+        sent.setDouble("price", 1.5);
+        RMQMapMessage received = (RMQMapMessage) receive(sent);
+
+        assertEquals(1.5, received.getDouble("price"), 0.0);
+        assertEquals("RMQ", received.getString("symbol"));
+        assertEquals("blue", received.getStringProperty("colour"));
+    }
+
+    @Test public void forwardedMessageKeepsItsBody() throws Exception {
+        RMQBytesMessage bytes = sent(new RMQBytesMessage());
+        bytes.writeBytes(new byte[] { 1, 2, 3 });
+        RMQStreamMessage stream = sent(new RMQStreamMessage());
+        stream.writeString("tick");
+        stream.writeLong(99L);
+
+        for (RMQMessage sent : Arrays.<RMQMessage>asList(bytes, stream)) {
+            RMQMessage received = receive(sent);
+            // what a producer does to a message it sends on
+            received.setJMSPriority(7);
+            received.generateInternalID();
+
+            RMQMessage forwarded = RMQMessage.fromMessage(received.toByteArray(), TRUSTED);
+            assertEquals(7, forwarded.getJMSPriority());
+            assertEquals("blue", forwarded.getStringProperty("colour"));
+            assertFalse(sent.getInternalID().equals(forwarded.getInternalID()));
+            if (forwarded instanceof RMQBytesMessage) {
+                byte[] body = new byte[4];
+                assertEquals(3, ((RMQBytesMessage) forwarded).readBytes(body));
+                assertArrayEquals(new byte[] { 1, 2, 3, 0 }, body);
+            } else {
+                assertEquals("tick", ((RMQStreamMessage) forwarded).readString());
+                assertEquals(99L, ((RMQStreamMessage) forwarded).readLong());
+            }
+        }
+    }
+
+    @Test public void clearedBodyIsNeverDecoded() throws Exception {
+        RMQTextMessage sent = sent(new RMQTextMessage());
+        sent.setText("hello");
+        RMQTextMessage received = (RMQTextMessage) receive(sent);
+
+        received.clearBody();
+        assertNull(received.getText());
+        received.setText("again");
+        assertEquals("blue", received.getStringProperty("colour"));
+        RMQMessage forwarded = RMQMessage.fromMessage(((RMQMessage) received).toByteArray(), TRUSTED);
+        assertEquals("again", ((RMQTextMessage) forwarded).getText());
+    }
+
+    @Test public void undecodableBodyFailsOnAccess() throws Exception {
+        RMQTextMessage sent = sent(new RMQTextMessage());
+        sent.setText("hello");
+        byte[] b = ((RMQMessage) sent).toByteArray();
+        b[b.length - 6] = 50;  // text length, past the end of the message
+        RMQMessage received = RMQMessage.fromMessageLazily(b, TRUSTED);
+
+        assertEquals("blue", received.getStringProperty("colour"));
+        try {
+            ((RMQTextMessage) received).getText();
+            fail("truncated body must not decode");
+        } catch (JMSException e) {
+            // expected
+        }
+    }
+
+    @Test public void jmsHeadersAreAlsoProperties() throws Exception {
+        RMQTextMessage sent = sent(new RMQTextMessage());
+        sent.setJMSPriority(4);
+        sent.setObjectProperty(RMQMessage.JMS_MESSAGE_EXPIRATION, "1234");
+        assertEquals(4, sent.getObjectProperty(RMQMessage.JMS_MESSAGE_PRIORITY));
+        assertEquals(1234L, sent.getJMSExpiration());
+
+        RMQMessage received = receive(sent);
+        assertTrue(received.propertyExists(RMQMessage.JMS_MESSAGE_DELIVERY_MODE));
+        assertEquals(4, received.getJMSPriority());
+        assertEquals(1234L, received.getJMSExpiration());
+
+        sent.setObjectProperty(RMQMessage.JMS_MESSAGE_PRIORITY, null);
+        assertFalse(sent.propertyExists(RMQMessage.JMS_MESSAGE_PRIORITY));
+        try {
+            sent.getJMSPriority();
+            fail("unset priority has no value");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test public void emptyMessageRoundTrips() throws Exception {
+        RMQBytesMessage sent = new RMQBytesMessage();
+        assertFalse(sent.getPropertyNames().hasMoreElements());
+        assertNull(sent.getObjectProperty("colour"));
+        assertEquals(0L, sent.getBodyLength());
+        sent.clearProperties();
+        ((RMQMessage) sent).generateInternalID();
+
+        RMQBytesMessage received = (RMQBytesMessage) RMQMessage.fromMessage(((RMQMessage) sent).toByteArray(), TRUSTED);
+        assertFalse(received.getPropertyNames().hasMoreElements());
+        assertEquals(0L, received.getBodyLength());
+        received.clearBody();
+        received.writeInt(42);
+        assertEquals(4L, received.getBodyLength());
+    }
+
+    @Test public void receivedBytesBodyIsNotCopied() throws Exception {
+        for (boolean compact : new boolean[] { false, true }) {
+            RMQBytesMessage sent = sent(new RMQBytesMessage());
+            sent.writeInt(42);
+            sent.writeUTF("tick");
+            byte[] b = ((RMQMessage) sent).toByteArray(compact);
+            RMQBytesMessage received = (RMQBytesMessage) RMQMessage.fromMessageLazily(b, TRUSTED);
+
+            ByteBuffer body = received.getBodyBuffer();
+            assertEquals(10, body.remaining());
+            assertEquals(42, received.readInt());
+            b[b.length - 1] = 's';  // the received bytes are read in place
+            assertEquals("tics", received.readUTF());
+            assertEquals(42, body.getInt());
+        }
+    }
+
+    @Test public void wholeBytesBodyIsSentAsItIs() throws Exception {
+        byte[] array = { 1, 2, 3 };
+        RMQBytesMessage sent = new RMQBytesMessage();
+        sent.setBody(array, 0, array.length);
+        assertSame(array, ((RMQMessage) sent).toAmqpByteArray());
+        sent.setBody(array, 1, 2);
+        assertArrayEquals(new byte[] { 2, 3 }, ((RMQMessage) sent).toAmqpByteArray());
+    }
+
+    @Test public void mapEntriesAreFoundInLargeMaps() throws Exception {
+        RMQMapMessage sent = sent(new RMQMapMessage());
+        for (int i = 0; i < 250; i++) {
+            sent.setInt("field" + i, i);
+        }
+        sent.setString("symbol", "RMQ");
+        for (boolean compact : new boolean[] { false, true }) {
+            RMQMapMessage received = (RMQMapMessage) RMQMessage.fromMessageLazily(((RMQMessage) sent).toByteArray(compact), TRUSTED);
+            assertEquals(199, received.getInt("field199"));
+            assertEquals("7", received.getString("field7"));
+            assertEquals("RMQ", received.getString("symbol"));
+            assertNull(received.getString("missing"));
+            assertFalse(received.itemExists("missing"));
+            int names = 0;
+            for (Enumeration<?> e = received.getMapNames(); e.hasMoreElements(); e.nextElement()) names++;
+            assertEquals(251, names);
+
+            // sent on in the other format, then changed
+            RMQMapMessage forwarded = (RMQMapMessage) RMQMessage.fromMessage(((RMQMessage) received).toByteArray(!compact), TRUSTED);
+            assertEquals(42, forwarded.getInt("field42"));
+            forwarded.clearBody();
+            forwarded.setInt("field42", -1);
+            RMQMapMessage changed = (RMQMapMessage) RMQMessage.fromMessage(((RMQMessage) forwarded).toByteArray(compact), TRUSTED);
+            assertEquals(-1, changed.getInt("field42"));
+            assertFalse(changed.itemExists("field41"));
+        }
+    }
+}
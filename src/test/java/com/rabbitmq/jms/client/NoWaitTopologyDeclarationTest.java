@@ -0,0 +1,120 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.jms.admin.RMQDestination;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ */
+public class NoWaitTopologyDeclarationTest {
+
+    Channel channel;
+    RMQConnection connection;
+    DeclaredTopology declaredTopology;
+
+    @Before public void init() throws Exception {
+        channel = Mockito.mock(Channel.class);
+        connection = Mockito.mock(RMQConnection.class);
+        declaredTopology = new DeclaredTopology();
+        Mockito.when(connection.createRabbitChannel(false)).thenReturn(channel);
+        Mockito.when(connection.getDeclaredTopology()).thenReturn(declaredTopology);
+        Mockito.when(connection.isStopped()).thenReturn(false);
+    }
+
+    private RMQSession session(boolean noWait) throws JMSException {
+        return new RMQSession(new SessionParams()
+            .setConnection(connection)
+            .setMode(Session.AUTO_ACKNOWLEDGE)
+            .setDeclareTopologyNoWait(noWait));
+    }
+
+    private void barrierFails() throws IOException {
+        doThrow(new ShutdownSignalException(false, false, null, channel)).when(channel).exchangeDeclarePassive(anyString());
+    }
+
+    @Test public void declarationsAreSharedOnlyOnceConfirmed() throws Exception {
+        RMQSession session = session(true);
+        session.createProducer(new RMQDestination("q", true, false));
+
+        verify(channel).exchangeDeclareNoWait(anyString(), anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyMapOf(String.class, Object.class));
+        verify(channel).queueDeclareNoWait("q", true, false, false, null);
+        verify(channel).queueBindNoWait("q", "jms.durable.queues", "q", null);
+        verify(channel, never()).exchangeDeclarePassive(anyString());
+        assertFalse(declaredTopology.isQueueDeclared("q", true));
+
+        session.awaitTopologyDeclarations();
+        verify(channel).exchangeDeclarePassive("amq.direct");
+        assertTrue(declaredTopology.isQueueDeclared("q", true));
+        assertTrue(declaredTopology.isBindingDeclared("q", "jms.durable.queues", "q"));
+
+        session.awaitTopologyDeclarations(); // nothing pending: no further round trip
+        verify(channel, times(1)).exchangeDeclarePassive(anyString());
+    }
+
+    @Test public void failedDeclarationSurfacesAsJMSException() throws Exception {
+        barrierFails();
+        RMQSession session = session(true);
+        session.createProducer(new RMQDestination("q", true, false));
+        try {
+            session.awaitTopologyDeclarations();
+            fail("failed declaration must be reported");
+        } catch (JMSException e) {
+            // expected
+        }
+        assertFalse(declaredTopology.isQueueDeclared("q", true));
+    }
+
+    @Test public void consumerCreationChecksDeclarations() throws Exception {
+        RMQSession session = session(true);
+        session.createConsumer(new RMQDestination("t", false, false));
+        verify(channel).queueDeclareNoWait(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyMapOf(String.class, Object.class));
+        verify(channel).exchangeDeclarePassive("amq.direct");
+    }
+
+    @Test public void failedDeclarationFailsConsumerCreation() throws Exception {
+        barrierFails();
+        RMQSession session = session(true);
+        try {
+            session.createConsumer(new RMQDestination("t", false, false));
+            fail("failed declaration must fail createConsumer");
+        } catch (JMSException e) {
+            // expected
+        }
+        verify(channel, never()).basicConsume(anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(),
+                                              anyMapOf(String.class, Object.class), any(com.rabbitmq.client.Consumer.class));
+    }
+
+    @Test public void synchronousDeclarationsAreSharedAtOnce() throws Exception {
+        RMQSession session = session(false);
+        session.createProducer(new RMQDestination("q", true, false));
+        verify(channel).queueDeclare("q", true, false, false, null);
+        assertTrue(declaredTopology.isQueueDeclared("q", true));
+
+        session.createProducer(new RMQDestination("q", true, false));
+        verify(channel, times(1)).queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyMapOf(String.class, Object.class));
+        session.awaitTopologyDeclarations();
+        verify(channel, never()).exchangeDeclarePassive(anyString());
+    }
+}
@@ -0,0 +1,62 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class OnMessageWatchdogTest {
+
+    /** Waits for the thread to be in this state, then checks it stays there for several ticks. */
+    private static void assertStaysIn(Thread.State state, Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != state) {
+            if (System.currentTimeMillis() > deadline) fail("watchdog thread is " + thread.getState() + ", not " + state);
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(OnMessageWatchdog.TICK_MS);
+            assertEquals(state, thread.getState());
+        }
+    }
+
+    @Test public void watchdogIsIdleBetweenCalls() throws Exception {
+        OnMessageWatchdog watchdog = new OnMessageWatchdog();
+        OnMessageWatchdog.Watch watch = watchdog.newWatch(10000);
+        Thread thread = watchdog.getThread();
+        assertStaysIn(Thread.State.WAITING, thread);
+
+        watch.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            if (System.currentTimeMillis() > deadline) fail("watchdog does not tick while a call is watched");
+            Thread.sleep(1);
+        }
+        assertFalse(watch.stop());
+        assertStaysIn(Thread.State.WAITING, thread);
+
+        watch.start();
+        watch.close();
+        assertStaysIn(Thread.State.WAITING, thread);
+    }
+
+    @Test public void overdueCallIsInterrupted() throws Exception {
+        OnMessageWatchdog.Watch watch = new OnMessageWatchdog().newWatch(20);
+        watch.start();
+        try {
+            Thread.sleep(5000);
+            fail("overdue call not interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        assertTrue(watch.stop());
+        assertFalse(Thread.currentThread().isInterrupted());
+        watch.close();
+    }
+}
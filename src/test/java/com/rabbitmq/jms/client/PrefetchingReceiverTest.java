@@ -0,0 +1,106 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.jms.util.TimeTracker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ */
+public class PrefetchingReceiverTest {
+
+    Channel channel;
+    RMQSession session;
+    RMQMessageConsumer messageConsumer;
+
+    @Before public void init() {
+        channel = Mockito.mock(Channel.class);
+        session = Mockito.mock(RMQSession.class);
+        messageConsumer = Mockito.mock(RMQMessageConsumer.class);
+        when(messageConsumer.getSession()).thenReturn(session);
+    }
+
+    private String subscribe(PrefetchingReceiver receiver) throws Exception {
+        assertNull(receiver.get(TimeTracker.ZERO));
+        ArgumentCaptor<String> tag = ArgumentCaptor.forClass(String.class);
+        verify(messageConsumer).basicConsume(Mockito.eq(receiver), tag.capture());
+        return tag.getValue();
+    }
+
+    private static Envelope envelope(long dtag) {
+        return new Envelope(dtag, false, "", "q");
+    }
+
+    @Test public void subscribesWithPrefetchOnFirstGetAndRestoresChannelQos() throws Exception {
+        PrefetchingReceiver receiver = new PrefetchingReceiver(messageConsumer, channel, 10, 0, false, 0);
+        verify(messageConsumer, never()).basicConsume(any(Consumer.class), anyString());
+
+        subscribe(receiver);
+        verify(channel).basicQos(10);
+        verify(channel).basicQos(0);
+    }
+
+    @Test public void getReturnsBufferedMessagesInOrder() throws Exception {
+        PrefetchingReceiver receiver = new PrefetchingReceiver(messageConsumer, channel, 10, 0, false, 0);
+        String tag = subscribe(receiver);
+
+        receiver.handleDelivery(tag, envelope(1), new AMQP.BasicProperties(), new byte[0]);
+        receiver.handleDelivery(tag, envelope(2), new AMQP.BasicProperties(), new byte[0]);
+
+        GetResponse first = receiver.get(new TimeTracker(1, TimeUnit.SECONDS));
+        GetResponse second = receiver.get(new TimeTracker(1, TimeUnit.SECONDS));
+        assertEquals(1, first.getEnvelope().getDeliveryTag());
+        assertEquals(2, second.getEnvelope().getDeliveryTag());
+        assertNull(receiver.get(TimeTracker.ZERO));
+    }
+
+    @Test public void bulkGetDrainsBufferUpToLimit() throws Exception {
+        PrefetchingReceiver receiver = new PrefetchingReceiver(messageConsumer, channel, 10, 0, false, 0);
+        String tag = subscribe(receiver);
+        for (long dtag = 1; dtag <= 3; dtag++) {
+            receiver.handleDelivery(tag, envelope(dtag), new AMQP.BasicProperties(), new byte[0]);
+        }
+
+        List<GetResponse> first = receiver.get(2, new TimeTracker(1, TimeUnit.SECONDS));
+        assertEquals(2, first.size());
+        assertEquals(2, first.get(1).getEnvelope().getDeliveryTag());
+        List<GetResponse> rest = receiver.get(2, new TimeTracker(1, TimeUnit.SECONDS));
+        assertEquals(1, rest.size());
+        assertEquals(3, rest.get(0).getEnvelope().getDeliveryTag());
+        assertTrue(receiver.get(2, TimeTracker.ZERO).isEmpty());
+    }
+
+    @Test public void abortNacksBufferedAndLateMessages() throws Exception {
+        PrefetchingReceiver receiver = new PrefetchingReceiver(messageConsumer, channel, 10, 0, false, 0);
+        String tag = subscribe(receiver);
+        receiver.handleDelivery(tag, envelope(1), new AMQP.BasicProperties(), new byte[0]);
+
+        receiver.abort();
+        verify(channel).basicCancel(tag);
+        verify(session).explicitNack(1);
+
+        receiver.handleDelivery(tag, envelope(2), new AMQP.BasicProperties(), new byte[0]);
+        verify(session).explicitNack(2);
+        assertNull(receiver.get(TimeTracker.ZERO));
+    }
+}
@@ -0,0 +1,145 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.jms.client.message.RMQTextMessage;
+import com.rabbitmq.jms.util.TimeTracker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.jms.IllegalStateException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ */
+public class PublisherConfirmsTrackerTest {
+
+    Channel channel;
+    RMQMessageProducer producer;
+    AMQP.BasicProperties props = new AMQP.BasicProperties();
+    byte[] body = new byte[0];
+
+    @Before public void init() {
+        channel = Mockito.mock(Channel.class);
+        final AtomicLong seqNo = new AtomicLong(1);
+        when(channel.getNextPublishSeqNo()).thenAnswer(new org.mockito.stubbing.Answer<Long>() {
+            @Override
+            public Long answer(org.mockito.invocation.InvocationOnMock invocation) {
+                return seqNo.getAndIncrement();
+            }
+        });
+        producer = Mockito.mock(RMQMessageProducer.class);
+    }
+
+    @Test public void multipleAckSettlesAllCoveredMessages() throws Exception {
+        PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 10);
+        for (int i = 0; i < 5; i++) {
+            tracker.publish(producer, new RMQTextMessage(), null, "x", "rk", props, body);
+        }
+        assertEquals(5, tracker.outstandingCount());
+
+        tracker.handleAck(3, true);
+        assertEquals(2, tracker.outstandingCount());
+        tracker.handleAck(5, false);
+        assertEquals(1, tracker.outstandingCount());
+        tracker.handleAck(4, false);
+        assertTrue(tracker.waitForConfirms(new TimeTracker(1, TimeUnit.SECONDS)));
+        verify(producer, never()).publishNotConfirmed(any(RMQMessage.class));
+    }
+
+    @Test public void nackedMessagesAreReportedToProducer() throws Exception {
+        PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 10);
+        RMQTextMessage first = message();
+        RMQTextMessage second = message();
+        RMQTextMessage third = message();
+        tracker.publish(producer, first, null, "x", "rk", props, body);
+        tracker.publish(producer, second, null, "x", "rk", props, body);
+        tracker.publish(producer, third, null, "x", "rk", props, body);
+
+        tracker.handleNack(2, true);
+        verify(producer).publishNotConfirmed(first);
+        verify(producer).publishNotConfirmed(second);
+        verify(producer, never()).publishNotConfirmed(third);
+        assertEquals(1, tracker.outstandingCount());
+    }
+
+    @Test public void publishBlocksWhileWindowIsFull() throws Exception {
+        final PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 2);
+        tracker.publish(producer, new RMQTextMessage(), null, "x", "rk", props, body);
+        tracker.publish(producer, new RMQTextMessage(), null, "x", "rk", props, body);
+
+        final CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tracker.publish(producer, new RMQTextMessage(), null, "x", "rk", props, body);
+                    published.countDown();
+                } catch (Exception e) {
+                    // latch not counted down
+                }
+            }
+        });
+        publisher.start();
+        assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+        verify(channel, times(2)).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+
+        tracker.handleAck(1, false);
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        verify(channel, times(3)).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        publisher.join();
+    }
+
+    @Test public void completionListenerIsCalledOnConfirm() throws Exception {
+        PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 10);
+        RMQTextMessage acked = message();
+        RMQTextMessage nacked = message();
+        CompletionListener listener = Mockito.mock(CompletionListener.class);
+        tracker.publish(producer, acked, listener, "x", "rk", props, body);
+        tracker.publish(producer, nacked, listener, "x", "rk", props, body);
+
+        tracker.handleAck(1, false);
+        verify(listener).onCompletion(acked);
+        tracker.handleNack(2, false);
+        verify(listener).onException(Mockito.eq(nacked), any(Exception.class));
+        verify(listener, never()).onCompletion(nacked);
+        verify(producer, never()).publishNotConfirmed(any(RMQMessage.class));
+    }
+
+    private static RMQTextMessage message() throws Exception {
+        RMQTextMessage message = new RMQTextMessage();
+        ((RMQMessage) message).generateInternalID();
+        return message;
+    }
+
+    @Test public void closeReportsOutstandingMessagesAndRejectsPublishes() throws Exception {
+        PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 10);
+        RMQTextMessage message = new RMQTextMessage();
+        tracker.publish(producer, message, null, "x", "rk", props, body);
+
+        tracker.shutdownCompleted(null);
+        verify(producer).publishNotConfirmed(message);
+        try {
+            tracker.publish(producer, new RMQTextMessage(), null, "x", "rk", props, body);
+            fail("publish after close should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -9,12 +9,27 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
 import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  *
@@ -26,7 +41,7 @@ public class RMQMessageProducerTest {
 
     @Before public void init() {
         session = Mockito.mock(RMQSession.class);
-        destination = Mockito.mock(RMQDestination.class);
+        destination = new RMQDestination("test-queue", true, false);
     }
 
     @Test public void preferProducerPropertyNoMessagePropertySpecified() throws Exception {
@@ -96,17 +111,118 @@ public class RMQMessageProducerTest {
         assertEquals(expiration, message.getJMSExpiration());
     }
 
+    @Test public void batchSendPublishesAllMessagesBeforeWaitingForConfirms() throws Exception {
+        Channel channel = Mockito.mock(Channel.class);
+        final PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 10);
+        when(session.getPublisherConfirmsTracker()).thenReturn(tracker);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (tracker.outstandingCount() == 3) tracker.handleAck(3, true);
+                return null;
+            }
+        }).when(channel).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L);
+        connectionWithTerminationTimeout(1000L);
+
+        RMQMessageProducer producer = new RMQMessageProducer(session, destination, true);
+        List<Message> messages = Arrays.<Message>asList(new RMQTextMessage(), new RMQTextMessage(), new RMQTextMessage());
+        producer.send(messages);
+
+        verify(channel, times(3)).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        verify(session, times(1)).awaitTopologyDeclarations();
+        assertEquals(0, tracker.outstandingCount());
+        Set<String> messageIDs = new HashSet<String>();
+        for (Message message : messages) {
+            assertEquals(destination, message.getJMSDestination());
+            assertEquals(messages.get(0).getJMSTimestamp(), message.getJMSTimestamp());
+            assertTrue(messageIDs.add(message.getJMSMessageID()));
+        }
+    }
+
+    @Test public void batchSendFailsIfConfirmsDoNotArriveInTime() throws Exception {
+        Channel channel = Mockito.mock(Channel.class);
+        PublisherConfirmsTracker tracker = new PublisherConfirmsTracker(channel, 10);
+        when(session.getPublisherConfirmsTracker()).thenReturn(tracker);
+        when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L);
+        connectionWithTerminationTimeout(50L);
+
+        RMQMessageProducer producer = new RMQMessageProducer(session, destination, true);
+        try {
+            producer.send(Arrays.<Message>asList(new RMQTextMessage(), new RMQTextMessage()));
+            fail("unconfirmed batch must not wait forever");
+        } catch (JMSException e) {
+            assertTrue(e.getMessage().contains("2 of 2 messages not confirmed"));
+        }
+    }
+
+    private void connectionWithTerminationTimeout(long terminationTimeout) {
+        RMQConnection connection = Mockito.mock(RMQConnection.class);
+        when(connection.getTerminationTimeout()).thenReturn(terminationTimeout);
+        when(session.getConnection()).thenReturn(connection);
+    }
+
+    @Test public void publishPropertiesFollowSendSettings() throws Exception {
+        StubRMQMessageProducer producer = new StubRMQMessageProducer(
+            session, destination, true
+        );
+        producer.send(new RMQTextMessage(), DeliveryMode.PERSISTENT, 7, 1000L);
+        AMQP.BasicProperties props = producer.publish.props;
+        assertEquals("application/octet-stream", props.getContentType());
+        assertEquals(Integer.valueOf(2), props.getDeliveryMode());
+        assertEquals(Integer.valueOf(7), props.getPriority());
+        assertEquals("1000", props.getExpiration());
+        assertEquals(producer.message.getJMSMessageID(), props.getMessageId());
+
+        producer.send(new RMQTextMessage(), DeliveryMode.NON_PERSISTENT, 3, 0L);
+        props = producer.publish.props;
+        assertEquals(Integer.valueOf(1), props.getDeliveryMode());
+        assertEquals(Integer.valueOf(3), props.getPriority());
+        assertEquals(null, props.getExpiration());
+        assertEquals(producer.message.getJMSMessageID(), props.getMessageId());
+    }
+
+    @Test public void jmsHeadersAreSentInAmqpProperties() throws Exception {
+        StubRMQMessageProducer producer = new StubRMQMessageProducer(
+            session, destination, true
+        );
+        RMQTextMessage message = new RMQTextMessage();
+        message.setJMSCorrelationID("corr");
+        message.setJMSType("tick");
+        message.setJMSReplyTo(new RMQDestination("replies", true, false));
+        producer.send(message);
+        AMQP.BasicProperties props = producer.publish.props;
+        assertEquals(producer.message.getJMSMessageID(), props.getMessageId());
+        assertEquals("corr", props.getCorrelationId());
+        assertEquals("tick", props.getType());
+        assertEquals("replies", props.getReplyTo());
+        assertEquals(producer.message.getJMSTimestamp() / 1000, props.getTimestamp().getTime() / 1000);
+        // not repeated in the headers of a message to a queue, except the timestamp, which the properties hold in seconds
+        assertEquals(null, props.getHeaders().get("JMSMessageID"));
+        assertEquals(null, props.getHeaders().get("JMSCorrelationID"));
+        assertEquals(producer.message.getJMSTimestamp(), props.getHeaders().get("JMSTimestamp"));
+
+        producer.send(new RMQDestination("test-topic", false, false), message);
+        props = producer.publish.props;
+        // selectors on topics use the headers
+        assertEquals(producer.message.getJMSMessageID(), props.getMessageId());
+        assertEquals(producer.message.getJMSMessageID(), props.getHeaders().get("JMSMessageID"));
+        assertEquals("corr", props.getHeaders().get("JMSCorrelationID"));
+    }
+
     static class StubRMQMessageProducer extends RMQMessageProducer {
 
         RMQMessage message;
+        PreparedPublish publish;
 
         public StubRMQMessageProducer(RMQSession session, RMQDestination destination, boolean preferProducerMessageProperty) {
             super(session, destination, preferProducerMessageProperty);
         }
 
         @Override
-        protected void sendJMSMessage(RMQDestination destination, RMQMessage msg, int deliveryMode, int priority, long timeToLive) throws JMSException {
-            this.message = msg;
+        protected void basicPublish(PreparedPublish publish, CompletionListener completionListener) throws JMSException {
+            this.message = publish.message;
+            this.publish = publish;
         }
     }
 
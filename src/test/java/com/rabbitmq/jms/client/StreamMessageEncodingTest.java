@@ -0,0 +1,121 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.client;
+
+import com.rabbitmq.jms.client.message.RMQStreamMessage;
+import com.rabbitmq.jms.util.WhiteListObjectInputStream;
+import org.junit.Test;
+
+import javax.jms.MessageEOFException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class StreamMessageEncodingTest {
+
+    static final List<String> TRUSTED = WhiteListObjectInputStream.DEFAULT_TRUSTED_PACKAGES;
+
+    static final int FIELDS = 50;
+
+    /** A tick of 50 fields, of every type a stream message takes */
+    private static RMQStreamMessage tick() throws Exception {
+        RMQStreamMessage message = new RMQStreamMessage();
+        for (int i = 0; i < FIELDS / 10; i++) {
+            message.writeString("RMQ" + i);
+            message.writeLong(1500000000000L + i);
+            message.writeInt(i);
+            message.writeDouble(100.25 + i);
+            message.writeFloat(i / 4f);
+            message.writeShort((short) -i);
+            message.writeByte((byte) i);
+            message.writeBoolean(i % 2 == 0);
+            message.writeChar((char) ('a' + i));
+            message.writeBytes(new byte[] { 0, 1, (byte) i, 3 }, 1, 2);
+        }
+        ((RMQMessage) message).generateInternalID();
+        return message;
+    }
+
+    private static void assertTick(RMQStreamMessage message) throws Exception {
+        for (int i = 0; i < FIELDS / 10; i++) {
+            assertEquals("RMQ" + i, message.readString());
+            assertEquals(1500000000000L + i, message.readLong());
+            assertEquals(i, message.readInt());
+            assertEquals(100.25 + i, message.readDouble(), 0.0);
+            assertEquals(i / 4f, message.readFloat(), 0.0f);
+            assertEquals((short) -i, message.readShort());
+            assertEquals((byte) i, message.readByte());
+            assertEquals(i % 2 == 0, message.readBoolean());
+            assertEquals((char) ('a' + i), message.readChar());
+            assertArrayEquals(new byte[] { 1, (byte) i }, (byte[]) message.readObject());
+        }
+        try {
+            message.readObject();
+            fail("read past the last field");
+        } catch (MessageEOFException e) {
+            // expected
+        }
+    }
+
+    @Test public void fieldsRoundTripInBothFormats() throws Exception {
+        for (boolean compact : new boolean[] { false, true }) {
+            RMQStreamMessage sent = tick();
+            RMQStreamMessage received = (RMQStreamMessage) RMQMessage.fromMessage(((RMQMessage) sent).toByteArray(compact), TRUSTED);
+            assertTick(received);
+            received.reset();
+            assertTick(received);
+        }
+    }
+
+    @Test public void writtenFieldsAreReadable() throws Exception {
+        RMQStreamMessage message = tick();
+        message.reset();
+        assertTick(message);
+    }
+
+    @Test public void taggedFieldsAreSmaller() throws Exception {
+        RMQStreamMessage sent = tick();
+        int objectStream = ((RMQMessage) sent).toByteArray(false).length;
+        int tagged = ((RMQMessage) sent).toByteArray(true).length;
+        assertTrue(tagged + " >= " + objectStream, tagged < objectStream);
+    }
+
+    @Test public void receivedFieldsAreSentOnInEitherFormat() throws Exception {
+        for (boolean receivedCompact : new boolean[] { false, true }) {
+            for (boolean forwardedCompact : new boolean[] { false, true }) {
+                RMQMessage received = RMQMessage.fromMessageLazily(((RMQMessage) tick()).toByteArray(receivedCompact), TRUSTED);
+                ((RMQStreamMessage) received).readString();  // the body must be sent whole, however much is read
+                RMQMessage forwarded = RMQMessage.fromMessage(received.toByteArray(forwardedCompact), TRUSTED);
+                assertTick((RMQStreamMessage) forwarded);
+            }
+        }
+    }
+
+    @Test public void emptyAndNullFieldsRoundTrip() throws Exception {
+        for (boolean compact : new boolean[] { false, true }) {
+            RMQStreamMessage empty = new RMQStreamMessage();
+            ((RMQMessage) empty).generateInternalID();
+            RMQStreamMessage received = (RMQStreamMessage) RMQMessage.fromMessage(((RMQMessage) empty).toByteArray(compact), TRUSTED);
+            try {
+                received.readObject();
+                fail("empty message has no fields");
+            } catch (MessageEOFException e) {
+                // expected
+            }
+
+            RMQStreamMessage nulls = new RMQStreamMessage();
+            nulls.writeString(null);
+            nulls.writeObject(null);
+            ((RMQMessage) nulls).generateInternalID();
+            received = (RMQStreamMessage) RMQMessage.fromMessage(((RMQMessage) nulls).toByteArray(compact), TRUSTED);
+            assertNull(received.readString());
+            assertNull(received.readObject());
+        }
+    }
+}
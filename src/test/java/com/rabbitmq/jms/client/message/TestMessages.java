@@ -2,24 +2,36 @@
 package com.rabbitmq.jms.client.message;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.*;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
 import javax.jms.ObjectMessage;
 import javax.jms.StreamMessage;
 import javax.jms.TextMessage;
 
+import com.rabbitmq.jms.util.RMQByteArrayInputStream;
 import com.rabbitmq.jms.util.RMQJMSException;
+import com.rabbitmq.jms.util.WhiteListClassLoader;
 import org.junit.Test;
 
 public class TestMessages {
@@ -63,6 +75,70 @@ public class TestMessages {
         readBytesMessage(message);
     }
 
+    @Test
+    public void testBytesMessageBody() throws Exception {
+        byte[] array = { 9, 0, 0, 0, 42, 0, 5, 'h', (byte) 0xC3, (byte) 0xA9, 'l', 'o', 9 };
+        RMQBytesMessage message = new RMQBytesMessage();
+        message.setBody(array, 1, 11);
+        message.writeByte((byte) 7);
+        message.reset();
+        assertEquals(12, message.getBodyLength());
+        assertEquals(42, message.readInt());
+        assertEquals("h\u00e9lo", message.readUTF());
+
+        ByteBuffer body = message.getBodyBuffer();
+        assertTrue(body.isReadOnly());
+        assertEquals(0, body.position());
+        assertEquals(12, body.remaining());
+        assertEquals(42, body.getInt());
+        assertEquals(7, message.readByte());
+
+        RMQBytesMessage shared = new RMQBytesMessage();
+        shared.setBody(ByteBuffer.wrap(array, 1, 4));
+        shared.reset();
+        array[4] = 43;
+        assertEquals(43, shared.readInt());
+        try {
+            shared.readByte();
+            fail("read past the body");
+        } catch (MessageEOFException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A bytes message allocates no writer until it is first written to, and holds a body it is given or receives
+     * without copying it.
+     */
+    @Test
+    public void testBytesMessageWriterAndBodyAreNotAllocatedUntilNeeded() throws Exception {
+        RMQBytesMessage empty = new RMQBytesMessage();
+        empty.setStringProperty("colour", "blue");
+        assertEquals(0L, empty.getBodyLength());
+        assertFalse(empty.hasWriter());
+        empty.writeInt(42);
+        assertTrue(empty.hasWriter());
+
+        byte[] body = { 1, 2, 3 };
+        RMQBytesMessage set = new RMQBytesMessage();
+        set.setBody(body, 0, body.length);
+        assertFalse(set.hasWriter());
+        assertSame(body, set.getAmqpBodyArray());
+
+        RMQBytesMessage received = new RMQBytesMessage();
+        received.readAmqpBody(body);
+        assertFalse(received.hasWriter());
+        assertSame(body, received.getAmqpBodyArray());
+
+        byte[] frame = { 9, 9, 4, 5, 6 };
+        RMQBytesMessage framed = new RMQBytesMessage();
+        framed.readBody(null, new RMQByteArrayInputStream(frame, 2, 3));
+        frame[2] = 7; // the body is read from the array it was received in
+        assertEquals(7, framed.readByte());
+        assertEquals(3L, framed.getBodyLength());
+        assertFalse(framed.hasWriter());
+    }
+
     @Test
     public void testMapMessage() throws Exception {
         RMQMapMessage message = new RMQMapMessage();
@@ -70,6 +146,25 @@ public class TestMessages {
         readMapMessage(message);
     }
 
+    @Test
+    public void testMapMessageValueTypes() throws Exception {
+        RMQMapMessage message = new RMQMapMessage();
+        Object[] values = { true, (byte) 1, (short) 2, 'c', 3, 4L, 5.0f, 6.0d, "string", BYTE_ARRAY };
+        for (Object value : values) {
+            message.setObject(value.getClass().getName(), value);
+        }
+        for (Object value : Arrays.asList(new Date(), new Object(), new int[] { 1 })) {
+            try {
+                message.setObject("invalid", value);
+                fail(value.getClass().getName() + " is not a map value type");
+            } catch (MessageFormatException e) {
+                // expected
+            }
+        }
+        assertFalse(message.itemExists("invalid"));
+        assertEquals("3", message.getString(Integer.class.getName()));
+    }
+
     @Test
     public void testStreamMessage() throws Exception {
         RMQStreamMessage message = new RMQStreamMessage();
@@ -78,6 +173,21 @@ public class TestMessages {
         readStreamMessage(message);
     }
 
+    /**
+     * Values are written in the format the session sends them in, so that no conversion is needed when sent.
+     */
+    @Test
+    public void testStreamMessageIsWrittenInTheFormatItIsSent() throws Exception {
+        for (boolean taggedValues : new boolean[] { false, true }) {
+            RMQStreamMessage message = new RMQStreamMessage(taggedValues);
+            writeStreamMessage(message);
+            assertEquals(!taggedValues, message.holdsObjectStream());
+            message.reset();
+            assertEquals(!taggedValues, message.holdsObjectStream());
+            readStreamMessage(message);
+        }
+    }
+
     @Test
     public void testObjectMessage() throws Exception {
         RMQObjectMessage message = new RMQObjectMessage();
@@ -92,6 +202,86 @@ public class TestMessages {
         readObjectMessage(message, Color.WHITE, Arrays.asList("java.lang", "com.rabbitmq"));
     }
 
+    @Test
+    public void testObjectMessageIsDeserialisedOnce() throws Exception {
+        CountingSerializer serializer = new CountingSerializer(null);
+        RMQObjectMessage message = new RMQObjectMessage(Arrays.asList("com.rabbitmq"), serializer);
+        message.setObject(new TestSerializable(1, "one"));
+        Serializable object = message.getObject();
+        assertEquals(new TestSerializable(1, "one"), object);
+        assertTrue(object == message.getObject());
+        assertEquals(1, serializer.deserialized);
+
+        message.setObject(new TestSerializable(2, "two"));
+        assertEquals(new TestSerializable(2, "two"), message.getObject());
+        assertEquals(2, serializer.deserialized);
+        message.clearBody();
+        assertEquals(null, message.getObject());
+    }
+
+    @Test(expected = RMQJMSException.class)
+    public void testObjectMessageSerializerIsCheckedForUntrustedPayload() throws Exception {
+        RMQObjectMessage message = new RMQObjectMessage(Arrays.asList("java.lang", "com.rabbitmq"), new CountingSerializer(Color.WHITE));
+        message.setObject("white");
+        message.getObject();
+    }
+
+    /** Java serialization, counting what is deserialized, or standing in another object for it */
+    private static class CountingSerializer implements ObjectMessageSerializer {
+        private final Serializable replacement;
+        private int deserialized = 0;
+
+        CountingSerializer(Serializable replacement) {
+            this.replacement = replacement;
+        }
+
+        @Override
+        public byte[] serialize(Serializable object) throws IOException {
+            return JavaObjectMessageSerializer.INSTANCE.serialize(object);
+        }
+
+        @Override
+        public Serializable deserialize(byte[] bytes, WhiteListClassLoader classLoader) throws IOException, ClassNotFoundException {
+            this.deserialized++;
+            return this.replacement == null ? JavaObjectMessageSerializer.INSTANCE.deserialize(bytes, classLoader) : this.replacement;
+        }
+    }
+
+    @Test
+    public void testObjectMessageSerializerResolvesNestedClassesThroughTrustedLoader() throws Exception {
+        RMQObjectMessage trusted = new RMQObjectMessage(Arrays.asList("com.rabbitmq", "java.lang"), new ClassLoaderSerializer());
+        trusted.setObject(new TestSerializable(1, "nested"));
+        assertEquals(new TestSerializable(1, "nested"), trusted.getObject());
+
+        RMQObjectMessage untrusted = new RMQObjectMessage(Arrays.asList("com.rabbitmq", "java.lang"), new ClassLoaderSerializer());
+        untrusted.setObject(new TestSerializable(1, Color.WHITE));
+        try {
+            untrusted.getObject();
+            fail("nested java.awt.Color is not trusted");
+        } catch (RMQJMSException e) {
+            assertTrue(e.getCause() instanceof ClassNotFoundException);
+        }
+    }
+
+    /** Java serialization, resolving classes through the class loader only, as a serializer other than the default would */
+    private static class ClassLoaderSerializer implements ObjectMessageSerializer {
+        @Override
+        public byte[] serialize(Serializable object) throws IOException {
+            return JavaObjectMessageSerializer.INSTANCE.serialize(object);
+        }
+
+        @Override
+        public Serializable deserialize(byte[] bytes, final WhiteListClassLoader classLoader) throws IOException, ClassNotFoundException {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws ClassNotFoundException {
+                    return Class.forName(desc.getName(), false, classLoader);
+                }
+            };
+            return (Serializable) in.readObject();
+        }
+    }
+
     @Test
     public void testTextMessage() throws Exception {
         RMQTextMessage message = new RMQTextMessage();
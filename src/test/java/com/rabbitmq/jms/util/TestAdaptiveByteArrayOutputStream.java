@@ -0,0 +1,93 @@
+/* Copyright (c) 2017 Pivotal Software, Inc. All rights reserved. */
+package com.rabbitmq.jms.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestAdaptiveByteArrayOutputStream {
+
+    private static byte[] content(int size, int value) {
+        byte[] b = new byte[size];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    private static byte[] write(AdaptiveByteArrayOutputStream out, byte[] content) {
+        out.reset();
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * The buffer grows to the usual size of content.
+     */
+    @Test
+    public void testTargetSizeFollowsContent() throws Exception {
+        AdaptiveByteArrayOutputStream out = new AdaptiveByteArrayOutputStream(512);
+        assertEquals(512, out.getTargetSize());
+        for (int i = 0; i < 64; i++) {
+            write(out, content(4000 + i, i));
+        }
+        assertEquals(4000 + 57, out.getTargetSize());
+        for (int i = 0; i < 64; i++) {
+            write(out, content(100, i));
+        }
+        assertEquals(512, out.getTargetSize());
+    }
+
+    /**
+     * An occasional large piece of content leaves the target size alone.
+     */
+    @Test
+    public void testOutliersAreIgnored() throws Exception {
+        AdaptiveByteArrayOutputStream out = new AdaptiveByteArrayOutputStream(512);
+        for (int i = 0; i < 64; i++) {
+            write(out, content(i % 32 == 0 ? 1000000 : 2000, i));
+        }
+        assertEquals(2000, out.getTargetSize());
+    }
+
+    /**
+     * Content is never changed by the content written after it, whether it was copied or handed over.
+     */
+    @Test
+    public void testContentIsNotOverwritten() throws Exception {
+        AdaptiveByteArrayOutputStream out = new AdaptiveByteArrayOutputStream(16);
+        byte[] exact = write(out, content(16, 1));
+        byte[] smaller = write(out, content(10, 2));
+        byte[] larger = write(out, content(40, 3));
+        byte[] last = write(out, content(16, 4));
+        assertArrayEquals(content(16, 1), exact);
+        assertArrayEquals(content(10, 2), smaller);
+        assertArrayEquals(content(40, 3), larger);
+        assertArrayEquals(content(16, 4), last);
+    }
+
+    /**
+     * The size of content sent without being written is counted as well.
+     */
+    @Test
+    public void testRecordedSizesAreFollowed() throws Exception {
+        AdaptiveByteArrayOutputStream out = new AdaptiveByteArrayOutputStream(512);
+        for (int i = 0; i < 64; i++) {
+            out.recordSize(3000);
+        }
+        assertEquals(3000, out.getTargetSize());
+    }
+
+    /**
+     * A prefix written after the content it prefixes is moved in front of it, leaving what comes before alone.
+     */
+    @Test
+    public void testMoveTail() throws Exception {
+        AdaptiveByteArrayOutputStream out = new AdaptiveByteArrayOutputStream(16);
+        out.reset();
+        out.write(new byte[] { 1, 2, 10, 11, 12, 13, 20, 21 }, 0, 8);
+        out.moveTail(2, 2);
+        assertArrayEquals(new byte[] { 1, 2, 20, 21, 10, 11, 12, 13 }, out.toByteArray());
+    }
+}